@@ -1,6 +1,9 @@
 package br.com.vcg.query.api;
+import com.querydsl.core.types.Path;
 import com.querydsl.core.types.PathMetadata;
+import com.querydsl.core.types.dsl.CollectionPathBase;
 import com.querydsl.core.types.dsl.ListPath;
+import com.querydsl.core.types.dsl.MapPath;
 import com.querydsl.core.types.dsl.SimpleExpression;
 
 /**
@@ -11,9 +14,12 @@ import com.querydsl.core.types.dsl.SimpleExpression;
 public class DetachedFetchFilter<E> extends QueryFilter<E>{
 	
 	/**
-	 * Coleção que será carregada de forma independente da consult principal.
+	 * Coleção (List, Set ou Map) que será carregada de forma independente da consult principal.
 	 */
-	private ListPath<E, SimpleExpression<? super E>> target;
+	private Path<?> target;
+	
+	/** Tipo dos elementos da coleção (valores, no caso de Map). */
+	private Class<E> elementType;
 	
 	/** Atalho para os metadados da configuração da coleção a ser carregada. */
 	private PathMetadata targetMetadata;
@@ -21,21 +27,84 @@ public class DetachedFetchFilter<E> extends QueryFilter<E>{
 	/** Acesso à configuração da consulta pai original */
 	private QueryFilter<?> parent;
 	
+	/** Restrição da consulta aos registros da consulta pai. */
+	private DetachedFetchStrategy strategy = DetachedFetchStrategy.IN;
+	
+	/** Inicializa a coleção do Hibernate no próprio lugar, ver {@link #initializeInPlace()}. */
+	private boolean initializeInPlace;
+	
+	/** Fetch sob demanda, ver {@link #lazy()}. */
+	private boolean lazy;
+	
 	/**
 	 * @param parent Configuração da consulta pai original.
 	 * @param listPath Expressão que aponta para a coleção que será "fetched"
 	 */
 	public DetachedFetchFilter(QueryFilter<?> parent, ListPath<E, SimpleExpression<? super E>> listPath) {
-		super(listPath.getElementType());
+		this(parent, listPath, listPath.getElementType());
+	}
+
+	/**
+	 * @param parent Configuração da consulta pai original.
+	 * @param collectionPath Expressão que aponta para a coleção (List ou Set) que será "fetched"
+	 */
+	public DetachedFetchFilter(QueryFilter<?> parent, CollectionPathBase<?, E, ?> collectionPath) {
+		this(parent, collectionPath, collectionPath.getElementType());
+	}
+
+	/**
+	 * @param parent Configuração da consulta pai original.
+	 * @param mapPath Expressão que aponta para o Map que será "fetched". Os valores do Map são os elementos
+	 * consultados.
+	 */
+	public DetachedFetchFilter(QueryFilter<?> parent, MapPath<?, E, ?> mapPath) {
+		this(parent, mapPath, mapPath.getValueType());
+	}
+
+	private DetachedFetchFilter(QueryFilter<?> parent, Path<?> target, Class<E> elementType) {
+		super(elementType);
+		this.parent = parent;
+		this.target = target;
+		this.elementType = elementType;
+		targetMetadata = target.getMetadata();
+	}
+
+	/**
+	 * Cópia da configuração de um fetch desatachado, associada a um novo filtro pai.
+	 * @param parent Cópia da configuração da consulta pai.
+	 * @param source Configuração a ser copiada.
+	 */
+	protected DetachedFetchFilter(QueryFilter<?> parent, DetachedFetchFilter<E> source) {
+		super(source);
 		this.parent = parent;
-		this.target = listPath;
-		targetMetadata = listPath.getMetadata();
+		this.target = source.target;
+		this.elementType = source.elementType;
+		this.targetMetadata = source.targetMetadata;
+		this.strategy = source.strategy;
+		this.initializeInPlace = source.initializeInPlace;
+		this.lazy = source.lazy;
+	}
+
+	/**
+	 * @param parent Cópia da configuração da consulta pai.
+	 * @return Uma cópia independente desta configuração, associada ao filtro pai informado.
+	 */
+	public DetachedFetchFilter<E> copy(QueryFilter<?> parent) {
+		return new DetachedFetchFilter<E>(parent, this);
+	}
+
+	/**
+	 * @return Uma cópia independente desta configuração, associada ao mesmo filtro pai.
+	 */
+	@Override
+	public DetachedFetchFilter<E> copy() {
+		return copy(parent);
 	}
 
 	/**
 	 * @return Expressão que representa a coleção a ser fetched.
 	 */
-	public ListPath<E, SimpleExpression<? super E>> getTarget() {
+	public Path<?> getTarget() {
 		return target;
 	}
 
@@ -57,11 +126,64 @@ public class DetachedFetchFilter<E> extends QueryFilter<E>{
 		this.parent = parent;
 	}
 	
+	/**
+	 * @param strategy Estratégia de restrição da consulta aos registros da consulta pai. Padrão: {@link DetachedFetchStrategy#IN}.
+	 * @return this.
+	 */
+	public DetachedFetchFilter<E> strategy(DetachedFetchStrategy strategy) {
+		this.strategy = strategy != null ? strategy : DetachedFetchStrategy.IN;
+		return this;
+	}
+
+	public DetachedFetchStrategy getStrategy() {
+		return strategy;
+	}
+	
+	/**
+	 * Inicializa a coleção do Hibernate (PersistentBag, PersistentSet...) das entidades gerenciadas com os
+	 * elementos carregados, em vez de substituí-la por uma nova coleção. As entidades permanecem gerenciadas,
+	 * inclusive quando a coleção está mapeada com orphanRemoval (que, sem esta opção, exige a remoção da entidade
+	 * do contexto de persistência). Coleções já inicializadas são mantidas.
+	 * <br/>
+	 * Como a coleção passa a representar o estado persistido, não são permitidas restrições (where, exemplo) no
+	 * filtro desatachado. Na execução paralela, ou para entidades não gerenciadas, a coleção é substituída.
+	 * @return this.
+	 */
+	public DetachedFetchFilter<E> initializeInPlace() {
+		this.initializeInPlace = true;
+		return this;
+	}
+
+	public boolean isInitializeInPlace() {
+		return initializeInPlace;
+	}
+	
+	/**
+	 * Adia o fetch até o primeiro acesso: cada entidade do resultado recebe uma coleção substituta e, quando
+	 * qualquer uma delas é acessada, a coleção é carregada para todas as entidades do resultado, em uma única
+	 * execução do fetch (por bloco da operação IN). Útil quando apenas algumas coleções do resultado serão
+	 * utilizadas. O EntityManager da consulta deve estar aberto no primeiro acesso, e um flush anterior ao acesso
+	 * também realiza o fetch, pois percorre as coleções das entidades gerenciadas.
+	 * <br/>
+	 * Não é suportado para coleções mapeadas com orphanRemoval de entidades gerenciadas (a coleção substituta
+	 * exigiria a remoção das entidades do contexto de persistência) nem combinado com {@link #initializeInPlace()}:
+	 * nestes casos, utilize o fetch imediato com {@link #initializeInPlace()}.
+	 * @return this.
+	 */
+	public DetachedFetchFilter<E> lazy() {
+		this.lazy = true;
+		return this;
+	}
+
+	public boolean isLazy() {
+		return lazy;
+	}
+	
 	/**
 	 * @return Tipo da entidade de domínio associada a este {@link DetachedFetchFilter}
 	 */
-	public Class<?> getEntityElementType() {
-		return getTarget().getElementType();
+	public Class<E> getEntityElementType() {
+		return elementType;
 	}
 	
 	/**
@@ -72,10 +194,11 @@ public class DetachedFetchFilter<E> extends QueryFilter<E>{
 	}
 	
 	/**
-	 * @return Tipo da entidade de domínio pai, que contém o relacionamento
+	 * @return Tipo da entidade de domínio pai, que contém o relacionamento. Para coleções aninhadas
+	 * (ex: pessoa.cidade.uf.cidades), é o tipo do objeto que contém a coleção (no caso, Uf).
 	 */
 	public Class<?> getParentElementType() {
-		return getParent().getFrom().getType();
+		return getTargetMetadata().getParent().getType();
 	}
 	
 	/**
@@ -0,0 +1,35 @@
+package br.com.vcg.query.api;
+
+/**
+ * Estratégia utilizada na restrição da consulta de um fetch desatachado aos registros da consulta principal.
+ *
+ * @author augusto
+ */
+public enum DetachedFetchStrategy {
+
+	/**
+	 * Os identificadores das entidades da consulta principal são enviados ao banco de dados na operação IN, em
+	 * blocos (uma consulta por bloco).
+	 */
+	IN,
+
+	/**
+	 * A consulta principal (joins e predicados) é reutilizada como subconsulta: <code>where filho.pai.id in
+	 * (select pai.id from Pai pai where ...)</code>. A coleção é carregada em uma única consulta,
+	 * independentemente do número de registros da consulta principal (equivalente ao FetchMode.SUBSELECT do
+	 * Hibernate, porém configurado por consulta). Consultas principais paginadas ou agrupadas (não suportadas em
+	 * subconsultas JPQL), os blocos de streams e os fetches aninhados utilizam a estratégia {@link #IN}.
+	 */
+	SUBSELECT,
+
+	/**
+	 * Os identificadores das entidades da consulta principal são inseridos (JDBC batch) em uma tabela temporária
+	 * da sessão do banco de dados, e a coleção é carregada em uma única consulta, com join sobre a tabela
+	 * temporária. Indicada para consultas principais muito grandes (dezenas de milhares de registros).
+	 * <br/>
+	 * Requer uma transação ativa e um dialeto com suporte a tabelas temporárias locais, e não considera os joins,
+	 * predicados e a ordenação configurados no filtro desatachado. Caso contrário, utiliza a estratégia {@link #IN}.
+	 */
+	TEMPORARY_TABLE
+
+}
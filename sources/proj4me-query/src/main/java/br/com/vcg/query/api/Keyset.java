@@ -0,0 +1,58 @@
+package br.com.vcg.query.api;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Token de continuação da paginação por chave (keyset/seek): valores das chaves de ordenação (incluindo o
+ * identificador, utilizado como critério de desempate) do último registro da página anterior.
+ * <br/>
+ * Imutável e serializável, pode ser mantido na sessão ou reconstruído a partir dos valores, através de
+ * {@link #of(Object...)}.
+ *
+ * @author augusto
+ */
+public final class Keyset implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Object[] values;
+
+	private Keyset(Object[] values) {
+		this.values = values;
+	}
+
+	/**
+	 * @param values Valores das chaves de ordenação, na mesma ordem da ordenação configurada no filtro,
+	 * seguidos do identificador (quando este não fizer parte da ordenação).
+	 * @return Token de continuação.
+	 */
+	public static Keyset of(Object... values) {
+		return new Keyset(values.clone());
+	}
+
+	/**
+	 * @return Valores das chaves de ordenação.
+	 */
+	public List<Object> getValues() {
+		return Collections.unmodifiableList(Arrays.asList(values));
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(values);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Keyset && Arrays.equals(values, ((Keyset) obj).values);
+	}
+
+	@Override
+	public String toString() {
+		return "Keyset" + Arrays.toString(values);
+	}
+
+}
@@ -0,0 +1,42 @@
+package br.com.vcg.query.api;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Página de uma consulta com paginação por chave (keyset/seek).
+ *
+ * @author augusto
+ */
+public final class KeysetPage<ENTITY> {
+
+	private final List<ENTITY> content;
+
+	private final Keyset next;
+
+	/**
+	 * @param content Registros da página.
+	 * @param next Token para a próxima página, ou null caso esta seja a última.
+	 */
+	public KeysetPage(List<ENTITY> content, Keyset next) {
+		this.content = Collections.unmodifiableList(content);
+		this.next = next;
+	}
+
+	public List<ENTITY> getContent() {
+		return content;
+	}
+
+	/**
+	 * @return Token para a consulta da próxima página (ver {@link QueryFilter#fetchKeyset(Long, Keyset)}), ou null
+	 * caso esta seja a última página.
+	 */
+	public Keyset getNext() {
+		return next;
+	}
+
+	public boolean hasNext() {
+		return next != null;
+	}
+
+}
@@ -0,0 +1,37 @@
+package br.com.vcg.query.api;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Página de uma consulta paginada ({@link QueryFilter#fetchPage(Long, Long)}), com o número total de registros.
+ *
+ * @author augusto
+ */
+public final class Page<ENTITY> {
+
+	private final List<ENTITY> content;
+
+	private final long total;
+
+	/**
+	 * @param content Registros da página.
+	 * @param total Número total de registros da consulta, desconsiderando a paginação.
+	 */
+	public Page(List<ENTITY> content, long total) {
+		this.content = Collections.unmodifiableList(content);
+		this.total = total;
+	}
+
+	public List<ENTITY> getContent() {
+		return content;
+	}
+
+	/**
+	 * @return Número total de registros da consulta, desconsiderando a paginação.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+}
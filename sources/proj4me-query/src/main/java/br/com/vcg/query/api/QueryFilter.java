@@ -1,16 +1,23 @@
 package br.com.vcg.query.api;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.querydsl.core.QueryModifiers;
 import com.querydsl.core.types.CollectionExpression;
 import com.querydsl.core.types.EntityPath;
-import com.querydsl.core.types.dsl.ListPath;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.dsl.CollectionPathBase;
+import com.querydsl.core.types.dsl.MapPath;
 import com.querydsl.core.types.dsl.PathBuilder;
 import com.querydsl.jpa.JPAQueryMixin;
 
+import br.com.vcg.query.exception.QbeException;
+
 /**
  * Filtro que dirige a integração do conceito de QBE (QueryByExample) com o
  * framework QueryDsl.
@@ -59,11 +66,33 @@ public class QueryFilter<ENTITY> extends JPAQueryMixin<QueryFilter<ENTITY>> {
      */
     private List<DetachedFetchFilter<?>> detachedCollectionFetchList = new ArrayList<DetachedFetchFilter<?>>();
 
+    /**
+     * Número máximo de consultas desatachadas executadas em paralelo. Ver {@link #parallelDetachedFetches(int)}.
+     */
+    private int detachedFetchParallelism = 1;
+
     /**
      * Para configuração da Query.
      */
     private Map<String, Object> hints = new HashMap<String, Object>();
 
+    /**
+     * Tamanho da página na paginação por chave (keyset). Ver {@link #fetchKeyset(Long, Keyset)}.
+     */
+    private Long keysetPageSize;
+
+    /**
+     * Chaves do último registro da página anterior, na paginação por chave (keyset).
+     */
+    private Keyset keysetAfter;
+
+    /**
+     * Informações calculadas a partir da configuração do filtro na primeira execução (ex: formato das expressões
+     * fixas da consulta) e reutilizadas nas execuções seguintes. Mantidas pelo
+     * {@link br.com.vcg.query.repository.QbeRepository}, não são copiadas em {@link #copy()}.
+     */
+    private transient volatile Object compiled;
+
     /**
      * @param from
      *            Q-type da entidade primária para a construção da consulta.
@@ -75,6 +104,30 @@ public class QueryFilter<ENTITY> extends JPAQueryMixin<QueryFilter<ENTITY>> {
         setSelf(this); // para funcionamento das chamadas aninhadas
     }
 
+    /**
+     * Cria uma cópia independente da configuração do filtro informado. Os metadados são copiados
+     * (as expressões, imutáveis, são compartilhadas), de forma que a cópia pode receber novas restrições
+     * e um novo exemplo sem afetar o filtro original.
+     * 
+     * @param source
+     *            Filtro a ser copiado.
+     */
+    protected QueryFilter(QueryFilter<ENTITY> source) {
+        super(source.getMetadata().clone());
+        this.example = source.example;
+        this.deepLevel = source.deepLevel;
+        this.from = source.from;
+        this.projection = source.projection;
+        this.hints.putAll(source.hints);
+        this.keysetPageSize = source.keysetPageSize;
+        this.keysetAfter = source.keysetAfter;
+        this.detachedFetchParallelism = source.detachedFetchParallelism;
+        for (DetachedFetchFilter<?> detachedFetchFilter : source.detachedCollectionFetchList) {
+            this.detachedCollectionFetchList.add(detachedFetchFilter.copy(this));
+        }
+        setSelf(this);
+    }
+
     /**
      * @param entityType
      *            Tipo da entidade associada a este Filter.
@@ -99,6 +152,46 @@ public class QueryFilter<ENTITY> extends JPAQueryMixin<QueryFilter<ENTITY>> {
         return aliasName;
     }
 
+    /**
+     * @return Uma cópia independente deste filtro, da mesma classe. Ver {@link #QueryFilter(QueryFilter)}.
+     *         Subclasses devem sobrescrever este método ou declarar um construtor de cópia, que recebe uma
+     *         instância da própria subclasse (ou um QueryFilter).
+     * @throws QbeException
+     *             Caso a subclasse não declare um construtor de cópia.
+     */
+    @SuppressWarnings("unchecked")
+    public QueryFilter<ENTITY> copy() {
+        if (getClass() == QueryFilter.class) {
+            return new QueryFilter<ENTITY>(this);
+        }
+        Constructor<?> constructor = findCopyConstructor(getClass());
+        if (constructor == null) {
+            throw new QbeException("A classe " + getClass().getName() + " deve sobrescrever o método copy() ou declarar "
+                    + "um construtor de cópia, para que o filtro possa ser copiado sem perder a sua configuração.");
+        }
+        try {
+            return (QueryFilter<ENTITY>) constructor.newInstance(this);
+        } catch (InvocationTargetException e) {
+            throw new QbeException("Falha ao copiar o filtro " + getClass().getName(), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new QbeException("Falha ao copiar o filtro " + getClass().getName(), e);
+        }
+    }
+
+    /**
+     * @return O construtor de cópia da classe: com um único parâmetro, do tipo da própria classe ou de QueryFilter.
+     */
+    private static Constructor<?> findCopyConstructor(Class<?> type) {
+        for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+            Class<?>[] parameters = constructor.getParameterTypes();
+            if (parameters.length == 1 && parameters[0].isAssignableFrom(type) && QueryFilter.class.isAssignableFrom(parameters[0])) {
+                constructor.setAccessible(true);
+                return constructor;
+            }
+        }
+        return null;
+    }
+
     public ENTITY getExample() {
         return example;
     }
@@ -133,14 +226,90 @@ public class QueryFilter<ENTITY> extends JPAQueryMixin<QueryFilter<ENTITY>> {
         this.from = from;
     }
 
+    /**
+     * Configura o carregamento de uma coleção em uma consulta independente (fetch desatachado), executada após a
+     * consulta principal e restrita aos seus registros.
+     * 
+     * @param target
+     *            Coleção (List ou Set) a ser carregada. Ex: QServidor.servidor.dependentes.
+     * @return Configuração da consulta da coleção, que pode receber restrições, joins e ordenação próprios.
+     */
+    @SuppressWarnings("unchecked")
     public <E> DetachedFetchFilter<E> detachedFetchFilter(CollectionExpression<?, E> target) {
-        if (target instanceof ListPath) {
+        if (!(target instanceof CollectionPathBase)) {
+            throw new QbeException("O fetch desatachado é suportado apenas para coleções mapeadas (ListPath, SetPath): " + target);
+        }
+        DetachedFetchFilter<E> detachedFetchFilter = new DetachedFetchFilter<E>(this, (CollectionPathBase<?, E, ?>) target);
+        this.detachedCollectionFetchList.add(detachedFetchFilter);
+        return detachedFetchFilter;
+    }
+
+    /**
+     * Configura o carregamento de um Map em uma consulta independente (fetch desatachado).
+     * 
+     * @param target
+     *            Map a ser carregado.
+     * @return Configuração da consulta dos valores do Map.
+     */
+    public <K, V> DetachedFetchFilter<V> detachedFetchFilter(MapPath<K, V, ?> target) {
+        DetachedFetchFilter<V> detachedFetchFilter = new DetachedFetchFilter<V>(this, target);
+        this.detachedCollectionFetchList.add(detachedFetchFilter);
+        return detachedFetchFilter;
+    }
+
+    /**
+     * Configura um grafo de coleções para fetch desatachado, carregado em largura: uma consulta por nível (por
+     * bloco da operação IN), restrita aos elementos carregados no nível anterior, independente do número de
+     * registros. Cada coleção é associada ao filtro cujo tipo é a raiz do seu caminho: este filtro ou uma
+     * coleção informada antes dela. Coleções já configuradas são reaproveitadas.
+     * <br/>
+     * Ex: <code>detachedFetchGraph(QServidor.servidor.projetos, QProjetoServidor.projetoServidor.projeto().ferramentas)</code>
+     * carrega os projetos dos servidores e, em seguida, as ferramentas de todos os projetos.
+     * 
+     * @param targets
+     *            Coleções (List ou Set) a serem carregadas, na ordem dos níveis.
+     * @return this.
+     */
+    public QueryFilter<ENTITY> detachedFetchGraph(CollectionExpression<?, ?>... targets) {
+        List<QueryFilter<?>> graph = new ArrayList<QueryFilter<?>>();
+        graph.add(this);
+        for (CollectionExpression<?, ?> target : targets) {
+            if (!(target instanceof Path)) {
+                throw new QbeException("O fetch desatachado é suportado apenas para coleções mapeadas (ListPath, SetPath): " + target);
+            }
+            QueryFilter<?> parent = findGraphParent(graph, ((Path<?>) target).getRoot().getType());
+            if (parent == null) {
+                throw new QbeException("Nenhuma coleção do grafo contém " + target + ". Informe as coleções na ordem dos níveis.");
+            }
+            DetachedFetchFilter<?> detachedFetchFilter = parent.findDetachedFetchFilter((Path<?>) target);
+            if (detachedFetchFilter == null) {
+                detachedFetchFilter = parent.detachedFetchFilter(target);
+            }
+            graph.add(detachedFetchFilter);
+        }
+        return this;
+    }
 
-            @SuppressWarnings({ "rawtypes", "unchecked" })
-            DetachedFetchFilter<E> detachedFetchFilter = new DetachedFetchFilter<E>(this, (ListPath) target);
-            this.detachedCollectionFetchList.add(detachedFetchFilter);
-            return detachedFetchFilter;
+    /**
+     * @return O último filtro do grafo cujo tipo é a raiz do caminho de uma coleção.
+     */
+    private static QueryFilter<?> findGraphParent(List<QueryFilter<?>> graph, Class<?> rootType) {
+        for (int i = graph.size() - 1; i >= 0; i--) {
+            if (graph.get(i).getFrom().getType().equals(rootType)) {
+                return graph.get(i);
+            }
+        }
+        return null;
+    }
 
+    /**
+     * @return O fetch desatachado já configurado para a coleção, ou null.
+     */
+    private DetachedFetchFilter<?> findDetachedFetchFilter(Path<?> target) {
+        for (DetachedFetchFilter<?> detachedFetchFilter : detachedCollectionFetchList) {
+            if (detachedFetchFilter.getTarget().equals(target)) {
+                return detachedFetchFilter;
+            }
         }
         return null;
     }
@@ -149,6 +318,32 @@ public class QueryFilter<ENTITY> extends JPAQueryMixin<QueryFilter<ENTITY>> {
         return detachedCollectionFetchList;
     }
 
+    /**
+     * Executa os fetches desatachados em paralelo: as coleções e os blocos da operação IN de cada coleção são
+     * consultados simultaneamente, cada tarefa em um EntityManager próprio (somente leitura), e o resultado é
+     * associado às entidades da consulta principal na thread do chamador, sempre na mesma ordem.
+     * <br/>
+     * Como as consultas paralelas não participam da transação corrente, alterações ainda não gravadas não são
+     * consideradas, e os elementos carregados estão desatachados.
+     * <br/>
+     * As tarefas são executadas no executor informado ao repositório
+     * ({@link br.com.vcg.query.repository.QbeRepositoryImpl#setDetachedFetchExecutor(java.util.concurrent.Executor)}).
+     * Sem executor, os fetches são sequenciais.
+     * 
+     * @param parallelism
+     *            Número máximo de consultas simultâneas. 1 (padrão) executa os fetches de forma sequencial, no
+     *            EntityManager da consulta principal.
+     * @return this.
+     */
+    public QueryFilter<ENTITY> parallelDetachedFetches(int parallelism) {
+        this.detachedFetchParallelism = parallelism > 0 ? parallelism : 1;
+        return this;
+    }
+
+    public int getDetachedFetchParallelism() {
+        return detachedFetchParallelism;
+    }
+
     /**
      * @param property
      *            Nome da propriedade.
@@ -205,9 +400,21 @@ public class QueryFilter<ENTITY> extends JPAQueryMixin<QueryFilter<ENTITY>> {
      * @return this.
      */
     public QueryFilter<ENTITY> fetchPage(Long pageSize, Long pageIndex) {
+        QueryModifiers page = pageModifiers(pageSize, pageIndex);
+        return this.fetchRange(page.getOffset(), page.getLimit());
+    }
+
+    /**
+     * @param pageSize
+     *            Tamanho da página. Caso não informado, usa o padrão {@link #PAGE_SIZE}.
+     * @param pageIndex
+     *            Índice da página (1 based). Caso não informado, usa o padrão {@link #PAGE_INDEX}.
+     * @return Limite e deslocamento da página, conforme {@link #fetchPage(Long, Long)}.
+     */
+    public static QueryModifiers pageModifiers(Long pageSize, Long pageIndex) {
         Long index = pageIndex != null && pageIndex > 0 ? pageIndex : PAGE_INDEX;
         Long size = pageSize != null && pageSize > 0? pageSize : PAGE_SIZE;
-        return this.fetchRange((index - 1) * size, size);
+        return new QueryModifiers(size, (index - 1) * size);
     }
 
     /**
@@ -228,6 +435,56 @@ public class QueryFilter<ENTITY> extends JPAQueryMixin<QueryFilter<ENTITY>> {
         return this;
     }
 
+    /**
+     * Configura a paginação por chave (keyset/seek): ao invés de descartar os registros das páginas anteriores
+     * (OFFSET), a consulta é restringida aos registros posteriores às chaves de ordenação do último registro da
+     * página anterior. O identificador da entidade é adicionado à ordenação como critério de desempate. Para as
+     * chaves que podem ser nulas, a posição dos nulos é explícita na ordenação: a configurada na ordenação do
+     * filtro (ex: <code>nullsFirst()</code>) ou, por padrão, ao final em ASC e no início em DESC.
+     * <br/>
+     * Utilizada por {@link br.com.vcg.query.repository.QbeRepository#findKeysetPage(QueryFilter)}.
+     * 
+     * @param pageSize
+     *            Tamanho da página. Caso não informado, usa o padrão {@link #PAGE_SIZE}.
+     * @param after
+     *            Token retornado na página anterior ({@link KeysetPage#getNext()}), ou null para a primeira página.
+     * @return this.
+     */
+    public QueryFilter<ENTITY> fetchKeyset(Long pageSize, Keyset after) {
+        this.keysetPageSize = pageSize != null && pageSize > 0 ? pageSize : PAGE_SIZE;
+        this.keysetAfter = after;
+        return this;
+    }
+
+    /**
+     * @return O tamanho da página configurado em {@link #fetchKeyset(Long, Keyset)}, ou null.
+     */
+    public Long getKeysetPageSize() {
+        return keysetPageSize;
+    }
+
+    /**
+     * @return O token configurado em {@link #fetchKeyset(Long, Keyset)}, ou null (primeira página).
+     */
+    public Keyset getKeysetAfter() {
+        return keysetAfter;
+    }
+
+    /**
+     * @return Informações calculadas pelo {@link br.com.vcg.query.repository.QbeRepository} a partir da
+     * configuração do filtro, ou null. Uso interno.
+     */
+    public Object getCompiled() {
+        return compiled;
+    }
+
+    /**
+     * @param compiled Informações calculadas a partir da configuração do filtro. Uso interno.
+     */
+    public void setCompiled(Object compiled) {
+        this.compiled = compiled;
+    }
+
     /**
      * @return O valor configurado para paginação em {@link #limit(long)}.
      */
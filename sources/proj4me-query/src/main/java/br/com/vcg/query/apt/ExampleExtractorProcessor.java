@@ -0,0 +1,425 @@
+package br.com.vcg.query.apt;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.persistence.Embeddable;
+import javax.persistence.EmbeddedId;
+import javax.persistence.Entity;
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.MappedSuperclass;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.Transient;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Processador de anotações que gera, para cada {@link Entity} e {@link Embeddable}, um
+ * {@link br.com.vcg.query.repository.ExampleExtractor} que lê as propriedades preenchidas do objeto exemplo
+ * (através dos métodos get, quando acessíveis) e registra os predicados diretamente sobre o tipo Q
+ * gerado pelo QueryDSL. Ex: <code>q.nome.contains(nome)</code>.
+ * <br/>
+ * Deve ser executado juntamente com o processador do QueryDSL, respeitando as mesmas opções
+ * (querydsl.entityAccessors, querydsl.prefix, querydsl.suffix, querydsl.packageSuffix):
+ * <pre>
+ * &lt;processors&gt;
+ *   &lt;processor&gt;com.querydsl.apt.jpa.JPAAnnotationProcessor&lt;/processor&gt;
+ *   &lt;processor&gt;br.com.vcg.query.apt.ExampleExtractorProcessor&lt;/processor&gt;
+ * &lt;/processors&gt;
+ * </pre>
+ * As regras aplicadas são as mesmas do {@link br.com.vcg.query.repository.ExamplePropertiesInspector}.
+ *
+ * @author augusto
+ */
+@SupportedAnnotationTypes({ "javax.persistence.Entity", "javax.persistence.Embeddable" })
+@SupportedOptions({ ExampleExtractorProcessor.ENTITY_ACCESSORS, ExampleExtractorProcessor.PREFIX,
+	ExampleExtractorProcessor.SUFFIX, ExampleExtractorProcessor.PACKAGE_SUFFIX })
+public class ExampleExtractorProcessor extends AbstractProcessor {
+
+	static final String ENTITY_ACCESSORS = "querydsl.entityAccessors";
+	static final String PREFIX = "querydsl.prefix";
+	static final String SUFFIX = "querydsl.suffix";
+	static final String PACKAGE_SUFFIX = "querydsl.packageSuffix";
+
+	private static final String EXTRACTOR_SUFFIX = "ExampleExtractor";
+
+	/**
+	 * Papel da propriedade, equivalente a {@link br.com.vcg.query.repository.metadata.ExampleProperty.Role}.
+	 */
+	private enum Role {
+		SIMPLE, RELATIONSHIP, COMPOSITE_KEY
+	}
+
+	private final Set<String> generated = new HashSet<String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		Set<Element> elements = new HashSet<Element>();
+		elements.addAll(roundEnv.getElementsAnnotatedWith(Entity.class));
+		elements.addAll(roundEnv.getElementsAnnotatedWith(Embeddable.class));
+
+		for (Element element : elements) {
+			if (element.getKind() == ElementKind.CLASS && isSupported((TypeElement) element)) {
+				TypeElement type = (TypeElement) element;
+				if (generated.add(type.getQualifiedName().toString())) {
+					generate(type);
+				}
+			}
+		}
+		// as anotações JPA também são processadas pelo QueryDSL
+		return false;
+	}
+
+	/**
+	 * Classes abstratas, genéricas ou internas não são geradas (o exemplo é sempre de uma classe concreta).
+	 */
+	private boolean isSupported(TypeElement type) {
+		return type.getNestingKind() == NestingKind.TOP_LEVEL
+				&& !type.getModifiers().contains(Modifier.ABSTRACT)
+				&& type.getTypeParameters().isEmpty();
+	}
+
+	private void generate(TypeElement type) {
+		String packageName = getPackageName(type);
+		String simpleName = type.getSimpleName().toString();
+		String extractorName = simpleName + EXTRACTOR_SUFFIX;
+		String queryType = getQueryTypeName(packageName, simpleName);
+
+		try {
+			JavaFileObject file = processingEnv.getFiler().createSourceFile(qualify(packageName, extractorName), type);
+			PrintWriter out = new PrintWriter(file.openWriter());
+			try {
+				write(out, type, packageName, extractorName, queryType);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"Falha ao gerar o extrator do exemplo: " + e.getMessage(), type);
+		}
+	}
+
+	private void write(PrintWriter out, TypeElement type, String packageName, String extractorName, String queryType) {
+		String typeName = type.getQualifiedName().toString();
+		List<VariableElement> properties = findProperties(type);
+		// propriedades sem get acessível: lidas através de acessores compilados
+		List<VariableElement> accessorProperties = new ArrayList<VariableElement>();
+		for (VariableElement property : properties) {
+			if (findGetter(type, property) == null && !isAccessible(type, property)) {
+				accessorProperties.add(property);
+			}
+		}
+
+		if (!packageName.isEmpty()) {
+			out.println("package " + packageName + ";");
+			out.println();
+		}
+		out.println("import javax.annotation.Generated;");
+		out.println();
+		out.println("import com.querydsl.core.types.Path;");
+		out.println();
+		out.println("import br.com.vcg.query.repository.ExampleExtractionContext;");
+		out.println("import br.com.vcg.query.repository.ExampleExtractor;");
+		if (!accessorProperties.isEmpty()) {
+			out.println("import br.com.vcg.query.util.PropertyAccessor;");
+		}
+		out.println();
+		out.println("/**");
+		out.println(" * " + extractorName + " extrai os valores preenchidos de um exemplo do tipo " + type.getSimpleName());
+		out.println(" */");
+		out.println("@Generated(\"" + getClass().getName() + "\")");
+		out.println("public final class " + extractorName + " implements ExampleExtractor<" + typeName + "> {");
+		out.println();
+
+		// acessores compilados para as propriedades sem get acessível
+		for (VariableElement property : accessorProperties) {
+			out.println("    private static final PropertyAccessor " + accessorConstant(property)
+					+ " = PropertyAccessor.of(" + typeName + ".class, \"" + property.getSimpleName() + "\");");
+			out.println();
+		}
+
+		out.println("    @Override");
+		out.println("    public void extract(ExampleExtractionContext context, Path<?> path, " + typeName
+				+ " example, String prefix, int level) {");
+		/*
+		 * Sem os acessores (querydsl.entityAccessors), os atributos de associações são inicializados no construtor
+		 * do tipo Q, de acordo com o PathInits.
+		 */
+		String inits = !isEntityAccessors() && hasQueryTypeProperty(properties) ? ", com.querydsl.core.types.dsl.PathInits.DIRECT" : "";
+		out.println("        " + queryType + " q = new " + queryType + "(path.getMetadata()" + inits + ");");
+
+		for (VariableElement property : properties) {
+			out.println();
+			writeProperty(out, type, property);
+		}
+
+		out.println("    }");
+		out.println();
+		out.println("}");
+	}
+
+	private void writeProperty(PrintWriter out, TypeElement type, VariableElement property) {
+		String name = property.getSimpleName().toString();
+		String javaType = getPropertyType(type, property);
+		String local = "_" + name;
+		String path = "q." + name + (hasQueryType(property.asType()) && isEntityAccessors() ? "()" : "");
+
+		out.println("        " + javaType + " " + local + " = " + readValue(type, property, javaType) + ";");
+
+		switch (resolveRole(property)) {
+		case RELATIONSHIP:
+			/*
+			 * Associações inicializadas e sem PK simples preenchida têm os seus atributos analisados (de acordo com a
+			 * profundidade). Nos demais casos, a associação é utilizada como filtro se o identificador estiver preenchido.
+			 */
+			out.println("        if (" + local + " != null) {");
+			out.println("            if (context.isInitialized(" + local + ") && !context.isPkFilled(" + local + ")) {");
+			out.println("                context.extractRelationship(" + path + ", " + local + ", prefix, \"" + name + "\", level);");
+			out.println("            } else if (context.isIdFilled(" + local + ") && !context.isCustom(prefix, \"" + name + "\")) {");
+			out.println("                context.where(" + path + ".eq(" + local + "));");
+			out.println("            }");
+			out.println("        }");
+			break;
+
+		case COMPOSITE_KEY:
+			out.println("        context.extractNested(" + path + ", " + local + ", prefix + \"" + name + ".\", level + 1);");
+			break;
+
+		default:
+			String operation = String.class.getName().equals(javaType) ? "contains" : "eq";
+			out.println("        if (context.isFilled(" + local + ") && !context.isCustom(prefix, \"" + name + "\")) {");
+			out.println("            context.where(" + path + "." + operation + "(" + local + "));");
+			out.println("        }");
+			break;
+		}
+	}
+
+	/**
+	 * Propriedades válidas da classe e das superclasses persistentes, na ordem utilizada pelo
+	 * {@link br.com.vcg.query.repository.metadata.ExampleMetadata}. Coleções são desconsideradas.
+	 */
+	private List<VariableElement> findProperties(TypeElement type) {
+		List<VariableElement> properties = new ArrayList<VariableElement>();
+		for (TypeElement clazz = type; clazz != null && isPersistent(clazz); clazz = getSuperclass(clazz)) {
+			for (VariableElement field : ElementFilter.fieldsIn(clazz.getEnclosedElements())) {
+				if (isValidProperty(field)) {
+					properties.add(field);
+				}
+			}
+		}
+		return properties;
+	}
+
+	private boolean isPersistent(TypeElement type) {
+		return type.getAnnotation(Entity.class) != null
+				|| type.getAnnotation(Embeddable.class) != null
+				|| type.getAnnotation(MappedSuperclass.class) != null;
+	}
+
+	private TypeElement getSuperclass(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		return superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+	}
+
+	/**
+	 * Desconsidera atributos estáticos, transientes (não possuem path no tipo Q), coleções e mapas.
+	 */
+	private boolean isValidProperty(VariableElement field) {
+		String name = field.getSimpleName().toString();
+		return !field.getModifiers().contains(Modifier.STATIC)
+				&& !field.getModifiers().contains(Modifier.TRANSIENT)
+				&& !isAnnotated(field, Transient.class)
+				&& !"serialVersionUID".equals(name)
+				&& !"class".equals(name)
+				&& !isAssignable(field.asType(), "java.util.Collection")
+				&& !isAssignable(field.asType(), "java.util.Map");
+	}
+
+	private boolean isAssignable(TypeMirror type, String className) {
+		TypeElement target = processingEnv.getElementUtils().getTypeElement(className);
+		return target != null && processingEnv.getTypeUtils().isAssignable(
+				processingEnv.getTypeUtils().erasure(type), processingEnv.getTypeUtils().erasure(target.asType()));
+	}
+
+	private Role resolveRole(VariableElement field) {
+		if (isAnnotated(field, OneToMany.class)
+				|| isAnnotated(field, OneToOne.class)
+				|| isAnnotated(field, ManyToMany.class)
+				|| isAnnotated(field, ManyToOne.class)) {
+			return Role.RELATIONSHIP;
+		}
+		if (isAnnotated(field, EmbeddedId.class)) {
+			return Role.COMPOSITE_KEY;
+		}
+		return Role.SIMPLE;
+	}
+
+	/**
+	 * @return true se o atributo ou, no mapeamento por métodos (property access), o seu método get
+	 * declarado na mesma classe possui a anotação.
+	 */
+	private boolean isAnnotated(VariableElement field, Class<? extends Annotation> annotation) {
+		if (field.getAnnotation(annotation) != null) {
+			return true;
+		}
+		String name = field.getSimpleName().toString();
+		String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		for (ExecutableElement method : ElementFilter.methodsIn(field.getEnclosingElement().getEnclosedElements())) {
+			String methodName = method.getSimpleName().toString();
+			if ((methodName.equals("get" + capitalized) || methodName.equals("is" + capitalized))
+					&& method.getParameters().isEmpty()
+					&& method.getAnnotation(annotation) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean hasQueryTypeProperty(List<VariableElement> properties) {
+		for (VariableElement property : properties) {
+			if (hasQueryType(property.asType())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true se o tipo da propriedade possui tipo Q próprio (entidades e classes embutíveis).
+	 */
+	private boolean hasQueryType(TypeMirror type) {
+		if (type.getKind() != TypeKind.DECLARED) {
+			return false;
+		}
+		return isPersistent((TypeElement) ((DeclaredType) type).asElement());
+	}
+
+	/**
+	 * @return Tipo da propriedade (primitivos convertidos para wrapper), com as variáveis de tipo resolvidas
+	 * a partir da classe gerada. Ex: DomainBase&lt;PK&gt;.id em Pessoa é java.lang.Long.
+	 */
+	private String getPropertyType(TypeElement type, VariableElement field) {
+		return resolveType(type, field).toString();
+	}
+
+	/**
+	 * Resolve o tipo de um membro a partir da classe gerada (sem genéricos e com primitivos convertidos para wrapper).
+	 */
+	private TypeMirror resolveType(TypeElement type, Element member) {
+		Types types = processingEnv.getTypeUtils();
+		TypeMirror resolved = types.asMemberOf((DeclaredType) type.asType(), member);
+		if (resolved.getKind() == TypeKind.EXECUTABLE) {
+			resolved = ((ExecutableType) resolved).getReturnType();
+		}
+		if (resolved.getKind().isPrimitive()) {
+			resolved = types.boxedClass((PrimitiveType) resolved).asType();
+		}
+		return types.erasure(resolved);
+	}
+
+	/**
+	 * Leitura do valor: método get (quando acessível), atributo (quando acessível) ou {@link br.com.vcg.query.util.PropertyAccessor}.
+	 */
+	private String readValue(TypeElement type, VariableElement field, String javaType) {
+		ExecutableElement getter = findGetter(type, field);
+		if (getter != null) {
+			return "example." + getter.getSimpleName() + "()";
+		}
+		if (isAccessible(type, field)) {
+			return "example." + field.getSimpleName();
+		}
+		return "(" + javaType + ") " + accessorConstant(field) + ".get(example)";
+	}
+
+	private ExecutableElement findGetter(TypeElement type, VariableElement field) {
+		String name = field.getSimpleName().toString();
+		String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+
+		for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+			String methodName = method.getSimpleName().toString();
+			if ((methodName.equals("get" + capitalized) || methodName.equals("is" + capitalized))
+					&& method.getParameters().isEmpty()
+					&& !method.getModifiers().contains(Modifier.STATIC)
+					&& method.getReturnType().getKind() != TypeKind.VOID
+					&& isAccessible(type, method)
+					&& processingEnv.getTypeUtils().isSameType(resolveType(type, method),
+							resolveType(type, field))) {
+				return method;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true se o elemento pode ser acessado pela classe gerada (no mesmo pacote da classe analisada).
+	 */
+	private boolean isAccessible(TypeElement type, Element member) {
+		if (member.getModifiers().contains(Modifier.PUBLIC)) {
+			return true;
+		}
+		return !member.getModifiers().contains(Modifier.PRIVATE)
+				&& getPackageName(type).equals(getPackageName((TypeElement) member.getEnclosingElement()));
+	}
+
+	private String accessorConstant(VariableElement field) {
+		return field.getSimpleName().toString().replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase() + "_ACCESSOR";
+	}
+
+	private String getQueryTypeName(String packageName, String simpleName) {
+		String prefix = getOption(PREFIX, "Q");
+		String suffix = getOption(SUFFIX, "");
+		String packageSuffix = getOption(PACKAGE_SUFFIX, "");
+		return qualify(packageName + packageSuffix, prefix + simpleName + suffix);
+	}
+
+	private boolean isEntityAccessors() {
+		return Boolean.valueOf(getOption(ENTITY_ACCESSORS, "false"));
+	}
+
+	private String getOption(String name, String defaultValue) {
+		String value = processingEnv.getOptions().get(name);
+		return value != null ? value : defaultValue;
+	}
+
+	private String getPackageName(TypeElement type) {
+		PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+		return packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+	}
+
+	private static String qualify(String packageName, String name) {
+		return packageName.isEmpty() ? name : packageName + "." + name;
+	}
+
+}
@@ -0,0 +1,137 @@
+package br.com.vcg.query.repository;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+
+import br.com.vcg.query.api.Page;
+import br.com.vcg.query.api.QueryFilter;
+import br.com.vcg.query.exception.QbeException;
+import br.com.vcg.query.repository.metadata.MetamodelExampleRegistry;
+
+/**
+ * Executa consultas QBE de forma assíncrona, permitindo que consultas independentes (ex: os vários quadros de
+ * um painel) sejam executadas em paralelo.
+ * <br/>
+ * Cada consulta é executada em uma tarefa do {@link Executor} configurado, com um {@link EntityManager}
+ * próprio, somente leitura e de vida curta: ele é fechado ao final da tarefa, portanto as entidades retornadas
+ * estão desatachadas (associações lazy devem ser carregadas na própria consulta, através de fetches). As
+ * consultas não participam da transação do chamador e não enxergam as suas alterações ainda não gravadas.
+ * <br/>
+ * O filtro é copiado no momento da chamada: pode ser alterado ou reutilizado pelo chamador em seguida.
+ *
+ * @author augusto
+ */
+public class AsyncQbeRepository {
+
+	private final EntityManagerFactory entityManagerFactory;
+
+	private final Executor executor;
+
+	/**
+	 * @param entityManagerFactory Fábrica dos EntityManagers utilizados nas consultas.
+	 * @param executor Executor das consultas. Como as consultas bloqueiam a thread até o retorno do banco de dados,
+	 * deve ser um executor próprio, com o número de threads limitado de acordo com o pool de conexões (ex:
+	 * {@link java.util.concurrent.Executors#newFixedThreadPool(int)}), e não um pool compartilhado com
+	 * processamentos de CPU, como o {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+	 */
+	public AsyncQbeRepository(EntityManagerFactory entityManagerFactory, Executor executor) {
+		if (executor == null) {
+			throw new QbeException("O executor das consultas assíncronas deve ser informado.");
+		}
+		this.entityManagerFactory = entityManagerFactory;
+		this.executor = executor;
+		MetamodelExampleRegistry.register(entityManagerFactory);
+	}
+
+	/**
+	 * @see QbeRepository#findAllBy(QueryFilter)
+	 */
+	public <ENTITY> CompletableFuture<List<ENTITY>> findAllByAsync(QueryFilter<ENTITY> filter) {
+		return submit(filter, new Function<QbeContextProcessor<ENTITY>, List<ENTITY>>() {
+			@Override
+			public List<ENTITY> apply(QbeContextProcessor<ENTITY> processor) {
+				return processor.findAllBy();
+			}
+		});
+	}
+
+	/**
+	 * @see QbeRepository#count(QueryFilter)
+	 */
+	public <ENTITY> CompletableFuture<Long> countAsync(QueryFilter<ENTITY> filter) {
+		return submit(filter, new Function<QbeContextProcessor<ENTITY>, Long>() {
+			@Override
+			public Long apply(QbeContextProcessor<ENTITY> processor) {
+				return processor.count();
+			}
+		});
+	}
+
+	/**
+	 * @see QbeRepository#findPage(QueryFilter)
+	 */
+	public <ENTITY> CompletableFuture<Page<ENTITY>> findPageAsync(QueryFilter<ENTITY> filter) {
+		return submit(filter, new Function<QbeContextProcessor<ENTITY>, Page<ENTITY>>() {
+			@Override
+			public Page<ENTITY> apply(QbeContextProcessor<ENTITY> processor) {
+				return processor.findPage();
+			}
+		});
+	}
+
+	/**
+	 * @param filter Filtro da consulta, copiado na thread do chamador.
+	 * @param query Consulta a ser executada na tarefa.
+	 * @return Resultado futuro da consulta.
+	 */
+	protected <ENTITY, R> CompletableFuture<R> submit(QueryFilter<ENTITY> filter, final Function<QbeContextProcessor<ENTITY>, R> query) {
+		final QueryFilter<ENTITY> copy = filter.copy();
+		return CompletableFuture.supplyAsync(new Supplier<R>() {
+			@Override
+			public R get() {
+				EntityManager entityManager = createEntityManager();
+				try {
+					return query.apply(new QbeContextProcessor<ENTITY>(entityManager, copy));
+				} finally {
+					entityManager.close();
+				}
+			}
+		}, executor);
+	}
+
+	/**
+	 * @return EntityManager somente leitura (sem verificação de alterações e sem flush), para uma única tarefa.
+	 */
+	protected EntityManager createEntityManager() {
+		return createReadOnlyEntityManager(entityManagerFactory);
+	}
+
+	/**
+	 * @return EntityManager somente leitura (sem verificação de alterações e sem flush).
+	 */
+	static EntityManager createReadOnlyEntityManager(EntityManagerFactory entityManagerFactory) {
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		Session session = entityManager.unwrap(Session.class);
+		session.setDefaultReadOnly(true);
+		session.setHibernateFlushMode(FlushMode.MANUAL);
+		return entityManager;
+	}
+
+	public EntityManagerFactory getEntityManagerFactory() {
+		return entityManagerFactory;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+}
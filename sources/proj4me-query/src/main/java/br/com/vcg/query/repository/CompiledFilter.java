@@ -0,0 +1,103 @@
+package br.com.vcg.query.repository;
+
+import com.querydsl.core.JoinExpression;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Predicate;
+
+import br.com.vcg.query.api.QueryFilter;
+import br.com.vcg.query.extension.ParamExample;
+import br.com.vcg.query.repository.plan.QueryShape;
+
+/**
+ * Informações calculadas a partir da configuração de um {@link QueryFilter} na sua primeira execução e
+ * reutilizadas nas execuções seguintes do mesmo filtro (ou do mesmo {@link QueryTemplate}). Mantidas no
+ * próprio filtro ({@link QueryFilter#getCompiled()}) e identificadas pelas instâncias das expressões, portanto
+ * alterações posteriores na configuração do filtro apenas deixam de aproveitar as informações calculadas.
+ *
+ * @author augusto
+ */
+final class CompiledFilter {
+
+	/** Formatos das expressões fixas da consulta, para o {@link br.com.vcg.query.repository.plan.QueryPlanCache}. */
+	private final QueryShape.Memo shapes = new QueryShape.Memo();
+
+	/** Predicado (where) do filtro e a sua forma compilada. */
+	private volatile CompiledWhere where;
+
+	/**
+	 * @return As informações calculadas para o filtro, criadas na primeira execução.
+	 */
+	static CompiledFilter of(QueryFilter<?> filter) {
+		Object compiled = filter.getCompiled();
+		if (compiled instanceof CompiledFilter) {
+			return (CompiledFilter) compiled;
+		}
+		CompiledFilter created = new CompiledFilter();
+		filter.setCompiled(created);
+		return created;
+	}
+
+	/**
+	 * @param predicate Predicado (where) do filtro.
+	 * @return O predicado compilado (posição dos ParamExample), calculado uma única vez enquanto o predicado do
+	 * filtro não for alterado. Predicados sem ParamExample não são compilados: a verificação utiliza o formato do
+	 * predicado, calculado de qualquer forma para o cache de planos.
+	 */
+	ParamExamplePredicate params(Predicate predicate) {
+		CompiledWhere current = where;
+		if (current == null || current.source != predicate) {
+			ParamExamplePredicate params = shapes.containsParam(predicate, ParamExample.class)
+					? ParamExamplePredicate.of(predicate) : ParamExamplePredicate.NONE;
+			current = new CompiledWhere(predicate, params);
+			where = current;
+		}
+		return current.params;
+	}
+
+	/**
+	 * Registra uma expressão fixa da consulta (ex: uma variante do predicado com ParamExample), cujo formato
+	 * passa a ser calculado uma única vez.
+	 */
+	void register(Expression<?> expression) {
+		shapes.register(expression);
+	}
+
+	/**
+	 * @param metadata Metadados do filtro.
+	 * @return Formatos das expressões fixas da consulta, com os joins, predicados, agrupamentos e ordenação do
+	 * filtro registrados.
+	 */
+	QueryShape.Memo shapes(QueryMetadata metadata) {
+		shapes.register(metadata.getWhere());
+		for (JoinExpression join : metadata.getJoins()) {
+			shapes.register(join.getTarget());
+			shapes.register(join.getCondition());
+		}
+		for (Expression<?> groupBy : metadata.getGroupBy()) {
+			shapes.register(groupBy);
+		}
+		shapes.register(metadata.getHaving());
+		for (OrderSpecifier<?> order : metadata.getOrderBy()) {
+			shapes.register(order.getTarget());
+		}
+		return shapes;
+	}
+
+	/**
+	 * Predicado compilado, associado à instância de origem.
+	 */
+	private static final class CompiledWhere {
+
+		private final Predicate source;
+
+		private final ParamExamplePredicate params;
+
+		CompiledWhere(Predicate source, ParamExamplePredicate params) {
+			this.source = source;
+			this.params = params;
+		}
+	}
+
+}
@@ -1,24 +1,48 @@
 package br.com.vcg.query.repository;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.persistence.EntityManager;
-import javax.persistence.OneToMany;
-
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.metamodel.EntityType;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.proxy.HibernateProxy;
+
+import com.querydsl.core.DefaultQueryMetadata;
+import com.querydsl.core.JoinExpression;
+import com.querydsl.core.JoinFlag;
+import com.querydsl.core.JoinType;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.Expressions;
 import com.querydsl.core.types.dsl.PathBuilder;
+import com.querydsl.jpa.JPAExpressions;
+import com.querydsl.jpa.JPQLQuery;
 
 import br.com.vcg.query.api.DetachedFetchFilter;
+import br.com.vcg.query.api.DetachedFetchStrategy;
 import br.com.vcg.query.exception.QbeException;
-import br.com.vcg.query.util.ReflectionUtil;
+import br.com.vcg.query.repository.metadata.CollectionFetchDescriptor;
+import br.com.vcg.query.repository.metadata.CollectionFetchDescriptor.CollectionKind;
+import br.com.vcg.query.util.PropertyPath;
 
 /**
  * Processa os fetches desatachados para que sejam executados em uma consulta
@@ -29,6 +53,12 @@ import br.com.vcg.query.util.ReflectionUtil;
  */
 public class DetachedFetchesProcessor {
 
+	/** Número máximo de valores na operação IN suportado pelo banco de dados. */
+	protected static final int IN_LIMIT = 1000;
+
+	/** Tamanhos (faixas) utilizados nos blocos da operação IN. Ver {@link #partition(List)}. */
+	protected static final int[] IN_BUCKETS = { 1, 10, 50, 100, 250, 500, 1000 };
+
 	private Logger logger = Logger.getLogger(DetachedFetchesProcessor.class.getSimpleName()); 
 	
 	private DetachedFetchFilter<?> detachedFilter;
@@ -37,6 +67,27 @@ public class DetachedFetchesProcessor {
 
 	private EntityManager entityManager;
 
+	/**
+	 * Metadados da consulta principal que retornou exatamente as entidades a serem atualizadas, com os predicados
+	 * processados (exemplo e ParamExample), ou null quando as entidades são apenas parte de um resultado (ex:
+	 * bloco de um stream, fetches aninhados). Ver {@link #getParentMetadata()}.
+	 */
+	private QueryMetadata parentMetadata;
+
+	/** Metadados (em cache) da coleção configurada para fetch. */
+	private CollectionFetchDescriptor descriptor;
+
+	private String parentIdName;
+
+	private Class<?> parentIdType;
+
+	private int chunkLimit;
+
+	/** Elementos carregados, base para os fetches desatachados aninhados (ver {@link #createNestedProcessors()}). */
+	private List<Object> fetchedElements = new ArrayList<Object>();
+
+	private PersistentCollectionInitializer collectionInitializer;
+
 	/**
 	 * @param detachedFilter
 	 *            Filtro com as configurações para a consulta desatachada.
@@ -54,10 +105,62 @@ public class DetachedFetchesProcessor {
 	 */
 	protected void fetch() {
 
+		if (isLazy()) {
+			installLazyCollections();
+			return;
+		}
 		restrictResultInDetachedFilter();
 
 	}
 
+	/**
+	 * Fetch sob demanda (ver {@link DetachedFetchFilter#lazy()}): as entidades recebem coleções substitutas e o
+	 * fetch é realizado no primeiro acesso a qualquer uma delas (ver {@link LazyDetachedFetch}).
+	 */
+	protected void installLazyCollections() {
+		if (detachedFilter.isInitializeInPlace()) {
+			throw new QbeException("O fetch desatachado sob demanda não pode ser combinado com a inicialização da coleção no próprio lugar: " 
+					+ detachedFilter.getPropertyToFetch());
+		}
+		List<Object> primaryEntities = resolveRestrictionValues();
+		if (getDescriptor().isOrphanRemoval()) {
+			for (Object primaryEntity : primaryEntities) {
+				if (primaryEntity != null && entityManager.contains(primaryEntity)) {
+					throw new QbeException("O fetch desatachado sob demanda não é suportado para a coleção " + detachedFilter.getPropertyToFetch()
+							+ ", mapeada com orphanRemoval, de entidades gerenciadas: a coleção substituta exigiria a remoção das entidades"
+							+ " do contexto de persistência. Utilize o fetch imediato com initializeInPlace().");
+				}
+			}
+		}
+		LazyDetachedFetch lazyFetch = new LazyDetachedFetch(this);
+		for (Object primaryEntity : primaryEntities) {
+			if (primaryEntity != null) {
+				replaceCollection(primaryEntity, lazyFetch.placeholder(primaryEntity));
+			}
+		}
+	}
+
+	/**
+	 * Realiza o fetch adiado por {@link #installLazyCollections()}, seguido dos fetches aninhados, nível a nível.
+	 */
+	protected void fetchNow() {
+		if (!entityManager.isOpen()) {
+			throw new QbeException("Não foi possível carregar a coleção " + detachedFilter.getPropertyToFetch() 
+					+ " sob demanda: o EntityManager da consulta foi fechado.");
+		}
+		restrictResultInDetachedFilter();
+		
+		List<DetachedFetchesProcessor> processors = createNestedProcessors();
+		while (!processors.isEmpty()) {
+			List<DetachedFetchesProcessor> nestedProcessors = new ArrayList<DetachedFetchesProcessor>();
+			for (DetachedFetchesProcessor processor : processors) {
+				processor.fetch();
+				nestedProcessors.addAll(processor.createNestedProcessors());
+			}
+			processors = nestedProcessors;
+		}
+	}
+
 	/**
 	 * Considerando que será executada uma consulta secundária para carregamento
 	 * dos dados de uma associação (coleção), deve-se utilizar o resultado da
@@ -66,95 +169,78 @@ public class DetachedFetchesProcessor {
 	protected void restrictResultInDetachedFilter() {
 
 		List<Object> resultRestriction = resolveRestrictionValues();
-		int resultRestrictionSize = resultRestriction.size();
 
 		if (!resultRestriction.isEmpty()) {
 
-			/*
-			 * O banco de dados suporta apenas 1000 registro na operação IN,
-			 * portanto, vamos ter que realizar fetch parcial, em grupos de 1000
-			 */
-
-			// Mapa para agrupamento do resultado das consultas realizadas em
-			// partialFetch
-			Map<Object, Collection<Object>> fetchResultMap = new HashMap<Object, Collection<Object>>();
-
-			// indices para manter-se dentro dos limites do banco de dados
-			int startGroup = 0;
-			int endGroup = resultRestrictionSize > 1000 ? 1000
-					: resultRestrictionSize;
-
-			do {
-				fetch(fetchResultMap,
-						resultRestriction.subList(startGroup, endGroup));
-
-				// atualiza indices
-				startGroup = endGroup;
-				endGroup = resultRestrictionSize > endGroup + 1000 ? endGroup + 1000
-						: resultRestrictionSize;
-			} while (startGroup < resultRestrictionSize);
-			
+			List<List<Object>> fetchedChunks = new ArrayList<List<Object>>();
+			TemporaryTableFetch temporaryTableFetch;
+			if (isSubselect()) {
+				fetchedChunks.add(fetchBySubselect(entityManager));
+			} else if ((temporaryTableFetch = createTemporaryTableFetch()) != null) {
+				fetchedChunks.add(temporaryTableFetch.fetch(resolveRestrictionIds(resultRestriction)));
+			} else {
+				/*
+				 * O banco de dados limita o número de valores na operação IN, portanto, 
+				 * o fetch é realizado em blocos de identificadores (ver partition)
+				 */
+				for (List<Object> ids : partition(resultRestriction)) {
+					fetchedChunks.add(fetch(entityManager, ids));
+				}
+			}
 			
 			// atualiza as entidades encontradas na consulta principal, preenchendo-as com o resultado
 			// do fetch realizado
-			updateEntitiesWithFetchResult(resultRestriction, fetchResultMap);
+			updateEntitiesWithFetchResult(resultRestriction, fetchedChunks, false);
 			
 		}
 	}
 
 	/**
-	 * atualiza as entidades encontradas na consulta principal, preenchendo-as com o resultado do fetch realizado.
-	 * @param entitiesToUpdate Lista com as entidades a serem atualizadas com os dados carregados (fetched). 
-	 * @param partialFetchResult Mapa que contém o resultado do fetch realizado.
+	 * Substitui a coleção (ou o Map) da entidade da consulta principal pelo valor carregado.
+	 * @param primaryEntity Entidade que pertence à consulta original.
+	 * @param fetched Coleção ou Map carregado.
 	 */
-	protected void updateEntitiesWithFetchResult(List<Object> entitiesToUpdate, Map<Object, Collection<Object>> partialFetchResult) {
-		
-		// atualiza as entidades principais com os valores encontrados
-		for (Iterator<Object> iterator = entitiesToUpdate.iterator(); iterator.hasNext();) {
-			
-			Object primaryEntity = iterator.next();
-			Collection<?> fetchedList = getFetchedCollection(partialFetchResult, primaryEntity);
-			
-			try {
-				
-				/*
-				 * O hibernate implementa um controle mais restrito para associação com cascade delete orphan, reclamando quando
-				 * tentamos substituir a instância da coleção mapeada. Para estes casos, será necessário remover a entidade
-				 * owner do relacionamento do cache, desabilitando o controle do hibernate. Como consequência, não será funcionará
-				 * o lazy initialization - que deve ser substituído por um fetch.
-				 */
-				if (isDeleteOrphan()) {
-					evict(primaryEntity);
-					logger.fine("A associação " + detachedFilter.getParentElementType().getSimpleName() + "." +  detachedFilter.getPropertyToFetch() 
-							+ " está mapeada como DELETE ORPHAN. Foi necessário remover o owner da relação do cache do hibernate. Isto não" +
-							"causará problemas mas o comportamento de LazyInitialization foi desabilitado para este objeto. ");
-				} 
-				
-				// atualiza a associação com a lista recuperada
-				ReflectionUtil.setValue(primaryEntity, detachedFilter.getPropertyToFetch(), fetchedList);
-			} catch (Exception e) {
-				throw new QbeException("Falha ao tentar atualiza a entidade com a coleção carregada manualmente: " 
-										 + detachedFilter.getPropertyToFetch(), e);
-			}
+	private void updateEntity(Object primaryEntity, Object fetched) {
+		CollectionFetchDescriptor descriptor = getDescriptor();
+		if (isInitializeInPlace() && getCollectionInitializer().initialize(primaryEntity, descriptor.getCollection(primaryEntity), fetched)) {
+			return;
 		}
+		replaceCollection(primaryEntity, fetched);
 	}
 
 	/**
-	 * @param partialFetchResult Mapa com o resultado da consulta desatachada.
-	 * @param primaryEntity Entidade que pertence à consulta original.
-	 * @return A coleção carregada associada à a entidade.
+	 * Substitui a coleção (ou o Map) da entidade, removendo-a do contexto de persistência caso a coleção
+	 * esteja mapeada com orphanRemoval.
 	 */
-	protected Collection<Object> getFetchedCollection(Map<Object, Collection<Object>> partialFetchResult, Object primaryEntity) {
-		Collection<Object> collection = partialFetchResult.get(primaryEntity);
-		
-		if (collection == null) {
-			collection = createAppropriateCollection();
-			partialFetchResult.put(primaryEntity, collection);
+	private void replaceCollection(Object primaryEntity, Object fetched) {
+		CollectionFetchDescriptor descriptor = getDescriptor();
+		try {
+			
+			/*
+			 * O hibernate implementa um controle mais restrito para associação com cascade delete orphan, reclamando quando
+			 * tentamos substituir a instância da coleção mapeada. Para estes casos, será necessário remover a entidade
+			 * owner do relacionamento do cache, desabilitando o controle do hibernate. Como consequência, não será funcionará
+			 * o lazy initialization - que deve ser substituído por um fetch.
+			 */
+			if (descriptor.isOrphanRemoval()) {
+				evict(primaryEntity);
+				logger.fine("A associação " + detachedFilter.getParentElementType().getSimpleName() + "." +  detachedFilter.getPropertyToFetch() 
+						+ " está mapeada como DELETE ORPHAN. Foi necessário remover o owner da relação do cache do hibernate. Isto não" +
+						"causará problemas mas o comportamento de LazyInitialization foi desabilitado para este objeto. ");
+			} 
+			
+			// atualiza a associação com a lista (ou Map) recuperada
+			if (fetched instanceof Map) {
+				descriptor.setMap(primaryEntity, (Map<?, ?>) fetched);
+			} else {
+				descriptor.setCollection(primaryEntity, (Collection<?>) fetched);
+			}
+		} catch (Exception e) {
+			throw new QbeException("Falha ao tentar atualiza a entidade com a coleção carregada manualmente: " 
+									 + detachedFilter.getPropertyToFetch(), e);
 		}
-		
-		return collection;
 	}
-	
+
 	/**
 	 * No mapeamento de coleções é mais comum a utilização de List, porém é permitido
 	 * o uso de outros tipos de coleções (como Set), portanto, é necessário descobrir
@@ -162,39 +248,30 @@ public class DetachedFetchesProcessor {
 	 * @return Um tipo concreto de coleção compatível com o tipo utilizado na entidade que detém o mapeamento. 
 	 */
 	protected Collection<Object> createAppropriateCollection() {
-		Class<Collection<?>> collectionType = findCollectionType(detachedFilter.getParentElementType(), detachedFilter.getPropertyToFetch());
-		
-		Collection<Object> collection = null;
-		
-		if (List.class.isAssignableFrom(collectionType)) {
-			collection = new ArrayList<Object>();
-			
-		} else if (Set.class.isAssignableFrom(collectionType)) {
-			collection = new HashSet<Object>();
-			
-		} else {
-			throw new QbeException("O tipo de coleção utilizado no mapeamento não é suportado: " + detachedFilter.getPropertyToFetch());
-			
-		}
-		
-		return collection;
+		return getDescriptor().newCollection();
 	}
 	
 	/**
-	 * Procura o tipo da coleção que se deseja realizar fetch.
-	 * @param beanType Tipo do bean que contém as propriedades.
-	 * @param property Nome da propriedade.
-	 * @return Tipo da coleção.
+	 * @return true se a coleção do Hibernate deve ser inicializada no próprio lugar (ver
+	 * {@link DetachedFetchFilter#initializeInPlace()}).
+	 * @throws QbeException Caso o filtro desatachado possua restrições: a coleção seria inicializada parcialmente.
 	 */
-	@SuppressWarnings("unchecked")
-	private Class<Collection<?>> findCollectionType(Class<?> beanType, String property) {
-		try {
-			Field field = ReflectionUtil.getField(beanType, property);
-			return (Class<Collection<?>>) field.getType();
-		} catch (Exception e) {
-			throw new QbeException("Não foi possível encontrar informações sobre o tipo da coleção " 
-					+ beanType.getSimpleName() + "." + property, e);
+	protected boolean isInitializeInPlace() {
+		if (!detachedFilter.isInitializeInPlace()) {
+			return false;
+		}
+		if (detachedFilter.getMetadata().getWhere() != null || detachedFilter.getExample() != null) {
+			throw new QbeException("A inicialização da coleção no próprio lugar não permite restrições no fetch desatachado: " 
+					+ detachedFilter.getPropertyToFetch());
+		}
+		return true;
+	}
+
+	private PersistentCollectionInitializer getCollectionInitializer() {
+		if (collectionInitializer == null) {
+			collectionInitializer = new PersistentCollectionInitializer(entityManager);
 		}
+		return collectionInitializer;
 	}
 	
 	private void evict(Object primaryEntity) {		
@@ -205,103 +282,531 @@ public class DetachedFetchesProcessor {
 	 * @return true se a coleção está mapeada com a opção "orphanRemoval"
 	 */
 	protected boolean isDeleteOrphan() {
-		Class<?> parentElementType = detachedFilter.getParentElementType();
-		Field field = ReflectionUtil.getField(parentElementType, detachedFilter.getPropertyToFetch());
-		OneToMany annotation = field.getAnnotation(OneToMany.class);
-		return annotation != null && annotation.orphanRemoval();
+		return getDescriptor().isOrphanRemoval();
+	}
+	
+	/**
+	 * @return Metadados da consulta principal (predicados, parâmetros e paginação), utilizados na subconsulta da
+	 * estratégia {@link DetachedFetchStrategy#SUBSELECT}, ou null quando as entidades a serem atualizadas não
+	 * correspondem ao resultado de uma consulta (ex: fetches aninhados).
+	 */
+	protected QueryMetadata getParentMetadata() {
+		return parentMetadata;
+	}
+
+	/**
+	 * @param parentMetadata Metadados da consulta principal que retornou exatamente as entidades a serem
+	 * atualizadas, com os predicados processados.
+	 */
+	public void setParentMetadata(QueryMetadata parentMetadata) {
+		this.parentMetadata = parentMetadata;
+	}
+
+	/**
+	 * @return Metadados da coleção configurada para fetch, resolvidos uma única vez por (classe, propriedade).
+	 */
+	protected CollectionFetchDescriptor getDescriptor() {
+		if (descriptor == null) {
+			descriptor = CollectionFetchDescriptor.of(detachedFilter.getParentElementType(), detachedFilter.getPropertyToFetch());
+		}
+		return descriptor;
 	}
 
 	/**
-	 * Realiza o fetch da coleção configurada, limitando-se aos registros existentes na lista informada no parâmetro..
-	 * @param fetchResultMap Mapa para preenchiento com o resultado do carregamento.
-	 * @param originalEntityList Lista original que determina a base para o carregamento.
+	 * Divide os identificadores das entidades informadas (sem repetição) em blocos suportados pela operação IN,
+	 * de acordo com o limite do dialeto ({@link Dialect#getInExpressionCountLimit()}, no máximo
+	 * {@link #IN_LIMIT}). Cada bloco é completado (repetindo o último identificador) até o tamanho de uma das
+	 * faixas de {@link #IN_BUCKETS}: consultas com o mesmo número de parâmetros reutilizam o plano da consulta,
+	 * no Hibernate e no banco de dados.
+	 * @param values Valores da restrição (ver {@link #resolveRestrictionValues()}).
+	 * @return Os identificadores divididos em blocos.
 	 */
-	protected void fetch(Map<Object, Collection<Object>> fetchResultMap, List<?> originalEntityList) {
+	protected List<List<Object>> partition(List<Object> values) {
+		int limit = getChunkLimit();
+		List<Object> idList = resolveRestrictionIds(values);
+		List<List<Object>> chunks = new ArrayList<List<Object>>();
+		for (int start = 0; start < idList.size(); start += limit) {
+			List<Object> chunk = new ArrayList<Object>(idList.subList(start, Math.min(start + limit, idList.size())));
+			int padded = getBucketSize(chunk.size(), limit);
+			Object last = chunk.get(chunk.size() - 1);
+			while (chunk.size() < padded) {
+				chunk.add(last);
+			}
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
 
-		// Nome da propriedade no relacionamento inverso, configurada em mappedBy
-		String mappedByProperty = findMapedByProperty();
+	/**
+	 * @param values Valores da restrição (ver {@link #resolveRestrictionValues()}).
+	 * @return Os identificadores dos valores, sem repetição.
+	 */
+	protected List<Object> resolveRestrictionIds(List<Object> values) {
+		PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+		Set<Object> ids = new LinkedHashSet<Object>();
+		for (Object value : values) {
+			if (value != null) {
+				ids.add(persistenceUnitUtil.getIdentifier(value));
+			}
+		}
+		return new ArrayList<Object>(ids);
+	}
+
+	/**
+	 * @return Tamanho da faixa de {@link #IN_BUCKETS} que comporta o número de valores informado.
+	 */
+	private static int getBucketSize(int size, int limit) {
+		for (int bucket : IN_BUCKETS) {
+			if (bucket >= size) {
+				return Math.min(bucket, limit);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return Número máximo de valores na operação IN: o limite do dialeto, ou {@link #IN_LIMIT}.
+	 */
+	protected int getChunkLimit() {
+		if (chunkLimit == 0) {
+			Dialect dialect = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+					.getJdbcServices().getDialect();
+			int dialectLimit = dialect.getInExpressionCountLimit();
+			chunkLimit = dialectLimit > 0 && dialectLimit < IN_LIMIT ? dialectLimit : IN_LIMIT;
+		}
+		return chunkLimit;
+	}
+
+	/**
+	 * @return Cópia do filtro desatachado para a consulta de um bloco: sem os fetches desatachados aninhados,
+	 * carregados no nível seguinte (ver {@link #createNestedProcessors()}), e com fetch join das associações
+	 * que levam às coleções aninhadas (ex: projetoServidor.projeto, para projetoServidor.projeto.ferramentas).
+	 */
+	protected DetachedFetchFilter<?> createChunkFilter() {
+		DetachedFetchFilter<?> chunkFilter = detachedFilter.copy();
+		chunkFilter.getDetachedCollectionFetchList().clear();
+		
+		Map<String, PathBuilder<?>> joinedOwners = new HashMap<String, PathBuilder<?>>();
+		for (DetachedFetchFilter<?> nestedFilter : detachedFilter.getDetachedCollectionFetchList()) {
+			joinNestedOwner(chunkFilter, nestedFilter.getTargetMetadata().getParent(), joinedOwners);
+		}
+		return chunkFilter;
+	}
+
+	/**
+	 * Realiza o fetch join do objeto que contém uma coleção aninhada, a partir do elemento desta coleção,
+	 * para que não seja carregado individualmente (N+1) no nível seguinte.
+	 * @return Alias do objeto que contém a coleção aninhada.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private PathBuilder<?> joinNestedOwner(DetachedFetchFilter<?> chunkFilter, Path<?> owner, Map<String, PathBuilder<?>> joinedOwners) {
+		if (owner.getMetadata().isRoot()) {
+			return getEquivalentPathBuilder();
+		}
+		String ownerPath = PropertyPath.toDotNotation(owner);
+		PathBuilder<?> alias = joinedOwners.get(ownerPath);
+		if (alias == null) {
+			PathBuilder<?> parent = joinNestedOwner(chunkFilter, owner.getMetadata().getParent(), joinedOwners);
+			alias = new PathBuilder(owner.getType(), "qbeNested" + joinedOwners.size());
+			chunkFilter.leftJoin((EntityPath) parent.get(owner.getMetadata().getName(), owner.getType()), alias).fetchJoin();
+			joinedOwners.put(ownerPath, alias);
+		}
+		return alias;
+	}
+
+	/**
+	 * Realiza o fetch da coleção configurada, limitando-se aos elementos das entidades cujos identificadores foram
+	 * informados. O filtro desatachado não é alterado: cada bloco é consultado com uma cópia do filtro, com o
+	 * fetch join e a restrição pelo relacionamento inverso (mappedBy).
+	 * @param entityManager EntityManager da consulta (o da consulta principal ou, na execução paralela, um exclusivo da tarefa).
+	 * @param ids Bloco de identificadores das entidades que determinam a base para o carregamento.
+	 * @return Os elementos da coleção carregados, com o identificador do dono (ver {@link #fetchWithOwnerId(EntityManager, DetachedFetchFilter, Path)}).
+	 */
+	protected List<Object> fetch(EntityManager entityManager, List<?> ids) {
+		if (getDescriptor().isJoinTable()) {
+			return fetchByOwner(entityManager, getOwnerIdPath().in(ids), Collections.<ParamExpression<?>, Object>emptyMap());
+		}
 		
 		/*
 		 * Recupera a expressão que dá acesso o relacionamento equivalente ao "mappedby". 
-		 * Este método é gerado automaticamente pelo querydsl: 
 		 */
-		PathBuilder<?> pathBuilder = getEquivalentPathBuilder();
-		PathBuilder<Object> mappedByPath = pathBuilder.get(mappedByProperty);
+		PathBuilder<Object> mappedById = getEquivalentPathBuilder().get(getDescriptor().getMappedBy()).get(getParentIdName());
 		
-		// configura o filtro
-		detachedFilter.leftJoin(mappedByPath).fetchJoin();  // para evitar consultas adicionais durante a manipulação dos dados
-		detachedFilter.where(mappedByPath.in(originalEntityList)); // restringindo com o relacionamento inverso (mappedby)
+		DetachedFetchFilter<?> chunkFilter = createChunkFilter();
+		chunkFilter.where(mappedById.in(ids)); // restringindo com o relacionamento inverso (mappedby)
 		
+		return fetchWithOwnerId(entityManager, chunkFilter, mappedById);
+	}
+
+	/**
+	 * A chave estrangeira do dono é selecionada como coluna escalar, ao lado do elemento: não é necessário o
+	 * join (fetch) com o dono para agrupar os elementos (ver {@link #updateEntitiesWithFetchResult(List, List, boolean)}).
+	 * @return Tuplas (elemento, identificador do dono).
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private List<Object> fetchWithOwnerId(EntityManager entityManager, DetachedFetchFilter<?> chunkFilter, Path<?> ownerId) {
+		return (List) new QbeRepositoryImpl(entityManager).findAllValuesBy(chunkFilter, chunkFilter.getProjection(), ownerId);
+	}
+
+	/**
+	 * @return true se o fetch é realizado sob demanda (ver {@link DetachedFetchFilter#lazy()}).
+	 */
+	protected boolean isLazy() {
+		return detachedFilter.isLazy();
+	}
+
+	/**
+	 * @return true se a estratégia {@link DetachedFetchStrategy#SUBSELECT} foi configurada e é suportada pela
+	 * consulta principal: entidades correspondentes ao resultado completo de uma consulta, sem paginação (a JPQL
+	 * não suporta LIMIT/OFFSET em subconsultas) e sem agrupamento. Caso contrário, a estratégia {@link DetachedFetchStrategy#IN}
+	 * é utilizada.
+	 */
+	protected boolean isSubselect() {
+		if (detachedFilter.getStrategy() != DetachedFetchStrategy.SUBSELECT) {
+			return false;
+		}
+		QueryMetadata parentMetadata = getParentMetadata();
+		String reason;
+		if (parentMetadata == null) {
+			reason = "as entidades não correspondem ao resultado completo de uma consulta (ex: bloco de um stream, fetch aninhado)";
+		} else if (parentMetadata.getModifiers().getLimit() != null || parentMetadata.getModifiers().getOffset() != null) {
+			reason = "a consulta principal é paginada e a JPQL não suporta paginação em subconsultas";
+		} else if (!parentMetadata.getGroupBy().isEmpty() || parentMetadata.getHaving() != null) {
+			reason = "a consulta principal é agrupada";
+		} else {
+			return true;
+		}
+		logInFallback(reason);
+		return false;
+	}
+
+	/**
+	 * Registra (FINE) que o fetch foi realizado através da operação IN, e não da estratégia configurada.
+	 * @param reason Motivo da substituição.
+	 */
+	void logInFallback(String reason) {
+		logger.fine("O fetch desatachado " + detachedFilter.getParentElementType().getSimpleName() + "." + detachedFilter.getPropertyToFetch()
+				+ " foi realizado através da operação IN, e não " + (detachedFilter.getStrategy() == DetachedFetchStrategy.SUBSELECT
+						? "de subconsulta" : "de tabela temporária") + ": " + reason + ".");
+	}
+
+	/**
+	 * @return true se a estratégia {@link DetachedFetchStrategy#TEMPORARY_TABLE} foi configurada.
+	 */
+	boolean isTemporaryTable() {
+		return detachedFilter.getStrategy() == DetachedFetchStrategy.TEMPORARY_TABLE;
+	}
+
+	/**
+	 * @return O fetch através de tabela temporária, caso a estratégia {@link DetachedFetchStrategy#TEMPORARY_TABLE}
+	 * tenha sido configurada e seja suportada: coleção com relacionamento inverso (mappedBy), filtro desatachado sem joins, predicados, ordenação ou fetches
+	 * próprios, dialeto com tabelas temporárias locais e transação ativa. Caso contrário, null.
+	 */
+	protected TemporaryTableFetch createTemporaryTableFetch() {
+		if (!isTemporaryTable()) {
+			return null;
+		}
+		CollectionFetchDescriptor descriptor = getDescriptor();
+		QueryMetadata metadata = detachedFilter.getMetadata();
+		TemporaryTableFetch temporaryTableFetch = null;
+		String reason = null;
+		if (descriptor.isJoinTable()) {
+			reason = "a coleção não possui relacionamento inverso (mappedBy)";
+		} else if (metadata.getJoins().size() > 1 || metadata.getWhere() != null || !metadata.getOrderBy().isEmpty()
+				|| detachedFilter.getExample() != null || !detachedFilter.getDetachedCollectionFetchList().isEmpty()) {
+			reason = "o filtro desatachado possui joins, predicados, ordenação, exemplo ou fetches próprios";
+		} else if (!entityManager.unwrap(SessionImplementor.class).isTransactionInProgress()) {
+			reason = "não há uma transação ativa";
+		} else {
+			temporaryTableFetch = TemporaryTableFetch.of(entityManager, descriptor.getOwnerType(), detachedFilter.getEntityElementType(), 
+					descriptor.getMappedBy());
+			if (temporaryTableFetch == null) {
+				reason = "o dialeto não suporta tabelas temporárias locais ou o identificador é composto";
+			}
+		}
+		if (reason != null) {
+			logInFallback(reason);
+		}
+		return temporaryTableFetch;
+	}
 
-		QbeRepository qbeRepository = new QbeRepositoryImpl(entityManager);
+	/**
+	 * Realiza o fetch da coleção configurada em uma única consulta, restrita através de uma subconsulta
+	 * equivalente à consulta principal (joins e predicados, sem os fetches): 
+	 * <code>where mappedBy.id in (select pai.id from ... where ...)</code>.
+	 * @param entityManager EntityManager da consulta.
+	 * @return Os elementos da coleção carregados, com o identificador do dono.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected List<Object> fetchBySubselect(EntityManager entityManager) {
+		JPQLQuery<Object> subquery = createParentSubquery();
+		if (getDescriptor().isJoinTable()) {
+			// parâmetros da consulta principal, utilizados na subconsulta
+			return fetchByOwner(entityManager, getOwnerIdPath().in(subquery), getParentMetadata().getParams());
+		}
+		
+		PathBuilder<Object> mappedById = getEquivalentPathBuilder().get(getDescriptor().getMappedBy()).get(getParentIdName());
+		
+		DetachedFetchFilter<?> subselectFilter = createChunkFilter();
+		subselectFilter.where(mappedById.in(subquery));
+		// parâmetros (ex: ParamExample) da consulta principal, utilizados na subconsulta
+		for (Map.Entry<ParamExpression<?>, Object> param : getParentMetadata().getParams().entrySet()) {
+			subselectFilter.set((ParamExpression) param.getKey(), param.getValue());
+		}
 		
-		@SuppressWarnings("unchecked")
-        List<Object> fetchResult = (List<Object>) qbeRepository.findAllBy(detachedFilter);
+		return fetchWithOwnerId(entityManager, subselectFilter, mappedById);
+	}
 
+	/**
+	 * @return Subconsulta equivalente à consulta principal (joins e predicados, sem os fetches), com a projeção
+	 * do identificador do objeto que contém a coleção.
+	 */
+	protected JPQLQuery<Object> createParentSubquery() {
+		QueryMetadata parentMetadata = getParentMetadata();
 		
-		for (Object fetchedEntity : fetchResult) {
-			// recupera a associação com a entidade principal
-			Object primaryEntity = ReflectionUtil.getValue(fetchedEntity, mappedByProperty);
-			addToFetchResultMap(fetchResultMap, primaryEntity, fetchedEntity);
+		// identificador do objeto que contém a coleção, a partir da raiz da consulta principal
+		Path<?> collectionOwner = detachedFilter.getTargetMetadata().getParent();
+		JPQLQuery<Object> subquery = JPAExpressions.select(ExpressionUtils.path(Object.class, collectionOwner, getParentIdName()));
+		QueryMetadata subqueryMetadata = subquery.getMetadata();
+		for (JoinExpression join : parentMetadata.getJoins()) {
+			subqueryMetadata.addJoin(join.getType(), join.getTarget());
+			if (join.getCondition() != null) {
+				subqueryMetadata.addJoinCondition(join.getCondition());
+			}
 		}
+		subqueryMetadata.addWhere(parentMetadata.getWhere());
+		return subquery;
+	}
 
+	/**
+	 * Realiza o fetch de coleções sem relacionamento inverso (ManyToMany, OneToMany com tabela de associação,
+	 * Map): a consulta parte do objeto que contém a coleção, com um join para os elementos, já que não há
+	 * propriedade no elemento que permita restringi-los pelo dono:
+	 * <code>select dono.id, [key(elemento),] elemento from Dono dono join dono.colecao elemento where dono.id in (...)</code>.
+	 * Joins, predicados (inclusive do exemplo), ordenação e parâmetros do filtro desatachado são mantidos.
+	 * @param entityManager EntityManager da consulta.
+	 * @param ownerRestriction Restrição dos donos da coleção (ver {@link #getOwnerIdPath()}).
+	 * @param ownerParams Parâmetros utilizados na restrição dos donos (ex: ParamExample da consulta principal, na subconsulta).
+	 * @return Tuplas (identificador do dono, [chave,] elemento), ver {@link #updateEntitiesWithOwnerRows(List, List)}.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected List<Object> fetchByOwner(EntityManager entityManager, Predicate ownerRestriction, Map<ParamExpression<?>, Object> ownerParams) {
+		CollectionFetchDescriptor descriptor = getDescriptor();
+		
+		DetachedFetchFilter<?> chunkFilter = createChunkFilter();
+		QbeContextProcessor<Object> processor = new QbeContextProcessor<Object>(entityManager, chunkFilter);
+		processor.processPredicates();
+		QueryMetadata source = processor.getMetadata();
+		
+		Path<?> element = (Path<?>) chunkFilter.getFrom();
+		PathBuilder<?> owner = getOwnerPath();
+		QueryMetadata metadata = new DefaultQueryMetadata();
+		metadata.addJoin(JoinType.DEFAULT, owner);
+		metadata.addJoin(JoinType.INNERJOIN, ExpressionUtils.as(
+				ExpressionUtils.path(descriptor.getElementType(), owner, descriptor.getProperty()), (Path) element));
+		List<JoinExpression> joins = source.getJoins();
+		for (int i = 1; i < joins.size(); i++) {
+			JoinExpression join = joins.get(i);
+			metadata.addJoin(join.getType(), join.getTarget());
+			if (join.getCondition() != null) {
+				metadata.addJoinCondition(join.getCondition());
+			}
+			for (JoinFlag flag : join.getFlags()) {
+				metadata.addJoinFlag(flag);
+			}
+		}
+		metadata.addWhere(source.getWhere());
+		metadata.addWhere(ownerRestriction);
+		for (OrderSpecifier<?> order : source.getOrderBy()) {
+			metadata.addOrderBy(order);
+		}
+		for (Map.Entry<ParamExpression<?>, Object> param : source.getParams().entrySet()) {
+			metadata.setParam((ParamExpression) param.getKey(), param.getValue());
+		}
+		for (Map.Entry<ParamExpression<?>, Object> param : ownerParams.entrySet()) {
+			metadata.setParam((ParamExpression) param.getKey(), param.getValue());
+		}
+		
+		Expression<?> ownerId = getOwnerIdPath();
+		Expression<?>[] projection = descriptor.getCollectionKind() == CollectionKind.MAP
+				? new Expression<?>[] { ownerId, Expressions.template(Object.class, "key({0})", element), element }
+				: new Expression<?>[] { ownerId, element };
+		return (List) processor.createJpaQuery(metadata).select(projection).fetch();
 	}
 
 	/**
-	 * @return Um {@link PathBuilder} equivalente à configuração da coleção para ser carregada.
+	 * @return O objeto que contém a coleção, raiz da consulta de {@link #fetchByOwner(EntityManager, Predicate, Map)}.
 	 */
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	protected PathBuilder<?> getEquivalentPathBuilder() {
-		if (detachedFilter.getFrom() instanceof PathBuilder) {
-			return (PathBuilder<?>) detachedFilter.getFrom();
+	protected PathBuilder<?> getOwnerPath() {
+		return new PathBuilder(getDescriptor().getOwnerType(), "qbeOwner");
+	}
+
+	/**
+	 * @return Identificador do objeto que contém a coleção, na consulta de {@link #fetchByOwner(EntityManager, Predicate, Map)}.
+	 */
+	protected PathBuilder<Object> getOwnerIdPath() {
+		return getOwnerPath().get(getParentIdName());
+	}
+
+	/**
+	 * @return Nome do identificador da entidade que contém a coleção.
+	 */
+	protected String getParentIdName() {
+		if (parentIdName == null) {
+			EntityType<?> entityType = entityManager.getMetamodel().entity(getDescriptor().getOwnerType());
+			parentIdType = entityType.getIdType().getJavaType();
+			parentIdName = entityType.getId(parentIdType).getName();
 		}
-		return new PathBuilder(detachedFilter.getEntityElementType(), detachedFilter.getFromAliasName());
+		return parentIdName;
 	}
-	
 
 	/**
-	 * Descobre o nome da propriedade do atributo simples do outro lado do relacionamento, associado à coleção. 
-	 * <br/>
-	 * Ex: Servidor(dependentes) 1 -- * Dependente(servidor), onde servidor é o atributo mappedBy. 
-	 * @return Nome da propriedade do atributo simples no relacionamento.
+	 * @return Tipo do identificador da entidade que contém a coleção.
 	 */
-	private String findMapedByProperty() {
+	protected Class<?> getParentIdType() {
+		getParentIdName();
+		return parentIdType;
+	}
 	
+	/**
+	 * Associa às entidades da consulta principal os elementos carregados (ver {@link #fetch(EntityManager, List)}).
+	 * Os elementos são associados pelo identificador do dono da coleção (selecionado na consulta). Apenas quando
+	 * os elementos não referenciam a instância da consulta principal (carregados em outro EntityManager, ou dono
+	 * fora do contexto de persistência) a referência ao dono é corrigida, evitando a leitura (reflexão) do dono
+	 * de cada elemento no caso comum.
+	 * @param entitiesToUpdate Entidades a serem atualizadas (ver {@link #resolveRestrictionValues()}).
+	 * @param fetchedChunks Resultado do fetch de cada bloco, na ordem dos blocos.
+	 * @param otherEntityManager true se os blocos foram carregados em outro EntityManager (fetches paralelos).
+	 */
+	protected void updateEntitiesWithFetchResult(List<Object> entitiesToUpdate, List<List<Object>> fetchedChunks, boolean otherEntityManager) {
+		CollectionFetchDescriptor descriptor = getDescriptor();
+		if (descriptor.isJoinTable()) {
+			updateEntitiesWithOwnerRows(entitiesToUpdate, fetchedChunks);
+			return;
+		}
+		PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
 		
-		String mappedBy = null;
-		/*
-		 * Relacionamentos com collections são implementados, geralmente, com OneToMany
-		 */
-		try {
-			Field colField = ReflectionUtil.getField(detachedFilter.getParentElementType(), detachedFilter.getPropertyToFetch());
-			
-			if (colField.isAnnotationPresent(OneToMany.class)) {
-				OneToMany oneToMany = colField.getAnnotation(OneToMany.class);
-				mappedBy = oneToMany.mappedBy();
-				
-			} else {
-				throw new QbeException("Não foi encontrado a anotação @OneToMany na relação ." + detachedFilter.getPropertyToFetch());
+		// agrupamento pelo identificador do dono, sem equals/hashCode das entidades
+		IdMap<FetchedCollection> fetchedByOwnerId = IdMap.of(getParentIdType(), entitiesToUpdate.size());
+		Object[] ownerIds = new Object[entitiesToUpdate.size()];
+		for (int i = 0; i < ownerIds.length; i++) {
+			Object entity = entitiesToUpdate.get(i);
+			if (entity != null) {
+				ownerIds[i] = persistenceUnitUtil.getIdentifier(entity);
+				if (fetchedByOwnerId.get(ownerIds[i]) == null) {
+					// no mesmo EntityManager, os elementos referenciam a instância gerenciada do dono
+					boolean fixOwner = otherEntityManager || !entityManager.contains(entity);
+					fetchedByOwnerId.put(ownerIds[i], new FetchedCollection(entity, createAppropriateCollection(), fixOwner));
+				}
+			}
+		}
+		
+		for (List<Object> chunk : fetchedChunks) {
+			for (Object row : chunk) {
+				Object fetchedEntity;
+				Object ownerId;
+				if (row instanceof Tuple) {
+					fetchedEntity = ((Tuple) row).get(0, Object.class);
+					ownerId = ((Tuple) row).get(1, Object.class);
+				} else {
+					// tabela temporária: apenas a entidade
+					fetchedEntity = row;
+					ownerId = persistenceUnitUtil.getIdentifier(descriptor.getOwner(fetchedEntity));
+				}
+				FetchedCollection fetched = fetchedByOwnerId.get(ownerId);
+				if (fetched == null) {
+					// registro incluído após a consulta principal (subselect)
+					continue;
+				}
+				if (fetched.fixOwner && descriptor.getOwner(fetchedEntity) != fetched.owner) {
+					descriptor.setOwner(fetchedEntity, fetched.owner);
+				}
+				fetched.elements.add(fetchedEntity);
+				fetchedElements.add(fetchedEntity);
 			}
-			
-		} catch (Exception e) {
-			throw new QbeException("Não foi possível encontrar informações sobre a coleção " 
-					+ detachedFilter.getParentElementType() + "." + detachedFilter.getPropertyToFetch(), e);
 		}
 		
-		return mappedBy;
+		// atualiza as entidades principais com os valores encontrados
+		for (int i = 0; i < ownerIds.length; i++) {
+			if (ownerIds[i] != null) {
+				updateEntity(entitiesToUpdate.get(i), fetchedByOwnerId.get(ownerIds[i]).elements);
+			}
+		}
 	}
-	
+
 	/**
-	 * Adiciona o registro encontrado à coleção cujo fetch foi solicitado.
-	 * @param fetchResultMap 
-	 * @param primaryEntity Entidade primária que contém a coleção cujo fetch foi colicitado. 
-	 * @param fetchedEntity Objeto encontrado que deverá pertencer à coleção que foi solicitada para realização de fetch
+	 * Associa às entidades da consulta principal os elementos carregados por {@link #fetchByOwner(EntityManager, Predicate, Map)},
+	 * agrupados pelo identificador do dono. Entidades sem elementos recebem uma coleção (ou Map) vazia.
+	 * @param entitiesToUpdate Entidades a serem atualizadas (ver {@link #resolveRestrictionValues()}).
+	 * @param fetchedChunks Tuplas carregadas em cada bloco, na ordem dos blocos.
 	 */
-	protected void addToFetchResultMap(Map<Object, Collection<Object>> fetchResultMap, Object primaryEntity, Object fetchedEntity) {
-		Collection<Object> associationList = getFetchedCollection(fetchResultMap, primaryEntity);
-		associationList.add(fetchedEntity);
+	@SuppressWarnings("unchecked")
+	protected void updateEntitiesWithOwnerRows(List<Object> entitiesToUpdate, List<List<Object>> fetchedChunks) {
+		CollectionFetchDescriptor descriptor = getDescriptor();
+		PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+		boolean map = descriptor.getCollectionKind() == CollectionKind.MAP;
+		
+		IdMap<Object> fetchedByOwnerId = IdMap.of(getParentIdType(), entitiesToUpdate.size());
+		for (List<Object> chunk : fetchedChunks) {
+			for (Object row : chunk) {
+				Tuple tuple = (Tuple) row;
+				Object ownerId = tuple.get(0, Object.class);
+				Object fetched = fetchedByOwnerId.get(ownerId);
+				if (fetched == null) {
+					fetched = map ? descriptor.newMap() : descriptor.newCollection();
+					fetchedByOwnerId.put(ownerId, fetched);
+				}
+				Object element = tuple.get(map ? 2 : 1, Object.class);
+				if (map) {
+					((Map<Object, Object>) fetched).put(tuple.get(1, Object.class), element);
+				} else {
+					((Collection<Object>) fetched).add(element);
+				}
+				fetchedElements.add(element);
+			}
+		}
+		
+		for (Object primaryEntity : entitiesToUpdate) {
+			if (primaryEntity == null) {
+				continue;
+			}
+			Object fetched = fetchedByOwnerId.get(persistenceUnitUtil.getIdentifier(primaryEntity));
+			if (fetched == null) {
+				fetched = map ? descriptor.newMap() : descriptor.newCollection();
+			}
+			updateEntity(primaryEntity, fetched);
+		}
+	}
+
+	/**
+	 * Fetches desatachados aninhados (ex: servidor.projetos -> projetoServidor.projeto.ferramentas) são carregados
+	 * por nível: a partir de todos os elementos carregados por este processador, e não a cada bloco, de forma que o
+	 * número de consultas seja o número de níveis (ou de blocos da operação IN), independente do número de registros.
+	 * @return Processadores do nível seguinte, a serem executados após {@link #fetch()}.
+	 */
+	protected List<DetachedFetchesProcessor> createNestedProcessors() {
+		List<DetachedFetchesProcessor> nestedProcessors = new ArrayList<DetachedFetchesProcessor>();
+		if (!fetchedElements.isEmpty()) {
+			for (DetachedFetchFilter<?> nestedFilter : detachedFilter.getDetachedCollectionFetchList()) {
+				nestedProcessors.add(new DetachedFetchesProcessor(entityManager, nestedFilter, fetchedElements));
+			}
+		}
+		return nestedProcessors;
+	}
+
+	/**
+	 * @return Um {@link PathBuilder} equivalente à configuração da coleção para ser carregada.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected PathBuilder<?> getEquivalentPathBuilder() {
+		if (detachedFilter.getFrom() instanceof PathBuilder) {
+			return (PathBuilder<?>) detachedFilter.getFrom();
+		}
+		return new PathBuilder(detachedFilter.getEntityElementType(), detachedFilter.getFromAliasName());
 	}
 	
+
 	/**
 	 * Identifica qual o objeto responsável pela associação direta com a coleção
 	 * configurada para fetch. Caso a coleção esteja associada diretamente à
@@ -324,11 +829,15 @@ public class DetachedFetchesProcessor {
 			// é uma associação aninhada, é preciso realizar uma projeção sobre
 			// o resultado da consulta principal
 
-			String propertyToFetchParent = getFetchedPropertyParentPath();
+			PropertyPath propertyToFetchParent = PropertyPath.of(detachedFilter.getParent().getFrom().getType(), 
+					getFetchedPropertyParentPath());
 
 			for (Object resultObject : result) {
-				Object projectionValue = ReflectionUtil.getValue(resultObject,
-						propertyToFetchParent);
+				Object projectionValue = propertyToFetchParent.get(resultObject);
+				if (projectionValue instanceof HibernateProxy) {
+					// a coleção deve ser atualizada na entidade, e não no proxy
+					projectionValue = ((HibernateProxy) projectionValue).getHibernateLazyInitializer().getImplementation();
+				}
 				resultRestriction.add(projectionValue);
 			}
 
@@ -343,8 +852,7 @@ public class DetachedFetchesProcessor {
 	 * 
 	 */
 	protected String getFetchedPropertyParentPath() {
-		return detachedFilter.getTargetMetadata().getParent().getMetadata()
-				.getName();
+		return PropertyPath.toDotNotation(detachedFilter.getTargetMetadata().getParent());
 	}
 
 	/**
@@ -356,4 +864,23 @@ public class DetachedFetchesProcessor {
 				.isRoot();
 	}
 
+	/**
+	 * Elementos carregados para uma entidade da consulta principal.
+	 */
+	private static final class FetchedCollection {
+
+		private final Object owner;
+
+		private final Collection<Object> elements;
+
+		/** Os elementos podem referenciar outra instância do dono. */
+		private final boolean fixOwner;
+
+		FetchedCollection(Object owner, Collection<Object> elements, boolean fixOwner) {
+			this.owner = owner;
+			this.elements = elements;
+			this.fixOwner = fixOwner;
+		}
+	}
+
 }
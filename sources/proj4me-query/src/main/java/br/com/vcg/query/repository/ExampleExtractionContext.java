@@ -0,0 +1,178 @@
+package br.com.vcg.query.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Predicate;
+
+import br.com.vcg.query.api.QueryFilter;
+import br.com.vcg.query.exception.QbeException;
+import br.com.vcg.query.util.ReflectionUtil;
+import br.com.vcg.query.util.StringUtil;
+
+/**
+ * Contexto compartilhado pelos {@link ExampleExtractor} gerados durante a extração de um objeto exemplo.
+ * Concentra as regras de preenchimento, associações e profundidade, as mesmas aplicadas
+ * pelo {@link ExamplePropertiesInspector}.
+ *
+ * @author augusto
+ */
+public class ExampleExtractionContext {
+
+	private final QueryFilter<?> filter;
+
+	/** Metadados da execução, que recebem os predicados do exemplo. */
+	private final QueryMetadata metadata;
+
+	/** Propriedades (dot notation) já processadas por predicados customizados. */
+	private final Set<String> customPredicates;
+
+	/** Utilizado para a verificação das chaves primárias. */
+	private final ExamplePropertiesInspector inspector;
+
+	public ExampleExtractionContext(QueryFilter<?> filter, Set<String> customPredicates, ExamplePropertiesInspector inspector) {
+		this(filter, filter.getMetadata(), customPredicates, inspector);
+	}
+
+	/**
+	 * @param metadata Metadados da execução (cópia dos metadados do filtro), que recebem os predicados do exemplo.
+	 */
+	public ExampleExtractionContext(QueryFilter<?> filter, QueryMetadata metadata, Set<String> customPredicates,
+			ExamplePropertiesInspector inspector) {
+		this.filter = filter;
+		this.metadata = metadata;
+		this.customPredicates = customPredicates;
+		this.inspector = inspector;
+	}
+
+	/**
+	 * Inicia a extração a partir do objeto exemplo do filtro.
+	 * @param extractor Extrator gerado para a classe do exemplo.
+	 * @param example Objeto exemplo (sem proxy).
+	 */
+	public <T> void extract(ExampleExtractor<T> extractor, T example) {
+		extractor.extract(this, filter.getFrom().getRoot(), example, "", 1);
+	}
+
+	/**
+	 * Registra o predicado nos metadados da execução.
+	 */
+	public void where(Predicate predicate) {
+		metadata.addWhere(predicate);
+	}
+
+	/**
+	 * @return true se a propriedade já foi processada por um predicado customizado, devendo ser desconsiderada.
+	 */
+	public boolean isCustom(String prefix, String property) {
+		return !customPredicates.isEmpty() && customPredicates.contains(prefix + property);
+	}
+
+	/**
+	 * @return true se o valor deve ser considerado como filtro (diferente de null e de String vazia).
+	 */
+	public boolean isFilled(Object value) {
+		return value != null && !(value instanceof String && StringUtil.isStringEmpty((String) value));
+	}
+
+	/**
+	 * @return true se a associação está inicializada (não é um Hibernate proxy pendente).
+	 */
+	public boolean isInitialized(Object value) {
+		return inspector.isInitialized(value);
+	}
+
+	/**
+	 * @return true se a entidade possui a chave primária simples (@Id) preenchida.
+	 */
+	public boolean isPkFilled(Object entity) {
+		return entity != null && inspector.getSimplePrimaryKey(entity) != null;
+	}
+
+	/**
+	 * @return true se a entidade possui o identificador (simples ou composto) preenchido.
+	 */
+	public boolean isIdFilled(Object entity) {
+		try {
+			return inspector.isIdFilled(entity);
+		} catch (Exception e) {
+			throw new QbeException("Falha ao verificar o identificador de " + entity, e);
+		}
+	}
+
+	/**
+	 * Analisa os atributos de uma associação inicializada e sem chave primária preenchida, caso o nível de
+	 * profundidade configurado no filtro permita.
+	 * @param path Caminho da associação.
+	 * @param value Associação.
+	 * @param prefix Caminho (dot notation) do objeto que contém a associação.
+	 * @param property Nome da associação.
+	 * @param level Nível de profundidade do objeto que contém a associação.
+	 */
+	public void extractRelationship(Path<?> path, Object value, String prefix, String property, int level) {
+		if (level <= filter.getDeepLevel()) {
+			extractNested(path, value, prefix + property + ".", level + 1);
+		} else {
+			inspector.logWarn("O relacionamento " + prefix + property + " não foi analisado porque a propriedade 'deepLevel' " +
+					"do QueryFilter está limitando a profundidade das propriedades aninhadas.");
+		}
+	}
+
+	/**
+	 * Analisa os atributos de um objeto aninhado (associação ou chave composta), utilizando o extrator
+	 * gerado para a sua classe ou, caso este não exista, o {@link ExamplePropertiesInspector}.
+	 * @param path Caminho do objeto aninhado.
+	 * @param value Objeto aninhado.
+	 * @param prefix Caminho (dot notation) do objeto aninhado, incluindo o ponto final.
+	 * @param level Nível de profundidade do objeto aninhado.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void extractNested(Path<?> path, Object value, String prefix, int level) {
+		if (value != null) {
+			Object nested = ReflectionUtil.unProxy(value);
+			ExampleExtractor extractor = ExampleExtractors.find(nested.getClass());
+			if (extractor != null) {
+				extractor.extract(this, path, nested, prefix, level);
+			} else {
+				extractProperties(path, nested, prefix, level);
+			}
+		}
+	}
+
+	/**
+	 * Analisa os atributos de um objeto sem extrator gerado através do {@link ExamplePropertiesInspector},
+	 * registrando um predicado para cada propriedade preenchida.
+	 * @param path Caminho do objeto.
+	 * @param value Objeto (sem proxy).
+	 * @param prefix Caminho (dot notation) do objeto, incluindo o ponto final (vazio para o objeto exemplo).
+	 * @param level Nível de profundidade do objeto.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void extractProperties(Path<?> path, Object value, String prefix, int level) {
+		List<Property> filledProperties;
+		try {
+			filledProperties = inspector.extractFilledProperties(new ArrayList<Property>(), value, null, filter.getDeepLevel(), level);
+		} catch (Exception e) {
+			throw new QbeException("Falha ao extrair as propriedades preenchidas de " + value, e);
+		}
+
+		for (Property property : filledProperties) {
+			/*
+			 * Processa o valor contido no exemplo apenas se não tiver sido processado por uma operação customizada.
+			 */
+			String dotNotation = property.generateDotNotation();
+			if (!isCustom(prefix, dotNotation)) {
+				Object propValue = property.getValue();
+				if (propValue instanceof String) {
+					where(new StringPathCustom(path, dotNotation).contains(propValue.toString()));
+				} else {
+					where(new ComparablePathCustom(propValue.getClass(), path, dotNotation).eq(propValue));
+				}
+			}
+		}
+	}
+
+}
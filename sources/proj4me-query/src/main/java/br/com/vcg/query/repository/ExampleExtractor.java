@@ -0,0 +1,33 @@
+package br.com.vcg.query.repository;
+
+import com.querydsl.core.types.Path;
+
+/**
+ * Extrator dos valores preenchidos de um objeto exemplo, que registra os predicados diretamente
+ * sobre os tipos Q gerados pelo QueryDSL, sem utilização de reflexão.
+ * <br/>
+ * As implementações são geradas em tempo de compilação por {@link br.com.vcg.query.apt.ExampleExtractorProcessor},
+ * uma para cada entidade (ou classe embutível), no mesmo pacote da classe e com o sufixo "ExampleExtractor".
+ * Ex: <code>ServidorExampleExtractor</code>.
+ *
+ * @param <T> Tipo do objeto exemplo.
+ * @author augusto
+ */
+public interface ExampleExtractor<T> {
+
+	/**
+	 * Sufixo do nome das classes geradas.
+	 */
+	String SUFFIX = "ExampleExtractor";
+
+	/**
+	 * Registra, no filtro do contexto, os predicados relativos às propriedades preenchidas do exemplo.
+	 * @param context Contexto da extração.
+	 * @param path Caminho (QueryDSL) do objeto exemplo na consulta. Ex: pessoa, pessoa.cidade
+	 * @param example Objeto exemplo (ou associação/chave composta dele).
+	 * @param prefix Caminho do objeto em dot notation, incluindo o ponto final. Vazio para o objeto raiz. Ex: "cidade."
+	 * @param level Nível de profundidade atual, iniciando em 1.
+	 */
+	void extract(ExampleExtractionContext context, Path<?> path, T example, String prefix, int level);
+
+}
@@ -0,0 +1,62 @@
+package br.com.vcg.query.repository;
+
+import com.querydsl.core.types.Path;
+
+import br.com.vcg.query.exception.QbeException;
+
+/**
+ * Localiza os {@link ExampleExtractor} gerados em tempo de compilação. A busca é realizada uma única vez
+ * por classe; classes sem extrator gerado são processadas pelo {@link ExamplePropertiesInspector}.
+ *
+ * @author augusto
+ */
+public final class ExampleExtractors {
+
+	/** Marcador para classes sem extrator gerado (ClassValue não aceita null). */
+	private static final ExampleExtractor<Object> NONE = new ExampleExtractor<Object>() {
+		@Override
+		public void extract(ExampleExtractionContext context, Path<?> path, Object example, String prefix, int level) {
+		}
+	};
+
+	private static final ClassValue<ExampleExtractor<?>> CACHE = new ClassValue<ExampleExtractor<?>>() {
+		@Override
+		protected ExampleExtractor<?> computeValue(Class<?> type) {
+			return load(type);
+		}
+	};
+
+	private ExampleExtractors() {
+	}
+
+	/**
+	 * @param type Classe do objeto exemplo.
+	 * @return Extrator gerado para a classe, ou null caso não exista.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> ExampleExtractor<T> find(Class<T> type) {
+		ExampleExtractor<?> extractor = CACHE.get(type);
+		return extractor == NONE ? null : (ExampleExtractor<T>) extractor;
+	}
+
+	private static ExampleExtractor<?> load(Class<?> type) {
+		// classes internas e do próprio java não possuem extratores gerados
+		if (type.getEnclosingClass() != null || type.getClassLoader() == null) {
+			return NONE;
+		}
+		try {
+			Class<?> extractorClass = Class.forName(type.getName() + ExampleExtractor.SUFFIX, true, type.getClassLoader());
+			if (!ExampleExtractor.class.isAssignableFrom(extractorClass)) {
+				return NONE;
+			}
+			return (ExampleExtractor<?>) extractorClass.newInstance();
+		} catch (ClassNotFoundException e) {
+			return NONE;
+		} catch (InstantiationException e) {
+			throw new QbeException("Não foi possível instanciar o extrator do exemplo " + type.getName(), e);
+		} catch (IllegalAccessException e) {
+			throw new QbeException("Não foi possível instanciar o extrator do exemplo " + type.getName(), e);
+		}
+	}
+
+}
@@ -1,23 +1,17 @@
 package br.com.vcg.query.repository;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.persistence.EmbeddedId;
-import javax.persistence.Id;
-import javax.persistence.ManyToMany;
-import javax.persistence.ManyToOne;
-import javax.persistence.OneToMany;
-import javax.persistence.OneToOne;
-import javax.persistence.Transient;
-
 import org.hibernate.Hibernate;
 
+import br.com.vcg.query.repository.metadata.ExampleMetadata;
+import br.com.vcg.query.repository.metadata.ExampleProperty;
 import br.com.vcg.query.util.ReflectionUtil;
 import br.com.vcg.query.util.StringUtil;
 
@@ -32,6 +26,45 @@ public class ExamplePropertiesInspector {
 	/** Logger */
 	private static Logger log;
 	
+	/**
+	 * Indica, por subclasse, se algum dos métodos legados de seleção e classificação dos atributos
+	 * ({@link #extractMainProperties(Object, int)}, {@link #isValidProperty(Field)}, {@link #isTransient(Field)},
+	 * {@link #isStatic(Field)}, {@link #isCollection(Field)}, {@link #isRelationship(Field)} e
+	 * {@link #isCompositeKey(Field)}) foi sobrescrito.
+	 */
+	private static final ClassValue<Boolean> LEGACY_HOOKS = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(Class<?> type) {
+			for (Class<?> clazz = type; clazz != ExamplePropertiesInspector.class; clazz = clazz.getSuperclass()) {
+				for (Method method : clazz.getDeclaredMethods()) {
+					if (isLegacyHook(method)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	};
+	
+	/** Classificação dos atributos através dos métodos legados, possivelmente sobrescritos. */
+	private final ExampleMetadata.FieldClassifier legacyClassifier = new ExampleMetadata.FieldClassifier() {
+
+		@Override
+		public boolean isCollection(Field field) {
+			return ExamplePropertiesInspector.this.isCollection(field);
+		}
+
+		@Override
+		public boolean isRelationship(Field field) {
+			return ExamplePropertiesInspector.this.isRelationship(field);
+		}
+
+		@Override
+		public boolean isCompositeKey(Field field) {
+			return ExamplePropertiesInspector.this.isCompositeKey(field);
+		}
+	};
+	
 	/**
 	 * Extrai as propriedades preenchidas do objeto. Por padrão verifica as propriedades
 	 * pertencentes diretamente à entidade de consulta, mas o nível de profundidade pode ser configurado, caso
@@ -56,14 +89,13 @@ public class ExamplePropertiesInspector {
 			// verifica se a entidade é um Hibernate proxy, e extrai a verdadeira entidade
 			entity = ReflectionUtil.unProxy(entity); 
 			
-			List<Field> propriedades = extractMainProperties(entity, currentNivel);
-			for (Field field : propriedades) {
+			for (ExampleProperty metadata : resolveMetadata(entity, currentNivel).getProperties()) {
 				
-				Property novaPropriedade = new Property(field, nestedProperty, ReflectionUtil.getValue(entity, field));
-				if (!isCollection(novaPropriedade.getField())) {
+				if (!metadata.isCollection()) {
+					Property novaPropriedade = new Property(metadata, nestedProperty, metadata.getValue(entity));
 					
 					// se é um relacionamento o tratamento é diferenciado
-					if ((isRelationship(field) && isInitialized(novaPropriedade.getValue()))) {
+					if ((metadata.isRelationship() && isInitialized(novaPropriedade.getValue()))) {
 
 						/*
 						 * Quando um relacionamento (associação) é encontrado, seus atributos também podem
@@ -85,7 +117,7 @@ public class ExamplePropertiesInspector {
 						}
 						
 					// se é chave composta, extrai seus atributos internos	
-					} else if (isCompositeKey(field)) {
+					} else if (metadata.isCompositeKey()) {
 						extractFilledProperties(filledProperties, novaPropriedade.getValue(), novaPropriedade, maxNivel, currentNivel + 1);
 						
 						// se é outra propriedade qualquer, adicionado às propriedades preenchidas
@@ -102,6 +134,29 @@ public class ExamplePropertiesInspector {
 		return filledProperties;  
 	}	
 	
+	/**
+	 * Metadados utilizados na extração. Se a subclasse sobrescreveu algum dos métodos legados, os metadados são
+	 * calculados a cada chamada através deles, sem cache; caso contrário são os de {@link #getMetadata(Class)}.
+	 */
+	private ExampleMetadata resolveMetadata(Object entity, int currentNivel) throws Exception {
+		if (!LEGACY_HOOKS.get(getClass())) {
+			return getMetadata(entity.getClass());
+		}
+		return ExampleMetadata.of(entity.getClass(), extractMainProperties(entity, currentNivel), legacyClassifier);
+	}
+
+	/**
+	 * @return true se o método sobrescreve um dos métodos legados de seleção e classificação dos atributos.
+	 */
+	private static boolean isLegacyHook(Method method) {
+		Class<?>[] params = method.getParameterTypes();
+		if ("extractMainProperties".equals(method.getName())) {
+			return Arrays.equals(params, new Class<?>[] { Object.class, int.class });
+		}
+		return method.getName().matches("isValidProperty|isTransient|isStatic|isCollection|isRelationship|isCompositeKey")
+				&& Arrays.equals(params, new Class<?>[] { Field.class });
+	}
+
 	/**
 	 * Considerando que este field sugere uma associação, verifica se esta está com a chave primária preenchida.
 	 * @param fk Associação.
@@ -118,50 +173,44 @@ public class ExamplePropertiesInspector {
 	 * @return Valor da chave primária.
 	 */
 	protected Object getSimplePrimaryKey(Object entity) {
-		
-		// iterando sobre a estrutura da classe e das superclasses
-		for (Class<?> clazz = entity.getClass(); clazz != Object.class; clazz = clazz
-				.getSuperclass()) {
-
-			// para cada classe, itera sobre os atributos
-			for (Field field : clazz.getDeclaredFields()) {
-
-				if (field.isAnnotationPresent(Id.class)) {
-					return ReflectionUtil.getValue(entity, field);
-				}
-				
-			}
-
-		}    
-		
-		return null;
+		return getMetadata(entity.getClass()).getSimplePrimaryKey(entity);
 	}
 
+	/**
+	 * @param type Classe do objeto exemplo (ou de uma de suas associações).
+	 * @return Metadados da classe, calculados uma única vez e compartilhados entre as consultas.
+	 */
+	protected ExampleMetadata getMetadata(Class<?> type) {
+		return ExampleMetadata.of(type);
+	}
+	
 	/**
 	 * Este método inclui certa inteligencia para perceber quando o id da entidade foi informado. Neste caso,  
 	 * se o id for diferente de null, e não se trata do objeto base da consulta (nível = 1), não verifica as demais propriedades, 
 	 * visto que o id é o sufiente para identificar um registro.  
+	 * @deprecated Só é invocado quando uma subclasse sobrescreve algum dos métodos legados de seleção ou
+	 * classificação dos atributos; nesse caso os metadados deixam de ser cacheados e são recalculados a cada extração.
+	 * Sobrescreva {@link #getMetadata(Class)} para customizar as propriedades.
 	 */
+	@Deprecated
 	protected List<Field> extractMainProperties(Object entidade, int currentNivel) throws Exception {
-		
-	      List<Field> fields = new ArrayList<Field>();
+		List<Field> fields = new ArrayList<Field>();
+
+		// iterando sobre a estrutura da classe e das superclasses
+		for (Class<?> clazz = entidade.getClass(); clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+
+			// para cada classe, itera sobre os atributos
+			for (Field field : clazz.getDeclaredFields()) {
 
-	      // iterando sobre a estrutura da classe e das superclasses
-	      for (Class<?> clazz = entidade.getClass(); clazz != Object.class; clazz = clazz.getSuperclass()) {
-	    	  
-	    	  // para cada classe, itera sobre os atributos
-	         for (Field field : clazz.getDeclaredFields()) {
-	        	 
-	        	 // descarta campos considerados padroes da api ou inválidos
-	        	 if (isValidProperty(field)) {
-        			 fields.add(field);
-	        	 }
-	         }
-	      }
-	      
-	      return fields;
+				// descarta campos considerados padroes da api ou inválidos
+				if (isValidProperty(field)) {
+					fields.add(field);
+				}
+			}
+		}
+		return fields;
 	}
-	
+
 	/**
 	 * Verifica se a propriedade possuir valor preenchido na entidade.
 	 * @param propriedade Propriedade devidamente preenchida
@@ -174,33 +223,45 @@ public class ExamplePropertiesInspector {
 		boolean preenchido = true;
 		if (valor == null 
 				|| (valor instanceof String && StringUtil.isStringEmpty((String) valor))
-				|| (isRelationship(propriedade.getField()) && !isIdFilled(propriedade.getValue()))) { //se é um relacionamento, mas o id não está preenchido, nao considera
+				|| (isRelationship(propriedade) && !isIdFilled(propriedade.getValue()))) { //se é um relacionamento, mas o id não está preenchido, nao considera
 			preenchido = false;
 		}
 		return preenchido;
 	}
 
 	/**
-	 * Verifica se a propriedade representa uma chave composta.
-	 * @param propriedade a ser avaliada.
-	 * @return true se representa uma chave composta
+	 * Verifica se uma propriedade possui anotacao de relacionamento com outra entidade
+	 * @param propriedade Propriedade a ser vefificada.
+	 * @return true se representar uma relacionamento.
 	 */
-	protected boolean isCompositeKey(Field propriedade) {
-		return propriedade.isAnnotationPresent(EmbeddedId.class);
+	protected boolean isRelationship(Property propriedade) {
+		return propriedade.getMetadata() != null && propriedade.getMetadata().isRelationship();
 	}
-
+	
 	/**
 	 * Verifica se uma propriedade possui anotacao de relacionamento com outra entidade
 	 * @param propriedade Propriedade a ser vefificada.
 	 * @return true se representar uma relacionamento.
+	 * @deprecated Só é invocado quando uma subclasse sobrescreve algum dos métodos legados, ver
+	 * {@link #extractMainProperties(Object, int)}. Utilize {@link ExampleProperty#isRelationship()}.
 	 */
+	@Deprecated
 	protected boolean isRelationship(Field propriedade) {
-		return propriedade.isAnnotationPresent(OneToMany.class) 
-			|| propriedade.isAnnotationPresent(OneToOne.class)
-			|| propriedade.isAnnotationPresent(ManyToMany.class)
-			|| propriedade.isAnnotationPresent(ManyToOne.class);
+		return ExampleMetadata.isRelationship(propriedade);
 	}
-	
+
+	/**
+	 * Verifica se a propriedade representa uma chave composta.
+	 * @param propriedade a ser avaliada.
+	 * @return true se representa uma chave composta
+	 * @deprecated Só é invocado quando uma subclasse sobrescreve algum dos métodos legados, ver
+	 * {@link #extractMainProperties(Object, int)}. Utilize {@link ExampleProperty#isCompositeKey()}.
+	 */
+	@Deprecated
+	protected boolean isCompositeKey(Field propriedade) {
+		return ExampleMetadata.isCompositeKey(propriedade);
+	}
+
 	/**
 	 * Verifica se o bean está inicializado ou é um Hibernate Proxy.
 	 * @param objeto 
@@ -212,9 +273,12 @@ public class ExamplePropertiesInspector {
 	
 	/**
 	 * Verifica se uma propriedade é uma coleção
+	 * @deprecated Só é invocado quando uma subclasse sobrescreve algum dos métodos legados, ver
+	 * {@link #extractMainProperties(Object, int)}. Utilize {@link ExampleProperty#isCollection()}.
 	 */
+	@Deprecated
 	protected boolean isCollection(Field field) {
-		return Collection.class.isAssignableFrom(field.getType());
+		return ExampleMetadata.isCollection(field);
 	}
 
 	/**
@@ -222,9 +286,13 @@ public class ExamplePropertiesInspector {
 	 * apenas as que são anotadas com @Transient é que não sao mapeadas.
 	 * @param propriedade propriedade a ser checada.
 	 * @return true se for transiente.
+	 * @deprecated Só é invocado quando uma subclasse sobrescreve algum dos métodos legados, ver
+	 * {@link #extractMainProperties(Object, int)}. Propriedades transientes não fazem parte de
+	 * {@link ExampleMetadata#getProperties()}.
 	 */
+	@Deprecated
 	protected boolean isTransient(Field propriedade) {
-		return propriedade.isAnnotationPresent(Transient.class);
+		return ExampleMetadata.isTransient(propriedade);
 	}
 	
 	/**
@@ -232,9 +300,13 @@ public class ExamplePropertiesInspector {
 	 * apenas as que não são static devem ser consideradas.
 	 * @param propriedade propriedade a ser checada.
 	 * @return true se for static.
+	 * @deprecated Só é invocado quando uma subclasse sobrescreve algum dos métodos legados, ver
+	 * {@link #extractMainProperties(Object, int)}. Propriedades static não fazem parte de
+	 * {@link ExampleMetadata#getProperties()}.
 	 */
+	@Deprecated
 	protected boolean isStatic(Field propriedade) {
-		return Modifier.isStatic(propriedade.getModifiers());
+		return ExampleMetadata.isStatic(propriedade);
 	}
 	
 	/**
@@ -242,21 +314,22 @@ public class ExamplePropertiesInspector {
 	 * através de QBE. Ex: serialVersionUID, class, transient, static
 	 * @param field propriedade a ser checada.
 	 * @return true se for um campo válido.
+	 * @deprecated Só é invocado quando uma subclasse sobrescreve algum dos métodos legados, ver
+	 * {@link #extractMainProperties(Object, int)}. Apenas as propriedades válidas fazem parte de
+	 * {@link ExampleMetadata#getProperties()}.
 	 */
+	@Deprecated
 	protected boolean isValidProperty(Field field) {
-		if (isTransient(field)
-				|| isStatic(field)
-				|| field.getName().matches("serialVersionUID|class")) {
-			return false;
-		}
-		return true;
+		return !isTransient(field)
+				&& !isStatic(field)
+				&& !field.getName().matches("serialVersionUID|class");
 	}
 	
 	/**
 	 * Verifica se o id está preenchido
 	 */
 	protected boolean isIdFilled(Object entidade) throws Exception {
-		return entidade != null && ReflectionUtil.getValue(entidade, "id") != null;
+		return entidade != null && getMetadata(entidade.getClass()).getIdentifier(entidade) != null;
 	}
 
 	protected void logWarn(String msg) {
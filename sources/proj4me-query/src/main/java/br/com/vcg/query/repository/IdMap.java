@@ -0,0 +1,138 @@
+package br.com.vcg.query.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mapa indexado pelo identificador de uma entidade, utilizado no agrupamento do resultado dos fetches
+ * desatachados. Para identificadores numéricos (Long, Integer, Short, Byte) as chaves são armazenadas como
+ * <code>long</code>, em uma tabela de endereçamento aberto (sondagem linear): não há um objeto por entrada nem
+ * chamadas a equals/hashCode. Para os demais tipos (ex: chaves compostas), é utilizado um {@link HashMap}.
+ *
+ * @author augusto
+ */
+abstract class IdMap<V> {
+
+	/**
+	 * @param idType Tipo do identificador da entidade.
+	 * @param expectedSize Número esperado de entradas.
+	 * @return Um mapa apropriado para o tipo do identificador.
+	 */
+	static <V> IdMap<V> of(Class<?> idType, int expectedSize) {
+		if (idType == Long.class || idType == Integer.class || idType == Short.class || idType == Byte.class
+				|| idType == long.class || idType == int.class || idType == short.class || idType == byte.class) {
+			return new LongIdMap<V>(expectedSize);
+		}
+		return new ObjectIdMap<V>(expectedSize);
+	}
+
+	/**
+	 * @return O valor associado ao identificador, ou null.
+	 */
+	abstract V get(Object id);
+
+	/**
+	 * Associa o valor (não nulo) ao identificador, substituindo o valor anterior.
+	 */
+	abstract void put(Object id, V value);
+
+	/**
+	 * Tabela de endereçamento aberto com chaves <code>long</code>. Uma posição está livre quando o seu valor é null.
+	 */
+	private static final class LongIdMap<V> extends IdMap<V> {
+
+		private long[] keys;
+
+		private Object[] values;
+
+		private int size;
+
+		/** Máscara do índice: a capacidade é sempre uma potência de 2. */
+		private int mask;
+
+		LongIdMap(int expectedSize) {
+			int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+			allocate(capacity);
+		}
+
+		private void allocate(int capacity) {
+			keys = new long[capacity];
+			values = new Object[capacity];
+			mask = capacity - 1;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		V get(Object id) {
+			long key = ((Number) id).longValue();
+			for (int index = indexOf(key); values[index] != null; index = (index + 1) & mask) {
+				if (keys[index] == key) {
+					return (V) values[index];
+				}
+			}
+			return null;
+		}
+
+		@Override
+		void put(Object id, V value) {
+			long key = ((Number) id).longValue();
+			int index = indexOf(key);
+			for (; values[index] != null; index = (index + 1) & mask) {
+				if (keys[index] == key) {
+					values[index] = value;
+					return;
+				}
+			}
+			keys[index] = key;
+			values[index] = value;
+			// ocupação máxima de 50%
+			if (++size * 2 > keys.length) {
+				rehash();
+			}
+		}
+
+		private void rehash() {
+			long[] oldKeys = keys;
+			Object[] oldValues = values;
+			allocate(keys.length * 2);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldValues[i] != null) {
+					int index = indexOf(oldKeys[i]);
+					while (values[index] != null) {
+						index = (index + 1) & mask;
+					}
+					keys[index] = oldKeys[i];
+					values[index] = oldValues[i];
+				}
+			}
+		}
+
+		/**
+		 * @return Posição inicial da chave, com a dispersão dos bits (identificadores são, em geral, sequenciais).
+		 */
+		private int indexOf(long key) {
+			long hash = key * 0x9E3779B97F4A7C15L;
+			return (int) (hash ^ (hash >>> 32)) & mask;
+		}
+	}
+
+	private static final class ObjectIdMap<V> extends IdMap<V> {
+
+		private final Map<Object, V> map;
+
+		ObjectIdMap(int expectedSize) {
+			map = new HashMap<Object, V>(Math.max(16, expectedSize * 4 / 3 + 1));
+		}
+
+		@Override
+		V get(Object id) {
+			return map.get(id);
+		}
+
+		@Override
+		void put(Object id, V value) {
+			map.put(id, value);
+		}
+	}
+
+}
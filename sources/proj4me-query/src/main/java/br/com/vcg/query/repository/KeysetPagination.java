@@ -0,0 +1,248 @@
+package br.com.vcg.query.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.QueryModifiers;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.ConstantImpl;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.Order;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.OrderSpecifier.NullHandling;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.PathMetadata;
+import com.querydsl.core.types.PathType;
+import com.querydsl.core.types.Predicate;
+
+import br.com.vcg.query.api.Keyset;
+import br.com.vcg.query.exception.QbeException;
+
+/**
+ * Paginação por chave (keyset/seek): a partir da ordenação configurada no filtro (acrescida do identificador
+ * da entidade, como critério de desempate), restringe a consulta aos registros posteriores às chaves do último
+ * registro da página anterior. Como não há registros a descartar (OFFSET), o custo de uma página é o mesmo,
+ * independentemente da sua posição.
+ * <br/>
+ * A JPQL não suporta a comparação de tuplas <code>(a, b, id) > (?, ?, ?)</code>, portanto o predicado é
+ * expandido em <code>a >= ? and (a > ? or (a = ? and (b > ? or (b = ? and id > ?))))</code>. A primeira
+ * condição (redundante) permite ao banco de dados utilizar o índice da primeira chave como início da busca.
+ * <br/>
+ * Chaves que podem ser nulas (segundo o metamodelo) recebem na ordenação a posição explícita dos nulos (a
+ * configurada no filtro ou, por padrão, NULLS LAST em ASC e NULLS FIRST em DESC, como nos bancos de dados que
+ * tratam NULL como o maior valor), de forma que a ordem não dependa do dialeto, e o predicado inclui os ramos
+ * <code>is null</code>/<code>is not null</code> correspondentes.
+ *
+ * @author augusto
+ */
+final class KeysetPagination {
+
+	/** Chaves de ordenação, incluindo o identificador. */
+	private final List<Expression<?>> keys;
+
+	private final List<Order> directions;
+
+	/**
+	 * Posição dos nulos de cada chave: true quando precedem os demais valores na ordenação da consulta, false
+	 * quando os sucedem e null para chaves que não podem ser nulas.
+	 */
+	private final List<Boolean> nullsFirst;
+
+	/** Ordenação a ser aplicada à consulta. */
+	private final List<OrderSpecifier<?>> orderBy;
+
+	private KeysetPagination(List<Expression<?>> keys, List<Order> directions, List<Boolean> nullsFirst,
+			List<OrderSpecifier<?>> orderBy) {
+		this.keys = keys;
+		this.directions = directions;
+		this.nullsFirst = nullsFirst;
+		this.orderBy = orderBy;
+	}
+
+	/**
+	 * @param metadata Metadados da consulta, com a ordenação configurada.
+	 * @param root Entidade raiz da consulta.
+	 * @param metamodel Metamodelo da unidade de persistência, para identificação do identificador da entidade.
+	 * @return As chaves de ordenação da consulta.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	static KeysetPagination of(QueryMetadata metadata, EntityPath<?> root, Metamodel metamodel) {
+		List<Expression<?>> keys = new ArrayList<Expression<?>>();
+		List<Order> directions = new ArrayList<Order>();
+		List<Boolean> nullsFirst = new ArrayList<Boolean>();
+		List<OrderSpecifier<?>> orderBy = new ArrayList<OrderSpecifier<?>>();
+		Path<?> id = getIdPath(root, metamodel);
+		for (OrderSpecifier<?> order : metadata.getOrderBy()) {
+			keys.add(order.getTarget());
+			directions.add(order.getOrder());
+			if (order.getTarget().equals(id) || !isNullable(order.getTarget(), metamodel)) {
+				nullsFirst.add(null);
+				orderBy.add(order);
+			} else if (order.getNullHandling() == NullHandling.NullsFirst) {
+				nullsFirst.add(Boolean.TRUE);
+				orderBy.add(order);
+			} else if (order.getNullHandling() == NullHandling.NullsLast) {
+				nullsFirst.add(Boolean.FALSE);
+				orderBy.add(order);
+			} else {
+				boolean first = order.getOrder() == Order.DESC;
+				nullsFirst.add(first);
+				orderBy.add(first ? order.nullsFirst() : order.nullsLast());
+			}
+		}
+
+		if (!keys.contains(id)) {
+			// desempate pelo identificador, na direção da última chave
+			Order direction = directions.isEmpty() ? Order.ASC : directions.get(directions.size() - 1);
+			keys.add(id);
+			directions.add(direction);
+			nullsFirst.add(null);
+			orderBy.add(new OrderSpecifier(direction, id));
+		}
+		return new KeysetPagination(keys, directions, nullsFirst, orderBy);
+	}
+
+	/**
+	 * @return false apenas para propriedades da entidade que, segundo o metamodelo, não podem ser nulas. Demais
+	 * expressões (ex: propriedades de associações, que podem ser nulas em um left join) são consideradas nulas.
+	 */
+	private static boolean isNullable(Expression<?> key, Metamodel metamodel) {
+		if (!(key instanceof Path)) {
+			return true;
+		}
+		PathMetadata path = ((Path<?>) key).getMetadata();
+		if (path.getParent() == null || !path.getParent().getMetadata().isRoot() || path.getPathType() != PathType.PROPERTY) {
+			return true;
+		}
+		try {
+			Attribute<?, ?> attribute = metamodel.managedType(path.getParent().getType()).getAttribute(path.getName());
+			return !(attribute instanceof SingularAttribute) || ((SingularAttribute<?, ?>) attribute).isOptional();
+		} catch (IllegalArgumentException e) {
+			return true;
+		}
+	}
+
+	private static Path<?> getIdPath(EntityPath<?> root, Metamodel metamodel) {
+		EntityType<?> entityType;
+		try {
+			entityType = metamodel.entity(root.getType());
+		} catch (IllegalArgumentException e) {
+			throw new QbeException("A paginação por chave é suportada apenas para entidades: " + root.getType(), e);
+		}
+		if (!entityType.hasSingleIdAttribute()) {
+			throw new QbeException("A paginação por chave requer um identificador simples: " + root.getType());
+		}
+		SingularAttribute<?, ?> id = entityType.getId(entityType.getIdType().getJavaType());
+		return ExpressionUtils.path(id.getJavaType(), root, id.getName());
+	}
+
+	/**
+	 * Aplica a ordenação, a restrição de chaves e o limite (um registro a mais, para identificar a existência
+	 * da próxima página) aos metadados informados.
+	 * @param metadata Metadados da consulta (cópia dos metadados do filtro).
+	 * @param after Chaves do último registro da página anterior, ou null para a primeira página.
+	 * @param pageSize Tamanho da página.
+	 */
+	void restrict(QueryMetadata metadata, Keyset after, long pageSize) {
+		metadata.clearOrderBy();
+		for (OrderSpecifier<?> order : orderBy) {
+			metadata.addOrderBy(order);
+		}
+		if (after != null) {
+			metadata.addWhere(createSeekPredicate(after.getValues()));
+		}
+		metadata.setModifiers(new QueryModifiers(pageSize + 1, null));
+	}
+
+	private Predicate createSeekPredicate(List<Object> values) {
+		if (values.size() != keys.size()) {
+			throw new QbeException("O token de paginação possui " + values.size() + " chaves, porém a ordenação da consulta possui "
+					+ keys.size() + ".");
+		}
+
+		// null: nenhum registro posterior
+		int last = keys.size() - 1;
+		Predicate seek = after(last, values.get(last));
+		for (int i = last - 1; i >= 0; i--) {
+			Predicate equal = seek != null ? ExpressionUtils.and(equal(i, values.get(i)), seek) : null;
+			seek = ExpressionUtils.or(after(i, values.get(i)), equal);
+		}
+		if (seek == null) {
+			throw new QbeException("Token de paginação inválido: " + values);
+		}
+
+		Object first = values.get(0);
+		if (first == null) {
+			return seek;
+		}
+		Ops lowerBound = directions.get(0) == Order.ASC ? Ops.GOE : Ops.LOE;
+		Predicate bound = ExpressionUtils.predicate(lowerBound, keys.get(0), ConstantImpl.create(first));
+		if (Boolean.FALSE.equals(nullsFirst.get(0))) {
+			bound = ExpressionUtils.or(bound, ExpressionUtils.predicate(Ops.IS_NULL, keys.get(0)));
+		}
+		return ExpressionUtils.and(bound, seek);
+	}
+
+	/**
+	 * @return Predicado dos registros posteriores ao valor na chave informada, ou null quando não há valores
+	 * posteriores (valor nulo com os nulos ao final da ordenação).
+	 */
+	private Predicate after(int index, Object value) {
+		Expression<?> key = keys.get(index);
+		Boolean first = nullsFirst.get(index);
+		if (value == null) {
+			return Boolean.TRUE.equals(first) ? ExpressionUtils.predicate(Ops.IS_NOT_NULL, key) : null;
+		}
+		Ops operator = directions.get(index) == Order.ASC ? Ops.GT : Ops.LT;
+		Predicate after = ExpressionUtils.predicate(operator, key, ConstantImpl.create(value));
+		if (Boolean.FALSE.equals(first)) {
+			after = ExpressionUtils.or(after, ExpressionUtils.predicate(Ops.IS_NULL, key));
+		}
+		return after;
+	}
+
+	/**
+	 * @return Predicado dos registros com o mesmo valor na chave informada.
+	 */
+	private Predicate equal(int index, Object value) {
+		if (value == null) {
+			return ExpressionUtils.predicate(Ops.IS_NULL, keys.get(index));
+		}
+		return ExpressionUtils.predicate(Ops.EQ, keys.get(index), ConstantImpl.create(value));
+	}
+
+	/**
+	 * @param root Projeção da entidade.
+	 * @return Projeção da consulta: a entidade seguida das chaves de ordenação.
+	 */
+	Expression<?>[] projection(Expression<?> root) {
+		Expression<?>[] projection = new Expression<?>[keys.size() + 1];
+		projection[0] = root;
+		for (int i = 0; i < keys.size(); i++) {
+			projection[i + 1] = keys.get(i);
+		}
+		return projection;
+	}
+
+	/**
+	 * @param last Último registro da página.
+	 * @return Token para a consulta da próxima página.
+	 */
+	Keyset next(Tuple last) {
+		Object[] values = new Object[keys.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = last.get(i + 1, Object.class);
+		}
+		return Keyset.of(values);
+	}
+
+}
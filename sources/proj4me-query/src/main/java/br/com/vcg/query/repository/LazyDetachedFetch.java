@@ -0,0 +1,204 @@
+package br.com.vcg.query.repository;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import br.com.vcg.query.exception.QbeException;
+
+/**
+ * Fetch desatachado sob demanda (ver {@link br.com.vcg.query.api.DetachedFetchFilter#lazy()}): cada entidade do
+ * resultado recebe uma coleção substituta e, no primeiro acesso a qualquer uma delas, a coleção é carregada para
+ * todas as entidades do resultado, em uma única execução do fetch desatachado (por bloco da operação IN), como o
+ * SUBSELECT do Hibernate, porém restrito ao resultado da consulta do {@link QbeRepository}.
+ * <br/>
+ * Após o carregamento, as entidades passam a referenciar a coleção carregada e as substitutas delegam a ela.
+ * O EntityManager da consulta deve estar aberto no momento do primeiro acesso.
+ *
+ * @author augusto
+ */
+final class LazyDetachedFetch {
+
+	private final DetachedFetchesProcessor processor;
+
+	private boolean loaded;
+
+	LazyDetachedFetch(DetachedFetchesProcessor processor) {
+		this.processor = processor;
+	}
+
+	/**
+	 * @param owner Entidade que contém a coleção.
+	 * @return A coleção (ou Map) substituta, compatível com o tipo utilizado no mapeamento.
+	 */
+	Object placeholder(Object owner) {
+		switch (processor.getDescriptor().getCollectionKind()) {
+		case LIST:
+			return new LazyList(owner);
+		case SET:
+			return new LazySet(owner);
+		default:
+			return new LazyMap(owner);
+		}
+	}
+
+	/**
+	 * Realiza o fetch desatachado para todas as entidades do resultado, uma única vez.
+	 */
+	synchronized void load() {
+		if (!loaded) {
+			processor.fetchNow();
+			loaded = true;
+		}
+	}
+
+	/**
+	 * @return A coleção (ou Map) carregada para a entidade.
+	 */
+	Object loaded(Object owner) {
+		load();
+		Object loaded = processor.getDescriptor().getCollection(owner);
+		if (loaded instanceof Placeholder) {
+			throw new QbeException("A coleção " + processor.getDescriptor() + " não foi carregada.");
+		}
+		return loaded;
+	}
+
+	/**
+	 * Coleção substituta, que delega à coleção carregada.
+	 */
+	private interface Placeholder {
+	}
+
+	private final class LazyList extends AbstractList<Object> implements Placeholder {
+
+		private final Object owner;
+
+		private List<Object> delegate;
+
+		LazyList(Object owner) {
+			this.owner = owner;
+		}
+
+		@SuppressWarnings("unchecked")
+		private List<Object> delegate() {
+			if (delegate == null) {
+				delegate = (List<Object>) loaded(owner);
+			}
+			return delegate;
+		}
+
+		@Override
+		public Object get(int index) {
+			return delegate().get(index);
+		}
+
+		@Override
+		public int size() {
+			return delegate().size();
+		}
+
+		@Override
+		public Object set(int index, Object element) {
+			return delegate().set(index, element);
+		}
+
+		@Override
+		public void add(int index, Object element) {
+			delegate().add(index, element);
+		}
+
+		@Override
+		public Object remove(int index) {
+			return delegate().remove(index);
+		}
+	}
+
+	private final class LazySet extends AbstractSet<Object> implements Placeholder {
+
+		private final Object owner;
+
+		private Set<Object> delegate;
+
+		LazySet(Object owner) {
+			this.owner = owner;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Set<Object> delegate() {
+			if (delegate == null) {
+				delegate = (Set<Object>) loaded(owner);
+			}
+			return delegate;
+		}
+
+		@Override
+		public Iterator<Object> iterator() {
+			return delegate().iterator();
+		}
+
+		@Override
+		public int size() {
+			return delegate().size();
+		}
+
+		@Override
+		public boolean add(Object element) {
+			return delegate().add(element);
+		}
+
+		@Override
+		public boolean contains(Object element) {
+			return delegate().contains(element);
+		}
+
+		@Override
+		public boolean remove(Object element) {
+			return delegate().remove(element);
+		}
+	}
+
+	private final class LazyMap extends AbstractMap<Object, Object> implements Placeholder {
+
+		private final Object owner;
+
+		private Map<Object, Object> delegate;
+
+		LazyMap(Object owner) {
+			this.owner = owner;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Map<Object, Object> delegate() {
+			if (delegate == null) {
+				delegate = (Map<Object, Object>) loaded(owner);
+			}
+			return delegate;
+		}
+
+		@Override
+		public Set<Map.Entry<Object, Object>> entrySet() {
+			return delegate().entrySet();
+		}
+
+		@Override
+		public Object get(Object key) {
+			return delegate().get(key);
+		}
+
+		@Override
+		public Object put(Object key, Object value) {
+			return delegate().put(key, value);
+		}
+
+		@Override
+		public Object remove(Object key) {
+			return delegate().remove(key);
+		}
+	}
+
+}
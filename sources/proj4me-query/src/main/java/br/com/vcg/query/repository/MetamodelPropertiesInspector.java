@@ -0,0 +1,105 @@
+package br.com.vcg.query.repository;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+
+import org.hibernate.proxy.HibernateProxy;
+
+import br.com.vcg.query.repository.metadata.ExampleMetadata;
+import br.com.vcg.query.repository.metadata.MetamodelExampleRegistry;
+
+/**
+ * Extrator das propriedades preenchidas de um objeto exemplo baseado no metamodelo JPA da unidade de persistência,
+ * ao invés da leitura das anotações das classes. Os atributos são classificados de acordo com o seu mapeamento
+ * (básico, associação simples, coleção ou chave composta) e os identificadores são recuperados através
+ * do {@link PersistenceUnitUtil}, sem inicializar proxies.
+ * <br/>
+ * Classes não gerenciadas pela unidade de persistência continuam sendo analisadas pelas anotações.
+ * @author augusto
+ */
+public class MetamodelPropertiesInspector extends ExamplePropertiesInspector {
+
+	/** Inspetores (sem estado e thread-safe) por unidade de persistência. */
+	private static final ConcurrentMap<EntityManagerFactory, MetamodelPropertiesInspector> INSPECTORS =
+			new ConcurrentHashMap<EntityManagerFactory, MetamodelPropertiesInspector>();
+
+	/** Metadados pré-calculados de todos os tipos gerenciados. */
+	private final Map<Class<?>, ExampleMetadata> registry;
+
+	private final PersistenceUnitUtil persistenceUnitUtil;
+
+	/**
+	 * @param emf EntityManagerFactory da unidade de persistência.
+	 */
+	public MetamodelPropertiesInspector(EntityManagerFactory emf) {
+		this.registry = MetamodelExampleRegistry.of(emf);
+		this.persistenceUnitUtil = emf.getPersistenceUnitUtil();
+	}
+
+	/**
+	 * @param emf EntityManagerFactory da unidade de persistência.
+	 * @return O inspetor compartilhado pelas consultas da unidade de persistência.
+	 */
+	public static MetamodelPropertiesInspector of(EntityManagerFactory emf) {
+		MetamodelPropertiesInspector inspector = INSPECTORS.get(emf);
+		if (inspector == null) {
+			// descarta os inspetores de EntityManagerFactories que já foram fechados
+			for (Iterator<EntityManagerFactory> it = INSPECTORS.keySet().iterator(); it.hasNext();) {
+				if (!it.next().isOpen()) {
+					it.remove();
+				}
+			}
+			inspector = new MetamodelPropertiesInspector(emf);
+			MetamodelPropertiesInspector previous = INSPECTORS.putIfAbsent(emf, inspector);
+			inspector = previous != null ? previous : inspector;
+		}
+		return inspector;
+	}
+
+	@Override
+	protected ExampleMetadata getMetadata(Class<?> type) {
+		// subclasses de tipos gerenciados (ex: proxies) utilizam os metadados do tipo gerenciado
+		for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+			ExampleMetadata metadata = registry.get(clazz);
+			if (metadata != null) {
+				return metadata;
+			}
+		}
+		return super.getMetadata(type);
+	}
+
+	@Override
+	protected Object getSimplePrimaryKey(Object entity) {
+		ExampleMetadata metadata = getMetadata(entity.getClass());
+		if (metadata.getSimpleId() == null) {
+			return null;
+		}
+		return isEntity(entity, metadata) ? persistenceUnitUtil.getIdentifier(entity) : metadata.getSimplePrimaryKey(entity);
+	}
+
+	@Override
+	protected boolean isIdFilled(Object entidade) throws Exception {
+		if (entidade == null) {
+			return false;
+		}
+		ExampleMetadata metadata = getMetadata(entidade.getClass());
+		return isEntity(entidade, metadata) ? persistenceUnitUtil.getIdentifier(entidade) != null : super.isIdFilled(entidade);
+	}
+
+	/**
+	 * @return true se o objeto é uma entidade (ou proxy) de um tipo gerenciado que possui identificador. Subclasses
+	 * não mapeadas de uma entidade (ex: classes utilizadas apenas como exemplo) não são reconhecidas pelo
+	 * {@link PersistenceUnitUtil}.
+	 */
+	private boolean isEntity(Object entity, ExampleMetadata metadata) {
+		return (entity.getClass() == metadata.getType() || entity instanceof HibernateProxy)
+				&& registry.get(metadata.getType()) == metadata
+				&& (metadata.getSimpleId() != null || metadata.getCompositeId() != null);
+	}
+
+}
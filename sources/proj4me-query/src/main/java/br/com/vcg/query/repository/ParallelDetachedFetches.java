@@ -0,0 +1,139 @@
+package br.com.vcg.query.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import br.com.vcg.query.exception.QbeException;
+
+/**
+ * Execução paralela dos fetches desatachados de uma consulta: cada coleção é dividida em blocos (operação IN) e
+ * os blocos de todas as coleções são consultados por, no máximo, <code>parallelism</code> tarefas simultâneas.
+ * Cada tarefa utiliza um EntityManager próprio, somente leitura, durante toda a sua execução.
+ * <br/>
+ * Os resultados são guardados na posição do bloco correspondente e associados às entidades da consulta principal
+ * apenas na thread do chamador, após o término de todas as tarefas, na ordem das coleções e dos blocos: o
+ * resultado não depende da ordem de execução das tarefas.
+ *
+ * @author augusto
+ */
+class ParallelDetachedFetches {
+
+	private final EntityManagerFactory entityManagerFactory;
+
+	private final Executor executor;
+
+	private final int parallelism;
+
+	ParallelDetachedFetches(EntityManagerFactory entityManagerFactory, Executor executor, int parallelism) {
+		this.entityManagerFactory = entityManagerFactory;
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param processors Processadores dos fetches desatachados, sobre o resultado da consulta principal.
+	 */
+	void fetch(List<DetachedFetchesProcessor> processors) {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		List<List<Object>> restrictions = new ArrayList<List<Object>>(processors.size());
+		for (DetachedFetchesProcessor processor : processors) {
+			if (processor.isLazy()) {
+				// sob demanda: apenas as coleções substitutas
+				processor.fetch();
+				restrictions.add(null);
+				continue;
+			}
+			List<Object> restriction = processor.resolveRestrictionValues();
+			restrictions.add(restriction);
+			if (restriction.isEmpty()) {
+				continue;
+			}
+			// metamodelo lido na thread do chamador: as tarefas não acessam o EntityManager da consulta principal
+			processor.getParentIdName();
+			if (processor.isSubselect()) {
+				// uma única consulta, sem blocos
+				chunks.add(new Chunk(processor, null));
+			} else {
+				if (processor.isTemporaryTable()) {
+					processor.logInFallback("os fetches paralelos utilizam EntityManagers próprios, sem transação");
+				}
+				for (List<Object> values : processor.partition(restriction)) {
+					chunks.add(new Chunk(processor, values));
+				}
+			}
+		}
+
+		execute(chunks);
+
+		// associação determinística: ordem das coleções e dos blocos
+		int position = 0;
+		for (int i = 0; i < processors.size(); i++) {
+			DetachedFetchesProcessor processor = processors.get(i);
+			List<List<Object>> fetched = new ArrayList<List<Object>>();
+			while (position < chunks.size() && chunks.get(position).processor == processor) {
+				fetched.add(chunks.get(position++).result);
+			}
+			if (!fetched.isEmpty()) {
+				processor.updateEntitiesWithFetchResult(restrictions.get(i), fetched, true);
+			}
+		}
+	}
+
+	private void execute(final List<Chunk> chunks) {
+		final AtomicInteger next = new AtomicInteger();
+		CompletableFuture<?>[] workers = new CompletableFuture<?>[Math.min(parallelism, chunks.size())];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = CompletableFuture.runAsync(new Runnable() {
+				@Override
+				public void run() {
+					EntityManager entityManager = AsyncQbeRepository.createReadOnlyEntityManager(entityManagerFactory);
+					try {
+						for (int index = next.getAndIncrement(); index < chunks.size(); index = next.getAndIncrement()) {
+							Chunk chunk = chunks.get(index);
+							chunk.result = chunk.values == null ? chunk.processor.fetchBySubselect(entityManager)
+									: chunk.processor.fetch(entityManager, chunk.values);
+							entityManager.clear();
+						}
+					} finally {
+						entityManager.close();
+					}
+				}
+			}, executor);
+		}
+
+		try {
+			CompletableFuture.allOf(workers).join();
+		} catch (CompletionException e) {
+			// interrompe as tarefas ainda não iniciadas
+			next.set(chunks.size());
+			throw new QbeException("Falha ao realizar os fetches desatachados em paralelo.", e.getCause());
+		}
+	}
+
+	/**
+	 * Bloco de entidades da consulta principal, para o fetch de uma coleção.
+	 */
+	private static final class Chunk {
+
+		private final DetachedFetchesProcessor processor;
+
+		/** Identificadores do bloco, ou null na estratégia subselect. */
+		private final List<Object> values;
+
+		/** Preenchido pela tarefa que executou o fetch do bloco. */
+		private List<Object> result;
+
+		Chunk(DetachedFetchesProcessor processor, List<Object> values) {
+			this.processor = processor;
+			this.values = values;
+		}
+	}
+
+}
@@ -0,0 +1,353 @@
+package br.com.vcg.query.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Expressions;
+
+import br.com.vcg.query.extension.ParamExample;
+import br.com.vcg.query.repository.operator.CustomOperators;
+import br.com.vcg.query.util.PropertyAccessor;
+
+/**
+ * Predicado com {@link ParamExample} "compilado": a posição de cada ParamExample na árvore de expressões, o
+ * predicado que deve ser descartado quando o valor correspondente no exemplo for null e a propriedade do
+ * exemplo de onde o valor é lido. A compilação é feita uma única vez por filtro e mantida no próprio filtro
+ * (ver {@link CompiledFilter}), sem cache global.
+ * <br/>
+ * Em cada execução, {@link #bind(Predicate, Object, QueryMetadata, Set)} lê uma única vez o valor de cada ParamExample no
+ * exemplo. A árvore reconstruída (apenas os ramos que contêm ParamExample: os predicados sem valor são substituídos
+ * por uma expressão neutra e os parâmetros recebem o tipo do valor encontrado) depende apenas de quais valores são
+ * null e dos seus tipos, portanto é mantida por variante e reutilizada: nas execuções seguintes, apenas os valores
+ * dos parâmetros são registrados.
+ *
+ * @author augusto
+ */
+public final class ParamExamplePredicate {
+
+	/** Predicado sem ParamExample: não há o que processar. */
+	static final ParamExamplePredicate NONE = new ParamExamplePredicate(null, null, Collections.<Slot>emptyList());
+
+	/** Quantidade máxima de variantes mantidas (combinações de valores null e tipos dos valores). */
+	private static final int MAX_VARIANTS = 64;
+
+	/** Predicado compilado. */
+	private final Predicate source;
+
+	/** Espelho da árvore, apenas com os ramos que contêm ParamExample. */
+	private final Node root;
+
+	private final List<Slot> slots;
+
+	/** Árvores reconstruídas do predicado, por variante. */
+	private final ConcurrentMap<Variant, Bound> variants = new ConcurrentHashMap<Variant, Bound>();
+
+	private ParamExamplePredicate(Predicate source, Node root, List<Slot> slots) {
+		this.source = source;
+		this.root = root;
+		this.slots = slots;
+	}
+
+	/**
+	 * Compila o predicado. O resultado deve ser mantido pelo chamador (ex: {@link CompiledFilter}) e reutilizado
+	 * enquanto o predicado não for alterado.
+	 * @param predicate Predicado (where) da consulta.
+	 * @return O predicado compilado.
+	 */
+	public static ParamExamplePredicate of(Predicate predicate) {
+		List<Slot> slots = new ArrayList<Slot>();
+		Node root = compile(predicate, null, slots);
+		return root == null ? NONE : new ParamExamplePredicate(predicate, root, Collections.unmodifiableList(slots));
+	}
+
+	/**
+	 * @param disposable Nó do predicado mais próximo que contém a expressão.
+	 * @return O nó espelho da expressão, ou null caso ela não contenha ParamExample.
+	 */
+	private static Node compile(Expression<?> expr, Node disposable, List<Slot> slots) {
+		if (expr instanceof ParamExample) {
+			if (disposable == null) {
+				// fora de um predicado não há como associar o parâmetro a uma propriedade do exemplo
+				return null;
+			}
+			if (disposable.property == null) {
+				return null;
+			}
+			Node node = new Node(null);
+			node.slot = new Slot(slots.size(), disposable.property, disposable);
+			slots.add(node.slot);
+			return node;
+		}
+		if (!(expr instanceof Operation)) {
+			// subconsultas e templates não são analisados
+			return null;
+		}
+
+		Operation<?> operation = (Operation<?>) expr;
+		Node node = new Node(operation.getOperator());
+		if (expr instanceof Predicate) {
+			Path<?> path = findPath(operation);
+			node.property = path == null ? null : path.getMetadata().getName();
+			disposable = node;
+		}
+		for (int i = 0; i < operation.getArgs().size(); i++) {
+			Node child = compile(operation.getArg(i), disposable, slots);
+			if (child != null) {
+				node.children.put(i, child);
+			}
+		}
+		return node.children.isEmpty() ? null : node;
+	}
+
+	/**
+	 * @return O primeiro {@link Path} encontrado na operação, que determina a propriedade do exemplo.
+	 */
+	private static Path<?> findPath(Operation<?> operation) {
+		for (Expression<?> arg : operation.getArgs()) {
+			if (arg instanceof Path) {
+				return (Path<?>) arg;
+			}
+			if (arg instanceof Operation && !(arg instanceof Predicate)) {
+				Path<?> path = findPath((Operation<?>) arg);
+				if (path != null) {
+					return path;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true se o predicado não contém ParamExample.
+	 */
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	/**
+	 * Lê os valores dos ParamExample no exemplo, registrando-os como parâmetros da execução.
+	 * @param predicate Predicado compilado (ou equivalente).
+	 * @param example Exemplo da execução (pode ser null).
+	 * @param metadata Metadados da execução, que receberão os valores dos parâmetros (o filtro não é alterado).
+	 * @param customPredicates Recebe as propriedades do exemplo já utilizadas (desconsideradas na análise do exemplo).
+	 * @return O predicado sem as operações cujo valor no exemplo é null, e com os parâmetros tipados.
+	 */
+	public Predicate bind(Predicate predicate, Object example, QueryMetadata metadata, Set<String> customPredicates) {
+		if (isEmpty()) {
+			return predicate;
+		}
+
+		Object[] values = new Object[slots.size()];
+		for (Slot slot : slots) {
+			values[slot.index] = slot.read(example);
+		}
+
+		Variant variant = new Variant(values);
+		Bound bound = predicate == source ? variants.get(variant) : null;
+		if (bound == null) {
+			ParamExample<?>[] params = new ParamExample<?>[slots.size()];
+			bound = new Bound((Predicate) rebuild(predicate, root, alwaysTrue(), new Binding(values, params)), params);
+			if (predicate == source && variants.size() < MAX_VARIANTS) {
+				variants.putIfAbsent(variant, bound);
+			}
+		}
+		bound.register(values, slots, metadata, customPredicates);
+		return bound.predicate;
+	}
+
+	/**
+	 * @param neutral Expressão que, no lugar de um predicado descartado, não altera o resultado do predicado pai.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private Expression<?> rebuild(Expression<?> expr, Node node, BooleanExpression neutral, Binding binding) {
+		if (node.slot != null) {
+			Object value = binding.values[node.slot.index];
+			ParamExample param = new ParamExample(value.getClass(), (ParamExpression) expr);
+			binding.params[node.slot.index] = param;
+			return param;
+		}
+		if (node.isDisposed(binding.values)) {
+			return neutral;
+		}
+
+		BooleanExpression childNeutral = neutral;
+		if (node.operator == Ops.AND) {
+			childNeutral = alwaysTrue();
+		} else if (node.operator == Ops.OR) {
+			childNeutral = alwaysTrue().not();
+		} else if (node.operator == Ops.NOT) {
+			childNeutral = neutral.not();
+		}
+
+		Operation<?> operation = (Operation<?>) expr;
+		List<Expression<?>> args = new ArrayList<Expression<?>>(operation.getArgs());
+		for (Map.Entry<Integer, Node> child : node.children.entrySet()) {
+			args.set(child.getKey(), rebuild(args.get(child.getKey()), child.getValue(), childNeutral, binding));
+		}
+		if (expr instanceof Predicate) {
+			return ExpressionUtils.predicate(operation.getOperator(), args.toArray(new Expression[args.size()]));
+		}
+		return ExpressionUtils.operation(operation.getType(), operation.getOperator(), args.toArray(new Expression[args.size()]));
+	}
+
+	/**
+	 * Operação que implementa um predicado do tipo "1=1", utilizada para neutralizar um nó da árvore (não é
+	 * simples remover um nó da árvore de expressões do QueryDsl).
+	 */
+	private static BooleanExpression alwaysTrue() {
+		return Expressions.predicate(CustomOperators.ALWAYS_TRUE);
+	}
+
+	/**
+	 * Valores de uma execução, na reconstrução da árvore.
+	 */
+	private static final class Binding {
+
+		private final Object[] values;
+
+		/** Recebe o parâmetro criado para cada ParamExample mantido na árvore. */
+		private final ParamExample<?>[] params;
+
+		Binding(Object[] values, ParamExample<?>[] params) {
+			this.values = values;
+			this.params = params;
+		}
+	}
+
+	/**
+	 * Variante da árvore reconstruída: os valores null e os tipos dos valores dos ParamExample.
+	 */
+	private static final class Variant {
+
+		private final Class<?>[] types;
+
+		private final int hashCode;
+
+		Variant(Object[] values) {
+			types = new Class<?>[values.length];
+			for (int i = 0; i < values.length; i++) {
+				types[i] = values[i] == null ? null : values[i].getClass();
+			}
+			hashCode = Arrays.hashCode(types);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Variant && Arrays.equals(types, ((Variant) obj).types);
+		}
+	}
+
+	/**
+	 * Árvore reconstruída de uma variante e os parâmetros que ela contém (null para os ParamExample descartados).
+	 */
+	private static final class Bound {
+
+		private final Predicate predicate;
+
+		private final ParamExample<?>[] params;
+
+		Bound(Predicate predicate, ParamExample<?>[] params) {
+			this.predicate = predicate;
+			this.params = params;
+		}
+
+		/**
+		 * Registra os valores dos parâmetros mantidos na árvore e as propriedades do exemplo correspondentes.
+		 */
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		void register(Object[] values, List<Slot> slots, QueryMetadata metadata, Set<String> customPredicates) {
+			for (int i = 0; i < params.length; i++) {
+				if (params[i] != null) {
+					metadata.setParam((ParamExample) params[i], values[i]);
+					customPredicates.add(slots.get(i).property);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Nó do espelho da árvore de expressões.
+	 */
+	private static final class Node {
+
+		private final Object operator;
+
+		/** Filhos (por índice do argumento) que contêm ParamExample. */
+		private final Map<Integer, Node> children = new TreeMap<Integer, Node>();
+
+		/** Propriedade do exemplo associada aos ParamExample deste predicado. */
+		private String property;
+
+		/** Preenchido quando o nó é um ParamExample. */
+		private Slot slot;
+
+		/** ParamExample que, sem valor no exemplo, descartam este predicado. */
+		private final List<Slot> dependents = new ArrayList<Slot>(1);
+
+		Node(Object operator) {
+			this.operator = operator;
+		}
+
+		boolean isDisposed(Object[] values) {
+			for (Slot dependent : dependents) {
+				if (values[dependent.index] == null) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * ParamExample e a propriedade do exemplo de onde o seu valor é lido.
+	 */
+	private static final class Slot {
+
+		private final int index;
+
+		private final String property;
+
+		/** Último acessor utilizado, normalmente a classe do exemplo se repete. */
+		private volatile PropertyAccessor accessor;
+
+		Slot(int index, String property, Node disposable) {
+			this.index = index;
+			this.property = property;
+			disposable.dependents.add(this);
+		}
+
+		Object read(Object example) {
+			if (example == null) {
+				return null;
+			}
+			PropertyAccessor current = accessor;
+			if (current == null || current.getOwnerType() != example.getClass()) {
+				current = PropertyAccessor.of(example.getClass(), property);
+				accessor = current;
+			}
+			return current.get(example);
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package br.com.vcg.query.repository;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.CollectionEntry;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+
+/**
+ * Inicializa, no próprio lugar, a coleção do Hibernate ({@link PersistentCollection}: PersistentBag, PersistentSet,
+ * PersistentList, PersistentMap) de uma entidade gerenciada, com os elementos carregados pelo fetch desatachado.
+ * <br/>
+ * É utilizado o mesmo caminho da carga de uma coleção a partir do cache de segundo nível: os elementos são
+ * informados pelos seus identificadores ({@link PersistentCollection#initializeFromCache(CollectionPersister, Serializable, Object)}),
+ * resolvidos no contexto de persistência, e o estado da coleção (snapshot) é registrado pelo Hibernate. A entidade
+ * permanece gerenciada, a coleção não fica "suja" e o controle de orphanRemoval é mantido, sem necessidade de
+ * remover a entidade do contexto de persistência ou de um merge posterior.
+ *
+ * @author augusto
+ */
+final class PersistentCollectionInitializer {
+
+	private final SessionImplementor session;
+
+	PersistentCollectionInitializer(EntityManager entityManager) {
+		this.session = entityManager.unwrap(SessionImplementor.class);
+	}
+
+	/**
+	 * @param owner Entidade que contém a coleção.
+	 * @param current Valor atual da coleção na entidade.
+	 * @param fetched Elementos carregados (coleção ou Map).
+	 * @return true se a coleção foi inicializada, ou já estava inicializada (o seu conteúdo é mantido). false se
+	 * não é possível a inicialização no próprio lugar: a entidade ou os elementos não são gerenciados por este
+	 * EntityManager (ex: execução paralela), ou a coleção não é uma coleção do Hibernate.
+	 */
+	boolean initialize(Object owner, Object current, Object fetched) {
+		if (!(current instanceof PersistentCollection) || !session.contains(owner)) {
+			return false;
+		}
+		PersistentCollection collection = (PersistentCollection) current;
+		if (collection.wasInitialized()) {
+			return true;
+		}
+		PersistenceContext persistenceContext = session.getPersistenceContext();
+		CollectionEntry entry = persistenceContext.getCollectionEntry(collection);
+		if (entry == null || entry.getLoadedPersister() == null) {
+			return false;
+		}
+		CollectionPersister persister = entry.getLoadedPersister();
+
+		Serializable[] state;
+		if (fetched instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) fetched;
+			state = new Serializable[map.size() * 2];
+			int i = 0;
+			for (Map.Entry<?, ?> element : map.entrySet()) {
+				if (!isManaged(element.getValue())) {
+					return false;
+				}
+				state[i++] = persister.getIndexType().disassemble(element.getKey(), session, owner);
+				state[i++] = persister.getElementType().disassemble(element.getValue(), session, owner);
+			}
+		} else {
+			Collection<?> elements = (Collection<?>) fetched;
+			state = new Serializable[elements.size()];
+			int i = 0;
+			for (Object element : elements) {
+				if (!isManaged(element)) {
+					return false;
+				}
+				state[i++] = persister.getElementType().disassemble(element, session, owner);
+			}
+		}
+
+		collection.initializeFromCache(persister, state, owner);
+		collection.afterInitialize();
+		entry.postInitialize(collection);
+		return true;
+	}
+
+	/**
+	 * @return true se o elemento (entidade) pertence a este contexto de persistência: a resolução do seu
+	 * identificador não executa consultas.
+	 */
+	private boolean isManaged(Object element) {
+		return element != null && session.contains(element);
+	}
+
+}
@@ -4,6 +4,7 @@ import java.lang.reflect.Field;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import br.com.vcg.query.repository.metadata.ExampleProperty;
 import br.com.vcg.query.util.StringUtil;
 
 /**
@@ -14,6 +15,7 @@ public class Property {
 
     private Logger log = Logger.getLogger(Property.class.getName());
 	private Field field;
+	private ExampleProperty metadata;
 	private Object value;
 	private Property nestedName;
 	private String dotNotationCache;
@@ -29,6 +31,17 @@ public class Property {
 		this.nestedName = nestedProperty;
 		this.value = value;
 	}
+
+	/**
+	 * Construtor.
+	 * @param metadata Metadados (em cache) da propriedade.
+	 * @param nestedProperty Campo que representa o campo pai de onde este (this.campo) derivou.
+	 * @param value Valor da propriedade.
+	 */
+	public Property(ExampleProperty metadata, Property nestedProperty, Object value) {
+		this(metadata.getField(), nestedProperty, value);
+		this.metadata = metadata;
+	}
 	
 	/**
 	 * Cria a notação em "dot notation" para representar a propriedade. 
@@ -36,26 +49,43 @@ public class Property {
 	 */
 	public String generateDotNotation() {
 		if (StringUtil.isStringEmpty(dotNotationCache)) {
-			dotNotationCache = generate(field, nestedName);
+			dotNotationCache = generate(getName(), nestedName);
 		}
 		return dotNotationCache;
 	}
 	
-	private String generate(Field prop, Property nested) {
+	private String generate(String prop, Property nested) {
 		String s = "";
 		if (nested != null) {
-			s += generate(nested.getField(), nested.getNestedName());
+			s += generate(nested.getName(), nested.getNestedName());
 			s += ".";
 		}
-		s += prop.getName();
+		s += prop;
 		
 		return s;
 	}
 
+	/**
+	 * @return Nome da propriedade (sem o caminho da propriedade pai).
+	 */
+	public String getName() {
+		return metadata != null ? metadata.getName() : field.getName();
+	}
+
+	/**
+	 * @return Atributo que representa a propriedade, ou null quando a entidade é mapeada por métodos (property access).
+	 */
 	public Field getField() {
 		return field;
 	}
 
+	/**
+	 * @return Metadados da propriedade, ou null se esta foi construída diretamente a partir de um {@link Field}.
+	 */
+	public ExampleProperty getMetadata() {
+		return metadata;
+	}
+
 	public Property getNestedName() {
 		return nestedName;
 	}
@@ -1,30 +1,55 @@
 package br.com.vcg.query.repository;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.QueryModifiers;
 import com.querydsl.core.Tuple;
-import com.querydsl.core.support.ReplaceVisitor;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Ops;
 import com.querydsl.core.types.ParamExpression;
 import com.querydsl.core.types.Path;
 import com.querydsl.core.types.Predicate;
-import com.querydsl.core.types.dsl.ComparablePath;
-import com.querydsl.core.types.dsl.StringPath;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.Wildcard;
 import com.querydsl.jpa.impl.JPAQuery;
 
 import br.com.vcg.query.api.DetachedFetchFilter;
+import br.com.vcg.query.api.Keyset;
+import br.com.vcg.query.api.KeysetPage;
+import br.com.vcg.query.api.Page;
 import br.com.vcg.query.api.QueryFilter;
 import br.com.vcg.query.exception.QbeException;
 import br.com.vcg.query.repository.operator.CustomTemplates;
-import br.com.vcg.query.repository.visitor.ParamExtractorVisitor;
-import br.com.vcg.query.repository.visitor.ParamSettingVisitor;
-import br.com.vcg.query.repository.visitor.ReplaceVisitorParamExample;
+import br.com.vcg.query.repository.plan.PlanCachingJPAQuery;
+import br.com.vcg.query.repository.plan.QueryPlanCache;
 import br.com.vcg.query.repository.visitor.VisitorContext;
+import br.com.vcg.query.util.PropertyAccessor;
 import br.com.vcg.query.util.ReflectionUtil;
 
 /**
@@ -34,9 +59,32 @@ import br.com.vcg.query.util.ReflectionUtil;
  */
 public class QbeContextProcessor<ENTITY> {
 
+	private Logger logger = Logger.getLogger(QbeContextProcessor.class.getSimpleName());
+
 	private Set<String> cacheCustomPredicates = new HashSet<String>();
 	private QueryFilter<? extends ENTITY> filter;
 	private EntityManager entityManager;
+	
+	/**
+	 * Metadados desta execução: cópia dos metadados do filtro com os predicados processados (ParamExample e
+	 * exemplo). O filtro nunca é alterado, portanto pode ser executado várias vezes (ou por várias threads).
+	 */
+	private QueryMetadata metadata;
+	
+	/** Exemplo desta execução, no lugar do exemplo do filtro (ver {@link QueryTemplate}). */
+	private Object example;
+	
+	/** Paginação desta execução, no lugar da paginação do filtro (ver {@link QueryTemplate}). */
+	private QueryModifiers modifiers;
+	
+	/**
+	 * Executor dos fetches desatachados paralelos. Ver {@link QueryFilter#parallelDetachedFetches(int)}. Sem
+	 * executor, os fetches são sequenciais.
+	 */
+	private Executor detachedFetchExecutor;
+	
+	/** Executor da contagem concorrente de {@link #findPage()}, ou null para a contagem sequencial. */
+	private Executor countExecutor;
 
 	public QbeContextProcessor(EntityManager entityManager, QueryFilter<? extends ENTITY> filter) {
 		this.entityManager = entityManager;
@@ -52,15 +100,62 @@ public class QbeContextProcessor<ENTITY> {
     }
     
     public Tuple findValuesBy(Expression<?>...expressions) {
+        return findValuesBy(false, expressions);
+    }    
+
+    /**
+     * @param strict true para verificar se a consulta retorna um único resultado.
+     * @param expressions Projeção.
+     * @return O primeiro resultado (da página configurada no filtro), ou null.
+     * @throws QbeException Em modo estrito, caso a consulta retorne mais de um resultado.
+     */
+    public Tuple findValuesBy(boolean strict, Expression<?>...expressions) {
         processPredicates();
         
-        @SuppressWarnings("unchecked")
-        List<Tuple> result = createJpaQuery()
+        List<Tuple> result = createJpaQuery(createSingleResultMetadata(strict))
         	.select(expressions)
         	.fetch();
-        return result.size() > 0 ? result.get(0) : null;
+        return singleResult(result, strict);
     }    
 
+	/**
+	 * @param strict true para verificar se a consulta retorna um único resultado.
+	 * @return A primeira entidade (da página configurada no filtro), ou null.
+	 * @throws QbeException Em modo estrito, caso a consulta retorne mais de uma entidade.
+	 */
+	public ENTITY findOneBy(boolean strict) {
+		processPredicates();
+		
+		QueryMetadata metadata = createSingleResultMetadata(strict);
+		@SuppressWarnings("unchecked")
+		List<ENTITY> result = (List<ENTITY>) createJpaQuery(metadata).fetch();
+		
+		ENTITY entity = singleResult(result, strict);
+		if (entity != null) {
+			processDetachedFetches(Collections.singletonList(entity), metadata);
+		}
+		return entity;
+	}
+
+	/**
+	 * @param strict true para carregar 2 registros, permitindo identificar se o resultado não é único.
+	 * @return Cópia dos metadados da execução, limitada a 1 (ou 2) registros dentro da página configurada.
+	 */
+	protected QueryMetadata createSingleResultMetadata(boolean strict) {
+		QueryMetadata metadata = getMetadata().clone();
+		long maxResults = strict ? 2L : 1L;
+		Long limit = metadata.getModifiers().getLimit();
+		metadata.setLimit(limit != null && limit < maxResults ? limit : maxResults);
+		return metadata;
+	}
+
+	private static <T> T singleResult(List<T> result, boolean strict) {
+		if (strict && result.size() > 1) {
+			throw new QbeException("A consulta retornou mais de um resultado.");
+		}
+		return result.isEmpty() ? null : result.get(0);
+	}
+
 	public List<ENTITY> findAllBy() {
 		processPredicates();
 		
@@ -72,14 +167,227 @@ public class QbeContextProcessor<ENTITY> {
 		return result;
 	}
 	
+	/**
+	 * Consulta as entidades através de um cursor (forward only), sem materializar todo o resultado. A cada
+	 * <code>fetchSize</code> registros o contexto de persistência é limpo, portanto as entidades já percorridas
+	 * deixam de ser gerenciadas (alterações pendentes devem ser gravadas antes da consulta).
+	 * <br/>
+	 * O {@link Stream} deve ser fechado (ex: try-with-resources) para liberar o cursor, caso não seja
+	 * percorrido até o final.
+	 * @param fetchSize Número de registros obtidos do banco de dados por vez (JDBC fetch size), e
+	 * intervalo de limpeza do contexto de persistência.
+	 * @return Stream com as entidades.
+	 */
+	public Stream<ENTITY> streamAllBy(int fetchSize) {
+		if (fetchSize <= 0) {
+			throw new QbeException("O tamanho do bloco de leitura deve ser maior que zero: " + fetchSize);
+		}
+		processPredicates();
+		
+		ScrollableResults results = createJpaQuery().createQuery()
+				.unwrap(org.hibernate.query.Query.class)
+				.setFetchSize(fetchSize)
+				.scroll(ScrollMode.FORWARD_ONLY);
+		
+		final ScrollableResultsIterator<ENTITY> iterator = new ScrollableResultsIterator<ENTITY>(results, this, entityManager, fetchSize);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(new Runnable() {
+					@Override
+					public void run() {
+						iterator.close();
+					}
+				});
+	}
+	
+	/**
+	 * Consulta a página configurada no filtro e o número total de registros, processando os predicados uma
+	 * única vez para as duas consultas. A contagem não é executada quando pode ser deduzida da própria página:
+	 * consulta sem paginação ou página incompleta (total = offset + registros da página).
+	 * <br/>
+	 * Com um executor de contagem ({@link #setCountExecutor(Executor)}), a contagem de uma consulta paginada é
+	 * iniciada antes da consulta da página, em outro EntityManager (somente leitura), e as duas consultas são
+	 * executadas simultaneamente; a contagem é cancelada (ou o seu resultado descartado) quando pode ser deduzida
+	 * da página. Como o outro EntityManager não enxerga as alterações ainda não confirmadas, a contagem é
+	 * sequencial, no EntityManager da consulta, quando este participa de uma transação.
+	 * @return Página com as entidades e o total de registros.
+	 */
+	public Page<ENTITY> findPage() {
+		processPredicates();
+		
+		QueryModifiers modifiers = getMetadata().getModifiers();
+		CompletableFuture<Long> concurrentCount = modifiers.getLimit() != null ? submitCount() : null;
+		
+		List<ENTITY> content;
+		try {
+			@SuppressWarnings("unchecked")
+			List<ENTITY> result = (List<ENTITY>) createJpaQuery().fetch();
+			content = result;
+		} catch (RuntimeException e) {
+			if (concurrentCount != null) {
+				concurrentCount.cancel(false);
+			}
+			throw e;
+		}
+		
+		long offset = modifiers.getOffset() != null ? modifiers.getOffset() : 0L;
+		long total;
+		if (modifiers.getLimit() == null || (content.size() < modifiers.getLimit() && (!content.isEmpty() || offset == 0))) {
+			total = offset + content.size();
+			if (concurrentCount != null) {
+				concurrentCount.cancel(false);
+			}
+		} else if (concurrentCount != null) {
+			try {
+				total = concurrentCount.join();
+			} catch (CompletionException e) {
+				throw new QbeException("Falha ao realizar a contagem da página.", e.getCause());
+			}
+		} else {
+			total = createJpaQuery().fetchCount();
+		}
+		
+		processDetachedFetches(content);
+		
+		return new Page<ENTITY>(content, total);
+	}
+	
+	/**
+	 * @return Contagem da consulta em execução no executor de contagem, em um EntityManager somente leitura, ou
+	 * null quando a contagem deve ser sequencial (sem executor ou EntityManager em uma transação).
+	 */
+	private CompletableFuture<Long> submitCount() {
+		if (countExecutor == null || entityManager.isJoinedToTransaction()) {
+			return null;
+		}
+		// cópia dos metadados e fábrica obtidas na thread do chamador
+		final QueryMetadata countMetadata = getMetadata().clone();
+		final EntityManagerFactory entityManagerFactory = entityManager.getEntityManagerFactory();
+		return CompletableFuture.supplyAsync(new Supplier<Long>() {
+			@Override
+			public Long get() {
+				EntityManager countEntityManager = AsyncQbeRepository.createReadOnlyEntityManager(entityManagerFactory);
+				try {
+					return createJpaQuery(countEntityManager, countMetadata).fetchCount();
+				} finally {
+					countEntityManager.close();
+				}
+			}
+		}, countExecutor);
+	}
+	
+	/**
+	 * Consulta uma página através da paginação por chave (keyset) configurada no filtro
+	 * ({@link QueryFilter#fetchKeyset(Long, Keyset)}). A paginação e a ordenação do filtro
+	 * não são alteradas.
+	 * @return Página com as entidades e o token para a próxima página.
+	 */
+	public KeysetPage<ENTITY> findKeysetPage() {
+		processPredicates();
+		
+		long pageSize = filter.getKeysetPageSize() != null ? filter.getKeysetPageSize() : QueryFilter.PAGE_SIZE;
+		QueryMetadata metadata = getMetadata().clone();
+		KeysetPagination keyset = KeysetPagination.of(metadata, filter.getFrom(), entityManager.getMetamodel());
+		return findKeysetPage(metadata, keyset, filter.getKeysetAfter(), pageSize);
+	}
+	
+	/**
+	 * Percorre todo o resultado em blocos, através da paginação por chave (cada bloco é uma consulta
+	 * independente, sem cursor aberto entre os blocos). Os fetches desatachados são executados em cada bloco e
+	 * o contexto de persistência é limpo entre os blocos, portanto apenas as entidades do bloco corrente
+	 * permanecem gerenciadas. A paginação configurada no filtro é desconsiderada.
+	 * @param batchSize Número de entidades por bloco.
+	 * @param consumer Processamento de cada bloco.
+	 */
+	public void forEachBatch(int batchSize, Consumer<List<ENTITY>> consumer) {
+		if (batchSize <= 0) {
+			throw new QbeException("O tamanho do bloco deve ser maior que zero: " + batchSize);
+		}
+		processPredicates();
+		
+		QueryMetadata metadata = getMetadata().clone();
+		KeysetPagination keyset = KeysetPagination.of(metadata, filter.getFrom(), entityManager.getMetamodel());
+		
+		Keyset after = null;
+		do {
+			KeysetPage<ENTITY> batch = findKeysetPage(metadata.clone(), keyset, after, batchSize);
+			if (!batch.getContent().isEmpty()) {
+				consumer.accept(batch.getContent());
+			}
+			after = batch.getNext();
+			if (after != null) {
+				entityManager.clear();
+			}
+		} while (after != null);
+	}
+	
+	/**
+	 * @param metadata Cópia dos metadados da execução, com os predicados processados (será alterada).
+	 * @param keyset Chaves de ordenação da consulta.
+	 * @param after Chaves do último registro da página anterior, ou null.
+	 * @param pageSize Tamanho da página.
+	 * @return Página com as entidades (com os fetches desatachados) e o token para a próxima página.
+	 */
+	private KeysetPage<ENTITY> findKeysetPage(QueryMetadata metadata, KeysetPagination keyset, Keyset after, long pageSize) {
+		keyset.restrict(metadata, after, pageSize);
+		
+		List<Tuple> rows = createJpaQuery(metadata).select(keyset.projection(filter.getProjection())).fetch();
+		
+		List<ENTITY> content = new ArrayList<ENTITY>(rows.size());
+		for (int i = 0; i < rows.size() && i < pageSize; i++) {
+			@SuppressWarnings("unchecked")
+			ENTITY entity = (ENTITY) rows.get(i).get(0, Object.class);
+			content.add(entity);
+		}
+		processDetachedFetches(content, metadata);
+		
+		Keyset next = rows.size() > pageSize ? keyset.next(rows.get(content.size() - 1)) : null;
+		return new KeysetPage<ENTITY>(content, next);
+	}
+	
+	/**
+	 * Realiza os fetches desatachados sobre o resultado informado. Fetches aninhados (grafo de coleções) são
+	 * carregados em largura: cada nível em uma consulta (por bloco da operação IN), a partir dos elementos
+	 * carregados no nível anterior.
+	 */
 	protected void processDetachedFetches(List<ENTITY> result) {
+		processDetachedFetches(result, getMetadata());
+	}
+
+	/**
+	 * @param result Entidades da consulta principal.
+	 * @param resultMetadata Metadados da consulta que retornou exatamente as entidades informadas (ex: com a
+	 * paginação aplicada), ou null quando as entidades são apenas parte do resultado (ex: um bloco de
+	 * {@link #streamAllBy(int)}). A estratégia {@link br.com.vcg.query.api.DetachedFetchStrategy#SUBSELECT} só é
+	 * utilizada quando a subconsulta retorna as mesmas entidades.
+	 */
+	protected void processDetachedFetches(List<ENTITY> result, QueryMetadata resultMetadata) {
 		if (result != null && !result.isEmpty()) {
 			
+			List<DetachedFetchesProcessor> processors = new ArrayList<DetachedFetchesProcessor>();
 			for (DetachedFetchFilter<?> detachedFilter : filter.getDetachedCollectionFetchList()) {
+				processors.add(createDetachedProcessor(result, detachedFilter, resultMetadata));
+			}
 			
-				DetachedFetchesProcessor detachedProcessor = createDetachedProcessor(result, detachedFilter);
-				detachedProcessor.fetch();
+			if (filter.getDetachedFetchParallelism() > 1 && detachedFetchExecutor == null) {
+				logger.fine("Fetches desatachados executados de forma sequencial: paralelismo " + filter.getDetachedFetchParallelism()
+						+ " configurado no filtro, porém nenhum executor foi informado ao repositório.");
+			}
+			while (!processors.isEmpty()) {
+				if (filter.getDetachedFetchParallelism() > 1 && detachedFetchExecutor != null) {
+					new ParallelDetachedFetches(entityManager.getEntityManagerFactory(), detachedFetchExecutor,
+							filter.getDetachedFetchParallelism()).fetch(processors);
+				} else {
+					for (DetachedFetchesProcessor detachedProcessor : processors) {
+						detachedProcessor.fetch();
+					}
+				}
 				
+				// próximo nível do grafo
+				List<DetachedFetchesProcessor> nestedProcessors = new ArrayList<DetachedFetchesProcessor>();
+				for (DetachedFetchesProcessor detachedProcessor : processors) {
+					nestedProcessors.addAll(detachedProcessor.createNestedProcessors());
+				}
+				processors = nestedProcessors;
 			}
 			
 		}
@@ -96,22 +404,183 @@ public class QbeContextProcessor<ENTITY> {
 	
 	/**
 	 * Count a projection result.
-	 * JPA has a limitation to run COUNT + PROJECTION, it will always do count by ID. So,
-	 * let's implement a workaround (performance may be impacted).
-	 * @param query Query configuration
+	 * JPA has a limitation to run COUNT + PROJECTION, it will always do count by ID. So, the count is
+	 * resolved in the database, in a single statement, according to the projection:
+	 * <ul>
+	 * <li>non distinct query: the projection does not change the number of rows, a regular count is executed;</li>
+	 * <li>distinct query with a single expression: COUNT(DISTINCT expression), plus one when there are rows
+	 * where the expression is NULL (ignored by COUNT, but returned by SELECT DISTINCT);</li>
+	 * <li>distinct query with multiple expressions: JPQL does not support COUNT(DISTINCT (a, b)) nor subqueries
+	 * in the FROM clause, so each tuple is encoded as a single text (length of each value, value and a marker
+	 * for NULL) and the database counts the distinct texts. Entities are represented by their identifiers.
+	 * Only values whose conversion to text is lossless on every dialect (text, integer numbers, booleans and
+	 * enums) are encoded: other types (dates, timestamps, decimals...) could be truncated by the conversion,
+	 * collapsing distinct tuples. In that case the tuples are grouped in the database (GROUP BY) and the groups
+	 * are counted while streamed (forward only), without keeping them in memory.</li>
+	 * </ul>
+	 * The paging and ordering configured in the filter are ignored (and preserved).
 	 * @param expressions Projection to apply on count. 
 	 */
 	public long countProjection(Expression<?>[] expressions) {
 		processPredicates();
-		JPAQuery<?> query = createJpaQuery();
-		query.getMetadata().setOffset(0L);
-		query.getMetadata().setLimit(Long.MAX_VALUE);
-		query.select(expressions);		
-		return query.fetch().size();
+		
+		QueryMetadata metadata = getMetadata().clone();
+		metadata.setModifiers(QueryModifiers.EMPTY);
+		metadata.clearOrderBy();
+		
+		if (!metadata.isDistinct() || expressions.length == 0) {
+			return createJpaQuery(metadata).fetchCount();
+		}
+		
+		metadata.setDistinct(false);
+		if (expressions.length == 1) {
+			Expression<?> value = toValue(expressions[0]);
+			Tuple count = createJpaQuery(metadata)
+					.select(Expressions.numberOperation(Long.class, Ops.AggOps.COUNT_DISTINCT_AGG, value),
+							Expressions.numberTemplate(Integer.class, "max(case when {0} is null then 1 else 0 end)", value))
+					.fetchOne();
+			if (count == null) {
+				return 0L;
+			}
+			Number values = count.get(0, Number.class);
+			Number nulls = count.get(1, Number.class);
+			return (values != null ? values.longValue() : 0L) + (nulls != null ? nulls.longValue() : 0L);
+		}
+		
+		if (!isTextEncodable(expressions)) {
+			Expression<?>[] values = new Expression<?>[expressions.length];
+			for (int i = 0; i < expressions.length; i++) {
+				values[i] = toValue(expressions[i]);
+			}
+			JPAQuery<?> query = createJpaQuery(metadata);
+			query.groupBy(values);
+			query.select(Wildcard.count);
+			
+			@SuppressWarnings("unchecked")
+			Stream<Object> groups = query.createQuery().getResultStream();
+			try {
+				return groups.count();
+			} finally {
+				groups.close();
+			}
+		}
+		
+		Long count = createJpaQuery(metadata)
+				.select(Expressions.numberOperation(Long.class, Ops.AggOps.COUNT_DISTINCT_AGG, encodeTuple(expressions)))
+				.fetchOne();
+		return count != null ? count : 0L;
+	}
+	
+	/**
+	 * @return true se todos os valores podem ser convertidos em texto sem perda (ver {@link #encodeTuple(Expression[])}).
+	 */
+	private boolean isTextEncodable(Expression<?>[] expressions) {
+		for (Expression<?> expression : expressions) {
+			Class<?> type = toValue(expression).getType();
+			if (!String.class.equals(type) && !Character.class.equals(type) && !Boolean.class.equals(type) && !type.isEnum()
+					&& !Long.class.equals(type) && !Integer.class.equals(type) && !Short.class.equals(type) 
+					&& !Byte.class.equals(type) && !BigInteger.class.equals(type)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return Texto que representa, sem ambiguidades, os valores das expressões de uma linha: cada valor é
+	 * precedido pelo seu tamanho ("5:Belem3:101") e NULL é representado por "-". A expressão resultante é um
+	 * CASE, único tipo de expressão (além de propriedades) aceito pelo Hibernate em COUNT(DISTINCT ...).
+	 */
+	private Expression<String> encodeTuple(Expression<?>[] expressions) {
+		Expression<String> others = encodeValue(expressions[1]);
+		for (int i = 2; i < expressions.length; i++) {
+			others = Expressions.stringOperation(Ops.CONCAT, others, encodeValue(expressions[i]));
+		}
+		Expression<String> first = toText(expressions[0]);
+		return Expressions.cases()
+				.when(Expressions.booleanOperation(Ops.IS_NULL, first))
+				.then(Expressions.stringOperation(Ops.CONCAT, Expressions.stringTemplate("'-'"), others))
+				.otherwise(Expressions.stringOperation(Ops.CONCAT, encodeText(first), others));
+	}
+	
+	private Expression<String> encodeValue(Expression<?> expression) {
+		Expression<String> text = toText(expression);
+		return Expressions.cases()
+				.when(Expressions.booleanOperation(Ops.IS_NULL, text))
+				.then(Expressions.stringTemplate("'-'"))
+				.otherwise(encodeText(text));
+	}
+	
+	private Expression<String> encodeText(Expression<String> text) {
+		Expression<String> length = Expressions.stringOperation(Ops.STRING_CAST,
+				Expressions.numberOperation(Integer.class, Ops.STRING_LENGTH, text));
+		return Expressions.stringOperation(Ops.CONCAT, length,
+				Expressions.stringOperation(Ops.CONCAT, Expressions.stringTemplate("':'"), text));
+	}
+	
+	/**
+	 * @return A expressão convertida em texto.
+	 */
+	@SuppressWarnings("unchecked")
+	private Expression<String> toText(Expression<?> expression) {
+		Expression<?> value = toValue(expression);
+		if (String.class.equals(value.getType())) {
+			return (Expression<String>) value;
+		}
+		return Expressions.stringOperation(Ops.STRING_CAST, value);
+	}
+	
+	/**
+	 * @return A expressão, ou o identificador quando a expressão é uma entidade: a referência a uma entidade
+	 * fora do where (ex: <code>pessoa.cidade is null</code>) gera um join implícito, que descartaria as linhas
+	 * sem a entidade, enquanto o identificador é lido da própria chave estrangeira.
+	 */
+	private Expression<?> toValue(Expression<?> expression) {
+		if (!(expression instanceof Path) || !isEntity(expression.getType())) {
+			return expression;
+		}
+		EntityType<?> entityType = entityManager.getMetamodel().entity(expression.getType());
+		if (!entityType.hasSingleIdAttribute()) {
+			throw new QbeException("A entidade " + expression + " da projeção possui chave composta: utilize as propriedades da chave no count.");
+		}
+		SingularAttribute<?, ?> id = entityType.getId(entityType.getIdType().getJavaType());
+		return ExpressionUtils.path(id.getJavaType(), (Path<?>) expression, id.getName());
+	}
+	
+	private boolean isEntity(Class<?> type) {
+		for (EntityType<?> entityType : entityManager.getMetamodel().getEntities()) {
+			if (entityType.getJavaType().equals(type)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
+	/**
+	 * @return Consulta sobre os metadados da execução. Consultas com o mesmo formato reutilizam a JPQL
+	 * através do {@link QueryPlanCache} da unidade de persistência, e o formato das expressões fixas do filtro
+	 * é calculado uma única vez (ver {@link CompiledFilter}).
+	 */
 	protected JPAQuery<?> createJpaQuery() {
-		JPAQuery<?> jpaQuery = new JPAQuery(entityManager, CustomTemplates.INSTANCE, filter.getMetadata());
+		return createJpaQuery(getMetadata());
+	}
+
+	/**
+	 * @param metadata Metadados da consulta (ex: uma cópia dos metadados da execução).
+	 * @return Consulta sobre os metadados informados, com os hints do filtro.
+	 */
+	protected JPAQuery<?> createJpaQuery(QueryMetadata metadata) {
+		return createJpaQuery(entityManager, metadata);
+	}
+
+	/**
+	 * @param entityManager EntityManager da consulta (ex: o EntityManager de uma tarefa concorrente).
+	 * @param metadata Metadados da consulta.
+	 * @return Consulta sobre os metadados informados, com os hints do filtro.
+	 */
+	private JPAQuery<?> createJpaQuery(EntityManager entityManager, QueryMetadata metadata) {
+		JPAQuery<?> jpaQuery = new PlanCachingJPAQuery<Object>(entityManager, CustomTemplates.INSTANCE, metadata,
+				QueryPlanCache.of(entityManager.getEntityManagerFactory()), CompiledFilter.of(filter).shapes(filter.getMetadata()));
 		addHints(jpaQuery);
         return jpaQuery;
 	}
@@ -125,9 +594,15 @@ public class QbeContextProcessor<ENTITY> {
     /**
 	 * Processa todos os predicados (restrições) encontrados do
 	 * {@link QueryFilter}, considerando as diferenças existentes entre valores
-	 * do exemplo e customizados.
+	 * do exemplo e customizados. O resultado é registrado nos metadados desta execução
+	 * ({@link #getMetadata()}), uma cópia dos metadados do filtro: o filtro não é alterado.
 	 */
 	protected void processPredicates() {
+		metadata = filter.getMetadata().clone();
+		if (modifiers != null) {
+			metadata.setModifiers(modifiers);
+		}
+		cacheCustomPredicates.clear();
 		try {
 			configureCustomPredicates(filter);
 			configureExamplePredicates(filter);
@@ -137,7 +612,7 @@ public class QbeContextProcessor<ENTITY> {
 	}
 
 	/**
-	 * Registra no {@link JPAQuery} os predicados customizados encontrados no
+	 * Registra nos metadados da execução os predicados customizados encontrados no
 	 * filtro. Alguns predicados podem estar parcialmente customizados, são
 	 * aqueles que esperam que o valor seja extraído do objeto exemplo, nestes
 	 * casos, serão registrados apenas se o valore for encontrado.
@@ -155,29 +630,24 @@ public class QbeContextProcessor<ENTITY> {
 			
 			/*
 			 *  Propriedades customizadas, quando devem considerar o valor do exemplo, são configuradas através de ParamExample (extends ParamExpression).
-			 *  Desta forma, é necessário entender o parâmetro, e buscar o valor no exemplo para registrar na query.
-			 *  Quando o valor no exemplo for =null, o parâmetro deve ser descartado.
-			 */
-			final VisitorContext myContext = new VisitorContext(filter, cacheCustomPredicates);
-			predicate.accept(ParamExtractorVisitor.DEFAULT, myContext);
-			
-			/*
-			 * Substituindo os nós ParamExample genéricos (tipo Object) com os tipos de verdade que estão preenchidos no exemplo.
-			 * Desta forma, a árvore do modelo estará sincronizada com os valores do exemplo.
+			 *  O predicado é compilado uma única vez (posição de cada ParamExample e propriedade correspondente no exemplo) e, 
+			 *  em uma única passagem, os valores são lidos do exemplo e registrados na query. Quando o valor no exemplo for =null, 
+			 *  o predicado correspondente é descartado.
 			 */
-			ReplaceVisitor replaceVisitor = new ReplaceVisitorParamExample(myContext);
-	        predicate = (Predicate) predicate.accept(replaceVisitor, null);
+			CompiledFilter compiledFilter = CompiledFilter.of(filter);
+			ParamExamplePredicate compiled = compiledFilter.params(predicate);
+			if (compiled.isEmpty()) {
+				return;
+			}
+			predicate = compiled.bind(predicate, getExample(), metadata, cacheCustomPredicates);
+			// a árvore de cada variante (valores null e tipos) é reutilizada entre as execuções
+			compiledFilter.register(predicate);
 	        
 	        /*
-	         * Percorrendo árvore e setando os parâmetros do exemplo no jpaQuery
+	         * Atualiza os meta dados da execução, para que as alterações reflitam na query. 
 	         */
-	        predicate.accept(ParamSettingVisitor.DEFAULT, myContext);
-			
-	        /*
-	         * Atualiza os meta dados, para que as alterações reflitam na query. 
-	         */
-	        filter.getMetadata().clearWhere();
-	        filter.getMetadata().addWhere(predicate);
+	        metadata.clearWhere();
+	        metadata.addWhere(predicate);
 	        
 		}
 		
@@ -189,7 +659,9 @@ public class QbeContextProcessor<ENTITY> {
 	 * @param context Contexto com os dados atualizados.
 	 * @param param Parâmetro para busca do Path e, em seguida, do valor no objeto exemplo.
 	 * @return Valor no objeto exemplo.
+	 * @deprecated Utilizado apenas pelos visitors legados; os valores dos ParamExample são lidos por {@link ParamExamplePredicate}.
 	 */
+	@Deprecated
 	public static Object getValueFromProperty(final VisitorContext context, ParamExpression<?> param) {
 		// Extraindo o path da propriedade configurada no predicado
 		Path<?> path = context.getPath(param);
@@ -201,22 +673,24 @@ public class QbeContextProcessor<ENTITY> {
 	 * @param context Contexto com o objeto exemplo preenchido.
 	 * @param path Path para identificação da propriedade do objeto exemplo.
 	 * @return Valor encontrado no objeto exemplo.
+	 * @deprecated Utilizado apenas pelos visitors legados; os valores dos ParamExample são lidos por {@link ParamExamplePredicate}.
 	 */
+	@Deprecated
 	public static Object getValueFromProperty(final VisitorContext context, Path<?> path) {
 		String pathPropName = path.getMetadata().getName();
+		Object example = context.getExample();
 		
 		/*
 		 * Verificando se a propriedade informada está preenchida no exemplo. Caso esteja, o predicado deverá receber
 		 * o valor encontrado no exemplo e ser registrado na query
 		 */
-		Object value = ReflectionUtil.getValue(context.getExample(), pathPropName);
-		return value;
+		return example == null ? null : PropertyAccessor.of(example.getClass(), pathPropName).get(example);
 	}
 
 	/**
 	 * Analisa o objeto exemplo (caso exista) encapsulado no filtro, extraindo
 	 * todas as informações de suas propriedades preencidas, transformando-as em
-	 * predicados e registrando-os no {@link JPAQuery}.
+	 * predicados e registrando-os nos metadados da execução.
 	 * 
 	 * @param filter
 	 *            Filtro que contém o objeto exemplo e todas as demais
@@ -224,45 +698,102 @@ public class QbeContextProcessor<ENTITY> {
 	 */
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public void configureExamplePredicates(QueryFilter<?> filter) throws Exception {
-		List<Property> filledProperties = createPropertiesInspector().extractFilledProperties(filter.getExample(), filter.getDeepLevel());
-		for (Property property : filledProperties) {
-			
-			/*
-			 * Processa o valor contido no exemplo apenas se este for diferente
-			 * de null e não tiver sido processado por uma operação customizada.
-			 * Neste último caso, as propriedades já processadas encontram-se no
-			 * cache.
-			 */
-			String propStringPath = property.generateDotNotation();
-			
-			if (!cacheCustomPredicates.contains(propStringPath)) {
-				Object propValue = property.getValue();
-				if (property.getValue() instanceof String) {
-					StringPath propPath = new StringPathCustom(filter.getFrom().getRoot(), propStringPath);
-					filter.where(propPath.contains(propValue.toString()));
-				} else {
-					ComparablePath path = new ComparablePathCustom(propValue.getClass(), filter.getFrom().getRoot(), propStringPath);
-					filter.where(path.eq(propValue));
-				}
-			}	
-
+		if (getExample() == null) {
+			return;
+		}
+		
+		/*
+		 * Quando existe um extrator gerado em tempo de compilação para a classe do exemplo, os predicados
+		 * são registrados diretamente sobre os tipos Q, sem reflexão. Caso contrário, as propriedades preenchidas
+		 * são extraídas pelo ExamplePropertiesInspector.
+		 */
+		Object example = ReflectionUtil.unProxy(getExample());
+		ExampleExtractionContext context = new ExampleExtractionContext(filter, metadata, cacheCustomPredicates, createPropertiesInspector());
+		ExampleExtractor extractor = ExampleExtractors.find(example.getClass());
+		if (extractor != null) {
+			context.extract(extractor, example);
+		} else {
+			context.extractProperties(filter.getFrom().getRoot(), example, "", 1);
 		}
 	}
 	
+	/**
+	 * @return Inspector (compartilhado) baseado no metamodelo JPA da unidade de persistência ou, na ausência de um
+	 * EntityManager, baseado nas anotações das classes.
+	 */
 	protected ExamplePropertiesInspector createPropertiesInspector() {
+		if (entityManager != null) {
+			return MetamodelPropertiesInspector.of(entityManager.getEntityManagerFactory());
+		}
 		return new ExamplePropertiesInspector();
 	}
 
+	public Executor getDetachedFetchExecutor() {
+		return detachedFetchExecutor;
+	}
+	
+	public void setDetachedFetchExecutor(Executor detachedFetchExecutor) {
+		this.detachedFetchExecutor = detachedFetchExecutor;
+	}
+
+	public Executor getCountExecutor() {
+		return countExecutor;
+	}
+
+	public void setCountExecutor(Executor countExecutor) {
+		this.countExecutor = countExecutor;
+	}
+	
 	protected QueryFilter<? extends ENTITY> getFilter() {
 		return filter;
 	}
+	
+	/**
+	 * @return Metadados desta execução, com os predicados processados, ou os metadados do filtro caso os
+	 * predicados ainda não tenham sido processados.
+	 */
+	protected QueryMetadata getMetadata() {
+		return metadata != null ? metadata : filter.getMetadata();
+	}
+	
+	/**
+	 * @return O exemplo desta execução: o informado em {@link #setExample(Object)} ou o exemplo do filtro.
+	 */
+	public Object getExample() {
+		return example != null ? example : filter.getExample();
+	}
+	
+	/**
+	 * @param example Exemplo desta execução, no lugar do exemplo do filtro (que não é alterado).
+	 */
+	public void setExample(Object example) {
+		this.example = example;
+	}
+	
+	/**
+	 * @param modifiers Paginação desta execução, no lugar da paginação do filtro (que não é alterada).
+	 */
+	public void setModifiers(QueryModifiers modifiers) {
+		this.modifiers = modifiers;
+	}
 
 	protected void setFilter(QueryFilter<ENTITY> filter) {
 		this.filter = filter;
 	}
 
 	public DetachedFetchesProcessor createDetachedProcessor(List<ENTITY> result, DetachedFetchFilter<?> detachedFilter) {
-		return new DetachedFetchesProcessor(entityManager, detachedFilter, result);
+		return createDetachedProcessor(result, detachedFilter, getMetadata());
+	}
+
+	/**
+	 * @param resultMetadata Metadados da consulta que retornou as entidades, ou null. Ver
+	 * {@link #processDetachedFetches(List, QueryMetadata)}.
+	 */
+	protected DetachedFetchesProcessor createDetachedProcessor(List<ENTITY> result, DetachedFetchFilter<?> detachedFilter,
+			QueryMetadata resultMetadata) {
+		DetachedFetchesProcessor processor = new DetachedFetchesProcessor(entityManager, detachedFilter, result);
+		processor.setParentMetadata(resultMetadata);
+		return processor;
 	}
 
 }
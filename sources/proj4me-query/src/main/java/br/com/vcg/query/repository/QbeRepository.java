@@ -1,10 +1,15 @@
 package br.com.vcg.query.repository;
 
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
 
+import br.com.vcg.query.api.Keyset;
+import br.com.vcg.query.api.KeysetPage;
+import br.com.vcg.query.api.Page;
 import br.com.vcg.query.api.QueryFilter;
 
 public interface QbeRepository {
@@ -18,15 +23,49 @@ public interface QbeRepository {
     public List<Tuple> findAllValuesBy(QueryFilter<?> filter, Expression<?>...expressions);    
     
     /**
-	 * Search for a single tuple of simple values (a projection).
+	 * Consulta uma única tupla de valores simples (uma projeção).
 	 * 
-	 * @param filter      restrictions for search. It must be build to reduce result
-	 *                    to a single result. If not, will be return the first
-	 *                    element found.
-	 * @param expressions expressions to set projection.
-	 * @return Single tuple.
+	 * @param filter      Restrições da consulta. Deve ser construído de forma a retornar um
+	 *                    único resultado. Caso contrário, será retornado o primeiro
+	 *                    registro encontrado.
+	 * @param expressions Expressões da projeção.
+	 * @return Tupla única.
 	 */
     public abstract Tuple findValuesBy(QueryFilter<?> filter, Expression<?>...expressions);
+
+	/**
+	 * Consulta uma única tupla de valores simples (uma projeção). Apenas um registro (dois, no modo estrito) é
+	 * carregado do banco de dados, dentro da página configurada no filtro (que não é alterada).
+	 * 
+	 * @param filter      Restrições da consulta.
+	 * @param strict      true para verificar se a consulta retorna um único resultado.
+	 * @param expressions Expressões da projeção.
+	 * @return Tupla única, ou null.
+	 * @throws br.com.vcg.query.exception.QbeException No modo estrito, caso a consulta retorne mais de um resultado.
+	 */
+    public abstract Tuple findValuesBy(QueryFilter<?> filter, boolean strict, Expression<?>...expressions);
+
+	/**
+	 * Consulta uma única entidade equivalente às configurações do filtro. Apenas um registro é carregado
+	 * do banco de dados, dentro da página configurada no filtro (que não é alterada).
+	 * 
+	 * @param filter
+	 *            Filtro com as configurações da consulta a ser realizada.
+	 * @return A primeira entidade encontrada, ou null.
+	 */
+	public abstract <ENTITY> ENTITY findOneBy(QueryFilter<ENTITY> filter);
+
+	/**
+	 * Consulta uma única entidade equivalente às configurações do filtro.
+	 * 
+	 * @param filter
+	 *            Filtro com as configurações da consulta a ser realizada.
+	 * @param strict
+	 *            true para verificar se a consulta retorna uma única entidade (são carregados 2 registros).
+	 * @return A entidade encontrada, ou null.
+	 * @throws br.com.vcg.query.exception.QbeException Em modo estrito, caso mais de uma entidade seja encontrada.
+	 */
+	public abstract <ENTITY> ENTITY findOneBy(QueryFilter<ENTITY> filter, boolean strict);
     
 	/**
 	 * Consulta todas as entidades equivalentes às configurações encontradas no
@@ -51,9 +90,78 @@ public interface QbeRepository {
 	 * Conta o número de registros existentes de acordo com as configurações/restrições
 	 * encontradas no filtro.
 	 * @param queryFilter Filtro com restrições para a query.
-	 * @param expressions Projection to apply on count. By default will count on ID property (of target entity).
+	 * @param expressions Projeção considerada na contagem. Por padrão, a contagem é realizada pelo identificador (da entidade consultada).
 	 * @return Número de registros que se adequam ao filtro.
 	 */
 	public abstract <ENTITY> long countProjection(QueryFilter<ENTITY> queryFilter, Expression<?>...expressions);	
 
+	/**
+	 * Tamanho padrão do bloco de leitura em {@link #streamAllBy(QueryFilter)}.
+	 */
+	public static final int STREAM_FETCH_SIZE = 500;
+
+	/**
+	 * Consulta as entidades através de um cursor, sem materializar todo o resultado em memória. Ver
+	 * {@link #streamAllBy(QueryFilter, int)}, com blocos de {@link #STREAM_FETCH_SIZE} registros.
+	 * @param filter Filtro com as configurações da consulta a ser realizada.
+	 * @return Stream com as entidades. Deve ser fechado após o uso.
+	 */
+	public abstract <ENTITY> Stream<ENTITY> streamAllBy(QueryFilter<ENTITY> filter);
+
+	/**
+	 * Consulta as entidades através de um cursor (forward only), para exportações e processamentos em lote.
+	 * Os registros são lidos em blocos e, a cada bloco, o contexto de persistência é limpo: as entidades já
+	 * percorridas deixam de ser gerenciadas e a memória utilizada não depende do tamanho do resultado.
+	 * Alterações pendentes no contexto de persistência devem ser gravadas (flush) antes da consulta.
+	 * <br/>
+	 * O stream deve ser fechado (ex: try-with-resources) para liberar o cursor.
+	 * @param filter Filtro com as configurações da consulta a ser realizada.
+	 * @param fetchSize Tamanho do bloco: número de registros obtidos do banco de dados por vez (JDBC fetch size)
+	 * e intervalo de limpeza do contexto de persistência.
+	 * @return Stream com as entidades.
+	 */
+	public abstract <ENTITY> Stream<ENTITY> streamAllBy(QueryFilter<ENTITY> filter, int fetchSize);
+
+	/**
+	 * Percorre o resultado da consulta em blocos, para processamentos em lote. Cada bloco é consultado de forma
+	 * independente através da paginação por chave (ver {@link #findKeysetPage(QueryFilter)}), os fetches
+	 * desatachados do filtro são executados em cada bloco e o contexto de persistência é limpo entre os blocos:
+	 * a memória utilizada é limitada ao tamanho do bloco. A paginação configurada no filtro é desconsiderada.
+	 * <br/>
+	 * Alterações pendentes no contexto de persistência devem ser gravadas (flush) antes da consulta e as
+	 * alterações realizadas pelo consumidor em um bloco devem ser gravadas antes do seu término.
+	 * @param filter Filtro com as configurações da consulta a ser realizada.
+	 * @param batchSize Número de entidades por bloco.
+	 * @param consumer Processamento de cada bloco.
+	 */
+	public abstract <ENTITY> void forEachBatch(QueryFilter<ENTITY> filter, int batchSize, Consumer<List<ENTITY>> consumer);
+
+	/**
+	 * Consulta a página configurada no filtro ({@link QueryFilter#fetchPage(Long, Long)}) e o número total de
+	 * registros. Equivalente a {@link #findAllBy(QueryFilter)} seguido de {@link #count(QueryFilter)}, porém os
+	 * predicados são processados uma única vez e a contagem só é executada quando não puder ser deduzida da
+	 * própria página (ex: última página incompleta). Ver {@link QbeRepositoryImpl#setCountExecutor(java.util.concurrent.Executor)}
+	 * para a execução da contagem simultaneamente à consulta da página.
+	 * @param filter Filtro com as configurações da consulta a ser realizada.
+	 * @return Página com as entidades e o total de registros.
+	 */
+	public abstract <ENTITY> Page<ENTITY> findPage(QueryFilter<ENTITY> filter);
+
+	/**
+	 * Consulta uma página através da paginação por chave (keyset/seek) configurada no filtro, em
+	 * {@link QueryFilter#fetchKeyset(Long, Keyset)}. Ao contrário da paginação por OFFSET, o custo da consulta
+	 * não aumenta com o índice da página.
+	 * @param filter Filtro com as configurações da consulta a ser realizada.
+	 * @return Página com as entidades e o token para a consulta da próxima página.
+	 */
+	public abstract <ENTITY> KeysetPage<ENTITY> findKeysetPage(QueryFilter<ENTITY> filter);
+
+	/**
+	 * Constrói um modelo de consulta imutável a partir do filtro informado, para ser executado várias vezes
+	 * com exemplos diferentes.
+	 * @param filter Filtro com a configuração da consulta. Não é alterado.
+	 * @return Modelo de consulta, que pode ser compartilhado entre threads.
+	 */
+	public abstract <ENTITY> QueryTemplate<ENTITY> createTemplate(QueryFilter<ENTITY> filter);
+
 }
\ No newline at end of file
@@ -1,13 +1,19 @@
 package br.com.vcg.query.repository;
 
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import javax.persistence.EntityManager;
 
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
 
+import br.com.vcg.query.api.KeysetPage;
+import br.com.vcg.query.api.Page;
 import br.com.vcg.query.api.QueryFilter;
+import br.com.vcg.query.repository.metadata.MetamodelExampleRegistry;
 
 /**
  * Motor QBE que construi e executar uma consulta QueryDsl a partir de um
@@ -23,13 +29,26 @@ public class QbeRepositoryImpl implements QbeRepository {
      */
     private EntityManager entityManager;
 
+    /**
+     * Executor dos fetches desatachados paralelos (ver {@link QueryFilter#parallelDetachedFetches(int)}): um executor
+     * próprio, com o número de threads limitado de acordo com o pool de conexões. Caso não informado, os fetches
+     * desatachados são sequenciais.
+     */
+    private Executor detachedFetchExecutor;
+
+    /**
+     * Executor da contagem de {@link #findPage(QueryFilter)}, executada em outro EntityManager simultaneamente à
+     * consulta da página. Caso não informado, a contagem é sequencial.
+     */
+    private Executor countExecutor;
+
     public QbeRepositoryImpl() {
         // default
     }
 
     public QbeRepositoryImpl(EntityManager entityManager) {
         super();
-        this.entityManager = entityManager;
+        setEntityManager(entityManager);
     }
 
     /**
@@ -50,6 +69,46 @@ public class QbeRepositoryImpl implements QbeRepository {
         return createContextProcessor(filter).findValuesBy(expressions);
     }    
 
+    @Override
+    public Tuple findValuesBy(QueryFilter<?> filter, boolean strict, Expression<?>... expressions) {
+        return createContextProcessor(filter).findValuesBy(strict, expressions);
+    }
+
+    @Override
+    public <ENTITY> ENTITY findOneBy(QueryFilter<ENTITY> filter) {
+        return findOneBy(filter, false);
+    }
+
+    @Override
+    public <ENTITY> ENTITY findOneBy(QueryFilter<ENTITY> filter, boolean strict) {
+        return createContextProcessor(filter).findOneBy(strict);
+    }
+
+    @Override
+    public <ENTITY> Stream<ENTITY> streamAllBy(QueryFilter<ENTITY> filter) {
+        return streamAllBy(filter, STREAM_FETCH_SIZE);
+    }
+
+    @Override
+    public <ENTITY> Stream<ENTITY> streamAllBy(QueryFilter<ENTITY> filter, int fetchSize) {
+        return createContextProcessor(filter).streamAllBy(fetchSize);
+    }
+
+    @Override
+    public <ENTITY> void forEachBatch(QueryFilter<ENTITY> filter, int batchSize, Consumer<List<ENTITY>> consumer) {
+        createContextProcessor(filter).forEachBatch(batchSize, consumer);
+    }
+
+    @Override
+    public <ENTITY> Page<ENTITY> findPage(QueryFilter<ENTITY> filter) {
+        return createContextProcessor(filter).findPage();
+    }
+
+    @Override
+    public <ENTITY> KeysetPage<ENTITY> findKeysetPage(QueryFilter<ENTITY> filter) {
+        return createContextProcessor(filter).findKeysetPage();
+    }
+
     @Override
     public <ENTITY> long count(QueryFilter<ENTITY> filter) {
         return createContextProcessor(filter).count();
@@ -60,8 +119,18 @@ public class QbeRepositoryImpl implements QbeRepository {
         return createContextProcessor(filter).countProjection(expressions);
     }    
 
+    @Override
+    public <ENTITY> QueryTemplate<ENTITY> createTemplate(QueryFilter<ENTITY> filter) {
+        return new QueryTemplate<ENTITY>(this, filter);
+    }
+
     protected <ENTITY> QbeContextProcessor<ENTITY> createContextProcessor(QueryFilter<? extends ENTITY> filter) {
-        return new QbeContextProcessor<ENTITY>(entityManager, filter);
+        QbeContextProcessor<ENTITY> processor = new QbeContextProcessor<ENTITY>(entityManager, filter);
+        if (detachedFetchExecutor != null) {
+            processor.setDetachedFetchExecutor(detachedFetchExecutor);
+        }
+        processor.setCountExecutor(countExecutor);
+        return processor;
     }
 
     public EntityManager getEntityManager() {
@@ -70,6 +139,26 @@ public class QbeRepositoryImpl implements QbeRepository {
 
     public void setEntityManager(EntityManager entityManager) {
         this.entityManager = entityManager;
+        if (entityManager != null) {
+            // metadados dos exemplos calculados a partir do metamodelo, antes da primeira consulta
+            MetamodelExampleRegistry.register(entityManager.getEntityManagerFactory());
+        }
+    }
+
+    public Executor getDetachedFetchExecutor() {
+        return detachedFetchExecutor;
+    }
+
+    public void setDetachedFetchExecutor(Executor detachedFetchExecutor) {
+        this.detachedFetchExecutor = detachedFetchExecutor;
+    }
+
+    public Executor getCountExecutor() {
+        return countExecutor;
+    }
+
+    public void setCountExecutor(Executor countExecutor) {
+        this.countExecutor = countExecutor;
     }
 
 }
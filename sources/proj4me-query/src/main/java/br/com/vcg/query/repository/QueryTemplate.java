@@ -0,0 +1,102 @@
+package br.com.vcg.query.repository;
+
+import java.util.List;
+
+import com.querydsl.core.QueryModifiers;
+
+import br.com.vcg.query.api.QueryFilter;
+
+/**
+ * Modelo de consulta imutável, construído uma única vez a partir de um {@link QueryFilter} (from, joins,
+ * predicados com ParamExample, ordenação, hints, fetches desatachados) e executado várias vezes, com
+ * exemplos e páginas diferentes.
+ * <br/>
+ * O filtro informado é copiado e compilado na construção (posição dos ParamExample, formato das expressões
+ * fixas da consulta) e nunca é alterado: cada execução apenas associa os valores do exemplo e a página a uma
+ * cópia dos metadados, sem copiar o filtro. Portanto o modelo pode ser mantido como singleton (ex: um por tela
+ * de pesquisa) e utilizado por várias threads, desde que o {@link QbeRepository} também seja (ex: EntityManager
+ * gerenciado pelo container).
+ * <br/>
+ * Com outras implementações de {@link QbeRepository}, cada execução utiliza um novo filtro ({@link #newFilter(Object)}).
+ *
+ * @author augusto
+ */
+public final class QueryTemplate<ENTITY> {
+
+	private final QbeRepository repository;
+
+	/** Configuração original, nunca exposta ou alterada. */
+	private final QueryFilter<ENTITY> prototype;
+
+	/**
+	 * @param repository Repositório utilizado nas execuções.
+	 * @param filter Filtro com a configuração da consulta. Alterações posteriores no filtro não afetam o modelo.
+	 */
+	public QueryTemplate(QbeRepository repository, QueryFilter<ENTITY> filter) {
+		this.repository = repository;
+		this.prototype = filter.copy();
+		this.prototype.setExample(null);
+		// compilação antecipada: as execuções apenas leem as informações calculadas
+		CompiledFilter compiled = CompiledFilter.of(prototype);
+		compiled.shapes(prototype.getMetadata());
+		if (prototype.getMetadata().getWhere() != null) {
+			compiled.params(prototype.getMetadata().getWhere());
+		}
+	}
+
+	/**
+	 * @param example Objeto exemplo desta execução (pode ser null).
+	 * @return Entidades equivalentes à configuração do modelo e ao exemplo.
+	 */
+	public List<ENTITY> execute(ENTITY example) {
+		if (repository instanceof QbeRepositoryImpl) {
+			return createContextProcessor(example, null).findAllBy();
+		}
+		return repository.findAllBy(newFilter(example));
+	}
+
+	/**
+	 * @param example Objeto exemplo desta execução (pode ser null).
+	 * @param pageSize Tamanho da página. Ver {@link QueryFilter#fetchPage(Long, Long)}.
+	 * @param pageIndex Índice da página (1 based).
+	 * @return Entidades da página solicitada.
+	 */
+	public List<ENTITY> execute(ENTITY example, Long pageSize, Long pageIndex) {
+		if (repository instanceof QbeRepositoryImpl) {
+			return createContextProcessor(example, QueryFilter.pageModifiers(pageSize, pageIndex)).findAllBy();
+		}
+		return repository.findAllBy(newFilter(example).fetchPage(pageSize, pageIndex));
+	}
+
+	/**
+	 * @param example Objeto exemplo desta execução (pode ser null).
+	 * @return Número de registros equivalentes à configuração do modelo e ao exemplo.
+	 */
+	public long count(ENTITY example) {
+		if (repository instanceof QbeRepositoryImpl) {
+			return createContextProcessor(example, null).count();
+		}
+		return repository.count(newFilter(example));
+	}
+
+	/**
+	 * @param example Objeto exemplo da execução.
+	 * @return Um novo filtro, exclusivo de uma execução, com a configuração do modelo e o exemplo informado.
+	 */
+	public QueryFilter<ENTITY> newFilter(ENTITY example) {
+		return prototype.copy().setExample(example);
+	}
+
+	/**
+	 * @param example Objeto exemplo da execução.
+	 * @param modifiers Paginação da execução, ou null para a paginação do modelo.
+	 * @return Processador de uma execução sobre a configuração do modelo, que não é copiada nem alterada.
+	 */
+	private QbeContextProcessor<ENTITY> createContextProcessor(ENTITY example, QueryModifiers modifiers) {
+		QbeContextProcessor<ENTITY> processor = ((QbeRepositoryImpl) repository).createContextProcessor(prototype);
+		processor.setExample(example);
+		processor.setModifiers(modifiers);
+		return processor;
+	}
+
+}
@@ -0,0 +1,94 @@
+package br.com.vcg.query.repository;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.ScrollableResults;
+
+/**
+ * Percorre um {@link ScrollableResults} (forward only) em blocos de tamanho fixo: a cada bloco lido são
+ * executados os fetches desatachados e, antes da leitura do bloco seguinte, o contexto de persistência é limpo,
+ * de modo que apenas as entidades de um bloco permanecem gerenciadas (memória constante, independentemente do
+ * tamanho do resultado).
+ *
+ * @author augusto
+ */
+class ScrollableResultsIterator<ENTITY> implements Iterator<ENTITY>, AutoCloseable {
+
+	private final ScrollableResults results;
+
+	private final QbeContextProcessor<ENTITY> processor;
+
+	private final EntityManager entityManager;
+
+	/** Número de registros lidos antes da limpeza do contexto de persistência. */
+	private final int chunkSize;
+
+	private List<ENTITY> chunk = new ArrayList<ENTITY>();
+
+	private int position;
+
+	private boolean exhausted;
+
+	ScrollableResultsIterator(ScrollableResults results, QbeContextProcessor<ENTITY> processor,
+			EntityManager entityManager, int chunkSize) {
+		this.results = results;
+		this.processor = processor;
+		this.entityManager = entityManager;
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (position < chunk.size()) {
+			return true;
+		}
+		if (exhausted) {
+			return false;
+		}
+		readChunk();
+		return position < chunk.size();
+	}
+
+	@Override
+	public ENTITY next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return chunk.get(position++);
+	}
+
+	private void readChunk() {
+		if (!chunk.isEmpty()) {
+			// as entidades do bloco anterior já foram entregues: passam a ser desatachadas
+			entityManager.clear();
+		}
+		chunk = new ArrayList<ENTITY>(chunkSize);
+		position = 0;
+		while (chunk.size() < chunkSize && results.next()) {
+			@SuppressWarnings("unchecked")
+			ENTITY entity = (ENTITY) results.get(0);
+			chunk.add(entity);
+		}
+		if (chunk.size() < chunkSize) {
+			exhausted = true;
+			close();
+		}
+		// bloco: apenas parte do resultado da consulta
+		processor.processDetachedFetches(chunk, null);
+	}
+
+	/**
+	 * Libera o cursor. Pode ser invocado mais de uma vez.
+	 */
+	@Override
+	public void close() {
+		exhausted = true;
+		results.close();
+	}
+
+}
@@ -0,0 +1,171 @@
+package br.com.vcg.query.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.hql.spi.id.AbstractMultiTableBulkIdStrategyImpl;
+import org.hibernate.hql.spi.id.IdTableSupport;
+import org.hibernate.hql.spi.id.MultiTableBulkIdStrategy;
+import org.hibernate.hql.spi.id.local.LocalTemporaryTableBulkIdStrategy;
+import org.hibernate.jdbc.Work;
+import org.hibernate.mapping.Column;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.Type;
+
+/**
+ * Fetch de uma coleção através de uma tabela temporária: os identificadores das entidades da consulta principal
+ * são inseridos (JDBC batch) em uma tabela temporária da sessão do banco de dados e os elementos da coleção são
+ * carregados em uma única consulta, com join sobre a tabela temporária.
+ * <br/>
+ * A tabela temporária é criada e removida a cada execução, com os comandos do dialeto utilizados pelo próprio
+ * Hibernate nas operações em lote sobre múltiplas tabelas ({@link LocalTemporaryTableBulkIdStrategy}, ex: Derby,
+ * H2, HSQLDB, PostgreSQL, MySQL, SQL Server). Como a consulta é SQL nativo, apenas o mapeamento da entidade é
+ * considerado (joins, predicados e ordenação do filtro desatachado não são suportados), e é necessária uma
+ * transação ativa, para que todos os comandos utilizem a mesma conexão.
+ *
+ * @author augusto
+ */
+final class TemporaryTableFetch {
+
+	/** Nome base da tabela temporária (o dialeto pode acrescentar prefixos). */
+	static final String TABLE_NAME = "QBE_PARENT_ID";
+
+	/** Alias da entidade carregada, na consulta nativa. */
+	private static final String ALIAS = "qbe_child";
+
+	private static final int BATCH_SIZE = 500;
+
+	private final SessionImplementor session;
+
+	private final IdTableSupport idTableSupport;
+
+	private final AbstractEntityPersister elementPersister;
+
+	private final Type ownerIdType;
+
+	private final String ownerColumn;
+
+	private TemporaryTableFetch(SessionImplementor session, IdTableSupport idTableSupport, AbstractEntityPersister elementPersister,
+			Type ownerIdType, String ownerColumn) {
+		this.session = session;
+		this.idTableSupport = idTableSupport;
+		this.elementPersister = elementPersister;
+		this.ownerIdType = ownerIdType;
+		this.ownerColumn = ownerColumn;
+	}
+
+	/**
+	 * @param entityManager EntityManager da consulta.
+	 * @param ownerType Tipo da entidade que contém a coleção.
+	 * @param elementType Tipo dos elementos da coleção.
+	 * @param mappedBy Atributo que referencia o dono da coleção, nos elementos.
+	 * @return A estratégia para a coleção, ou null caso não seja suportada pelo dialeto ou pelo mapeamento
+	 * (identificador composto). A transação ativa é verificada pelo chamador.
+	 */
+	static TemporaryTableFetch of(EntityManager entityManager, Class<?> ownerType, Class<?> elementType, String mappedBy) {
+		SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+		SessionFactoryImplementor sessionFactory = session.getFactory();
+		MultiTableBulkIdStrategy strategy = sessionFactory.getJdbcServices().getDialect().getDefaultMultiTableBulkIdStrategy();
+		if (!(strategy instanceof LocalTemporaryTableBulkIdStrategy)) {
+			return null;
+		}
+
+		EntityPersister ownerPersister = sessionFactory.getMetamodel().entityPersister(ownerType);
+		EntityPersister elementPersister = sessionFactory.getMetamodel().entityPersister(elementType);
+		if (!(elementPersister instanceof AbstractEntityPersister) || ownerPersister.getIdentifierType().getColumnSpan(sessionFactory) != 1) {
+			return null;
+		}
+		String[] ownerColumns = ((AbstractEntityPersister) elementPersister).toColumns(ALIAS, mappedBy);
+		if (ownerColumns.length != 1) {
+			return null;
+		}
+
+		return new TemporaryTableFetch(session, ((AbstractMultiTableBulkIdStrategyImpl<?, ?>) strategy).getIdTableSupport(),
+				(AbstractEntityPersister) elementPersister, ownerPersister.getIdentifierType(), ownerColumns[0]);
+	}
+
+	/**
+	 * @param ids Identificadores (sem repetição) das entidades que contêm a coleção.
+	 * @return Os elementos da coleção associados às entidades informadas.
+	 */
+	@SuppressWarnings("unchecked")
+	List<Object> fetch(final List<Object> ids) {
+		final String tableName = idTableSupport.generateIdTableName(TABLE_NAME);
+		final boolean[] created = new boolean[1];
+		try {
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection connection) throws SQLException {
+					createTable(connection, tableName);
+					created[0] = true;
+					insertIds(connection, tableName, ids);
+				}
+			});
+			String sql = "select {" + ALIAS + ".*} from " + elementPersister.fromTableFragment(ALIAS)
+					+ elementPersister.fromJoinFragment(ALIAS, true, true)
+					+ " inner join " + tableName + " qbe_parent on " + ownerColumn + " = qbe_parent.ID";
+			return session.createNativeQuery(sql)
+					.addEntity(ALIAS, elementPersister.getEntityName())
+					.list();
+		} finally {
+			// a tabela é removida também quando a inclusão dos identificadores ou a consulta falham
+			if (created[0]) {
+				session.doWork(new Work() {
+					@Override
+					public void execute(Connection connection) throws SQLException {
+						executeUpdate(connection, idTableSupport.getDropIdTableCommand() + " " + tableName);
+					}
+				});
+			}
+		}
+	}
+
+	private void createTable(Connection connection, String tableName) throws SQLException {
+		SessionFactoryImplementor sessionFactory = session.getFactory();
+		Dialect dialect = sessionFactory.getJdbcServices().getDialect();
+		String columnType = dialect.getTypeName(ownerIdType.sqlTypes(sessionFactory)[0], Column.DEFAULT_LENGTH,
+				Column.DEFAULT_PRECISION, Column.DEFAULT_SCALE);
+		String options = idTableSupport.getCreateIdTableStatementOptions();
+		executeUpdate(connection, idTableSupport.getCreateIdTableCommand() + " " + tableName + " (ID " + columnType + " not null)"
+				+ (options != null ? " " + options : ""));
+	}
+
+	private void insertIds(Connection connection, String tableName, List<Object> ids) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement("insert into " + tableName + " (ID) values (?)");
+		try {
+			int pending = 0;
+			for (Object id : ids) {
+				ownerIdType.nullSafeSet(statement, id, 1, session);
+				statement.addBatch();
+				if (++pending == BATCH_SIZE) {
+					statement.executeBatch();
+					pending = 0;
+				}
+			}
+			if (pending > 0) {
+				statement.executeBatch();
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	private static void executeUpdate(Connection connection, String sql) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute(sql);
+		} finally {
+			statement.close();
+		}
+	}
+
+}
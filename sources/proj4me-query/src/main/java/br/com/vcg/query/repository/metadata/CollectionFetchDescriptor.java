@@ -0,0 +1,273 @@
+package br.com.vcg.query.repository.metadata;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.ManyToMany;
+import javax.persistence.OneToMany;
+
+import br.com.vcg.query.exception.QbeException;
+import br.com.vcg.query.util.PropertyAccessor;
+import br.com.vcg.query.util.ReflectionUtil;
+
+/**
+ * Descritor imutável de uma coleção carregada através de fetch desatachado: nome do atributo mappedBy,
+ * opção orphanRemoval, tipo concreto da coleção (List, Set ou Map) e acessores compilados. São suportados
+ * os mapeamentos {@link OneToMany} (bidirecional ou unidirecional, com tabela de associação) e {@link ManyToMany}. É resolvido uma única vez por
+ * (classe, propriedade) e compartilhado entre threads.
+ *
+ * @author augusto
+ */
+public final class CollectionFetchDescriptor {
+
+	/**
+	 * Tipo concreto utilizado para as coleções carregadas, compatível com o tipo utilizado no mapeamento.
+	 */
+	public enum CollectionKind {
+		LIST {
+			@Override
+			public Collection<Object> newCollection() {
+				return new ArrayList<Object>();
+			}
+		},
+		SET {
+			@Override
+			public Collection<Object> newCollection() {
+				return new HashSet<Object>();
+			}
+		},
+		MAP {
+			@Override
+			public Collection<Object> newCollection() {
+				throw new QbeException("Map não é uma coleção, utilize newMap().");
+			}
+		};
+
+		public abstract Collection<Object> newCollection();
+	}
+
+	/** Cache por classe que contém a coleção. */
+	private static final ClassValue<ConcurrentMap<String, CollectionFetchDescriptor>> CACHE = new ClassValue<ConcurrentMap<String, CollectionFetchDescriptor>>() {
+		@Override
+		protected ConcurrentMap<String, CollectionFetchDescriptor> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, CollectionFetchDescriptor>();
+		}
+	};
+
+	private final Class<?> ownerType;
+
+	private final String property;
+
+	private final Class<?> elementType;
+
+	private final String mappedBy;
+
+	private final boolean orphanRemoval;
+
+	/** ManyToMany: os elementos não referenciam um único dono. */
+	private final boolean manyToMany;
+
+	private final CollectionKind collectionKind;
+
+	/** Acesso à coleção na entidade que contém o mapeamento. */
+	private final PropertyAccessor collectionAccessor;
+
+	/** Acesso ao atributo mappedBy, na entidade que compõe a coleção. */
+	private final PropertyAccessor mappedByAccessor;
+
+	/**
+	 * @param ownerType Classe que contém o mapeamento da coleção.
+	 * @param property Nome da coleção.
+	 * @return Descritor (em cache) da coleção.
+	 * @throws QbeException Caso a coleção não exista ou o seu mapeamento não seja suportado.
+	 */
+	public static CollectionFetchDescriptor of(Class<?> ownerType, String property) {
+		ConcurrentMap<String, CollectionFetchDescriptor> cache = CACHE.get(ownerType);
+		CollectionFetchDescriptor descriptor = cache.get(property);
+		if (descriptor == null) {
+			descriptor = new CollectionFetchDescriptor(ownerType, property);
+			CollectionFetchDescriptor previous = cache.putIfAbsent(property, descriptor);
+			descriptor = previous != null ? previous : descriptor;
+		}
+		return descriptor;
+	}
+
+	private CollectionFetchDescriptor(Class<?> ownerType, String property) {
+		Field field = ReflectionUtil.getField(ownerType, property);
+		if (field == null) {
+			throw new QbeException("Não foi possível encontrar informações sobre a coleção " + ownerType + "." + property);
+		}
+
+		/*
+		 * Relacionamentos com collections são implementados, geralmente, com OneToMany
+		 */
+		OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+		ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+		if (oneToMany == null && manyToMany == null) {
+			throw new QbeException("Não foi encontrado a anotação @OneToMany ou @ManyToMany na relação " + ownerType.getSimpleName() + "." + property);
+		}
+
+		this.ownerType = ownerType;
+		this.property = property;
+		this.manyToMany = manyToMany != null;
+		this.mappedBy = oneToMany != null ? oneToMany.mappedBy() : manyToMany.mappedBy();
+		this.orphanRemoval = oneToMany != null && oneToMany.orphanRemoval();
+		this.elementType = resolveElementType(field, oneToMany != null ? oneToMany.targetEntity() : manyToMany.targetEntity());
+		this.collectionKind = resolveCollectionKind(field);
+		this.collectionAccessor = PropertyAccessor.of(ownerType, property);
+		this.mappedByAccessor = isJoinTable() || elementType == null ? null : PropertyAccessor.of(elementType, mappedBy);
+	}
+
+	/**
+	 * No mapeamento de coleções é mais comum a utilização de List, porém é permitido
+	 * o uso de outros tipos de coleções (como Set).
+	 */
+	private CollectionKind resolveCollectionKind(Field field) {
+		if (List.class.isAssignableFrom(field.getType())) {
+			return CollectionKind.LIST;
+		}
+		if (Set.class.isAssignableFrom(field.getType())) {
+			return CollectionKind.SET;
+		}
+		if (Map.class.isAssignableFrom(field.getType())) {
+			return CollectionKind.MAP;
+		}
+		throw new QbeException("O tipo de coleção utilizado no mapeamento não é suportado: " + property);
+	}
+
+	/**
+	 * @return Tipo dos elementos da coleção: targetEntity ou o tipo genérico da coleção (o tipo dos valores, no
+	 * caso de Map).
+	 */
+	@SuppressWarnings("rawtypes")
+	private static Class<?> resolveElementType(Field field, Class targetEntity) {
+		if (targetEntity != void.class) {
+			return targetEntity;
+		}
+		Type genericType = field.getGenericType();
+		if (genericType instanceof ParameterizedType) {
+			Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+			Type elementType = arguments[arguments.length - 1];
+			if (elementType instanceof Class) {
+				return (Class<?>) elementType;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return Uma nova coleção, de tipo compatível com o utilizado no mapeamento.
+	 */
+	public Collection<Object> newCollection() {
+		return collectionKind.newCollection();
+	}
+
+	/**
+	 * @return Um novo Map, para coleções do tipo {@link CollectionKind#MAP}.
+	 */
+	public Map<Object, Object> newMap() {
+		return new HashMap<Object, Object>();
+	}
+
+	/**
+	 * @return A coleção (ou o Map) atual da entidade que contém o mapeamento.
+	 */
+	public Object getCollection(Object owner) {
+		return collectionAccessor.get(owner);
+	}
+
+	/**
+	 * Substitui a coleção na entidade que contém o mapeamento.
+	 */
+	public void setCollection(Object owner, Collection<?> collection) {
+		collectionAccessor.set(owner, collection);
+	}
+
+	/**
+	 * Substitui o Map na entidade que contém o mapeamento.
+	 */
+	public void setMap(Object owner, Map<?, ?> map) {
+		collectionAccessor.set(owner, map);
+	}
+
+	/**
+	 * @return true se a coleção deve ser carregada a partir da entidade que a contém (<code>select dono.id, e from
+	 * Dono dono join dono.colecao e</code>), pois os elementos não referenciam um único dono: ManyToMany,
+	 * OneToMany unidirecional (tabela de associação) ou Map.
+	 */
+	public boolean isJoinTable() {
+		return manyToMany || mappedBy.isEmpty() || collectionKind == CollectionKind.MAP;
+	}
+
+	public boolean isManyToMany() {
+		return manyToMany;
+	}
+
+	/**
+	 * @return Valor do atributo mappedBy (a entidade dona da coleção) no elemento informado.
+	 */
+	public Object getOwner(Object element) {
+		if (mappedByAccessor == null) {
+			throw new QbeException("A coleção " + this + " não possui o atributo mappedBy configurado.");
+		}
+		return mappedByAccessor.get(element);
+	}
+
+	/**
+	 * Substitui o valor do atributo mappedBy (a entidade dona da coleção) no elemento informado.
+	 */
+	public void setOwner(Object element, Object owner) {
+		if (mappedByAccessor == null) {
+			throw new QbeException("A coleção " + this + " não possui o atributo mappedBy configurado.");
+		}
+		mappedByAccessor.set(element, owner);
+	}
+
+	public Class<?> getOwnerType() {
+		return ownerType;
+	}
+
+	public String getProperty() {
+		return property;
+	}
+
+	/**
+	 * @return Tipo dos elementos da coleção, ou null caso não seja possível determiná-lo.
+	 */
+	public Class<?> getElementType() {
+		return elementType;
+	}
+
+	/**
+	 * @return Nome da propriedade do atributo simples do outro lado do relacionamento (mappedBy), ou vazio.
+	 */
+	public String getMappedBy() {
+		return mappedBy;
+	}
+
+	/**
+	 * @return true se a coleção está mapeada com a opção "orphanRemoval"
+	 */
+	public boolean isOrphanRemoval() {
+		return orphanRemoval;
+	}
+
+	public CollectionKind getCollectionKind() {
+		return collectionKind;
+	}
+
+	@Override
+	public String toString() {
+		return ownerType.getSimpleName() + "." + property;
+	}
+}
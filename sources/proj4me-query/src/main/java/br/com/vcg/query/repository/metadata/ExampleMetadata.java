@@ -0,0 +1,262 @@
+package br.com.vcg.query.repository.metadata;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EmbeddedId;
+import javax.persistence.Id;
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.Transient;
+
+import org.hibernate.proxy.HibernateProxy;
+
+/**
+ * Metadados de uma classe utilizada como objeto exemplo: propriedades válidas para QBE, o papel de cada
+ * uma delas e o acesso à chave primária. A análise da estrutura da classe (hierarquia, anotações) é
+ * realizada uma única vez por classe e compartilhada entre todas as consultas (thread-safe).
+ *
+ * @author augusto
+ */
+public final class ExampleMetadata {
+
+	/** Cache por classe. */
+	private static final ClassValue<ExampleMetadata> CACHE = new ClassValue<ExampleMetadata>() {
+		@Override
+		protected ExampleMetadata computeValue(Class<?> type) {
+			return new ExampleMetadata(type);
+		}
+	};
+
+	private final Class<?> type;
+
+	/** Propriedades válidas, da classe para as superclasses, na ordem de declaração. */
+	private final List<ExampleProperty> properties;
+
+	/** Atributo anotado com @Id (chave primária simples), ou null. */
+	private final ExampleProperty simpleId;
+
+	/** Atributo anotado com @EmbeddedId (chave composta), ou null. */
+	private final ExampleProperty compositeId;
+
+	/**
+	 * @param type Classe do objeto exemplo.
+	 * @return Metadados (em cache) da classe informada.
+	 */
+	public static ExampleMetadata of(Class<?> type) {
+		return CACHE.get(type);
+	}
+
+	/**
+	 * Metadados calculados (sem cache) a partir de atributos e de uma classificação informados, ex: através dos
+	 * métodos legados sobrescritos em uma subclasse de
+	 * {@link br.com.vcg.query.repository.ExamplePropertiesInspector}.
+	 * @param type Classe do objeto exemplo.
+	 * @param fields Atributos válidos, na ordem em que devem ser analisados.
+	 * @param classifier Classificação dos atributos.
+	 * @return Novos metadados da classe.
+	 */
+	public static ExampleMetadata of(Class<?> type, List<Field> fields, FieldClassifier classifier) {
+		return new ExampleMetadata(type, fields, classifier);
+	}
+
+	private ExampleMetadata(Class<?> type) {
+		this(type, validFields(type), DEFAULT_CLASSIFIER);
+	}
+
+	private ExampleMetadata(Class<?> type, List<Field> fields, FieldClassifier classifier) {
+		this.type = type;
+
+		List<ExampleProperty> validProperties = new ArrayList<ExampleProperty>();
+		ExampleProperty id = null;
+		ExampleProperty embeddedId = null;
+		for (Field field : fields) {
+			ExampleProperty property = new ExampleProperty(field, resolveRole(field, classifier));
+			validProperties.add(property);
+
+			if (id == null && field.isAnnotationPresent(Id.class)) {
+				id = property;
+			}
+			if (embeddedId == null && property.isCompositeKey()) {
+				embeddedId = property;
+			}
+		}
+
+		this.properties = Collections.unmodifiableList(validProperties);
+		this.simpleId = id;
+		this.compositeId = embeddedId;
+	}
+
+	/**
+	 * @return Atributos válidos da classe e das superclasses, na ordem de declaração.
+	 */
+	private static List<Field> validFields(Class<?> type) {
+		List<Field> fields = new ArrayList<Field>();
+
+		// iterando sobre a estrutura da classe e das superclasses
+		for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+
+			// para cada classe, itera sobre os atributos
+			for (Field field : clazz.getDeclaredFields()) {
+
+				// descarta campos considerados padroes da api ou inválidos
+				if (isValidProperty(field)) {
+					fields.add(field);
+				}
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * Metadados previamente calculados (ex: a partir do metamodelo JPA).
+	 */
+	ExampleMetadata(Class<?> type, List<ExampleProperty> properties, ExampleProperty simpleId, ExampleProperty compositeId) {
+		this.type = type;
+		this.properties = Collections.unmodifiableList(new ArrayList<ExampleProperty>(properties));
+		this.simpleId = simpleId;
+		this.compositeId = compositeId;
+	}
+
+	/**
+	 * Classifica o atributo de acordo com o seu papel na construção dos predicados.
+	 */
+	private static ExampleProperty.Role resolveRole(Field field, FieldClassifier classifier) {
+		if (classifier.isCollection(field)) {
+			return ExampleProperty.Role.COLLECTION;
+		}
+		if (classifier.isRelationship(field)) {
+			return ExampleProperty.Role.RELATIONSHIP;
+		}
+		if (classifier.isCompositeKey(field)) {
+			return ExampleProperty.Role.COMPOSITE_KEY;
+		}
+		return ExampleProperty.Role.SIMPLE;
+	}
+
+	/**
+	 * Classificação dos atributos de um objeto exemplo, ver {@link ExampleMetadata#of(Class, List, FieldClassifier)}.
+	 */
+	public interface FieldClassifier {
+
+		boolean isCollection(Field field);
+
+		boolean isRelationship(Field field);
+
+		boolean isCompositeKey(Field field);
+	}
+
+	/** Classificação através das anotações JPA. */
+	private static final FieldClassifier DEFAULT_CLASSIFIER = new FieldClassifier() {
+
+		@Override
+		public boolean isCollection(Field field) {
+			return ExampleMetadata.isCollection(field);
+		}
+
+		@Override
+		public boolean isRelationship(Field field) {
+			return ExampleMetadata.isRelationship(field);
+		}
+
+		@Override
+		public boolean isCompositeKey(Field field) {
+			return ExampleMetadata.isCompositeKey(field);
+		}
+	};
+
+	/**
+	 * Verifica se o campo faz parte de alguma obrigação padrão da API ou é desnecessário no contexto de busca
+	 * através de QBE. Ex: serialVersionUID, class, transient, static
+	 */
+	public static boolean isValidProperty(Field field) {
+		String name = field.getName();
+		return !isTransient(field)
+				&& !isStatic(field)
+				&& !"serialVersionUID".equals(name)
+				&& !"class".equals(name);
+	}
+
+	/**
+	 * Verifica se uma propriedade possui anotacao de relacionamento com outra entidade.
+	 */
+	public static boolean isRelationship(Field field) {
+		return field.isAnnotationPresent(OneToMany.class)
+				|| field.isAnnotationPresent(OneToOne.class)
+				|| field.isAnnotationPresent(ManyToMany.class)
+				|| field.isAnnotationPresent(ManyToOne.class);
+	}
+
+	/**
+	 * Verifica se a propriedade representa uma chave composta (@EmbeddedId).
+	 */
+	public static boolean isCompositeKey(Field field) {
+		return field.isAnnotationPresent(EmbeddedId.class);
+	}
+
+	/**
+	 * Verifica se uma propriedade é uma coleção.
+	 */
+	public static boolean isCollection(Field field) {
+		return Collection.class.isAssignableFrom(field.getType());
+	}
+
+	/**
+	 * Verifica se a propriedade é anotada com @Transient.
+	 */
+	public static boolean isTransient(Field field) {
+		return field.isAnnotationPresent(Transient.class);
+	}
+
+	/**
+	 * Verifica se a propriedade é static.
+	 */
+	public static boolean isStatic(Field field) {
+		return Modifier.isStatic(field.getModifiers());
+	}
+
+	/**
+	 * @param entity Entidade do tipo descrito por estes metadados.
+	 * @return Valor da chave primária simples (@Id), ou null caso não exista ou não esteja preenchida.
+	 */
+	public Object getSimplePrimaryKey(Object entity) {
+		return simpleId == null ? null : simpleId.getValue(entity);
+	}
+
+	/**
+	 * Recupera o identificador da entidade, seja ele simples (@Id) ou composto (@EmbeddedId). Para Hibernate
+	 * proxies, o identificador é obtido sem inicializar o objeto.
+	 * @param entity Entidade do tipo descrito por estes metadados.
+	 * @return Valor do identificador, ou null.
+	 */
+	public Object getIdentifier(Object entity) {
+		if (entity instanceof HibernateProxy) {
+			return ((HibernateProxy) entity).getHibernateLazyInitializer().getIdentifier();
+		}
+		ExampleProperty id = simpleId != null ? simpleId : compositeId;
+		return id == null ? null : id.getValue(entity);
+	}
+
+	public Class<?> getType() {
+		return type;
+	}
+
+	public List<ExampleProperty> getProperties() {
+		return properties;
+	}
+
+	public ExampleProperty getSimpleId() {
+		return simpleId;
+	}
+
+	public ExampleProperty getCompositeId() {
+		return compositeId;
+	}
+
+}
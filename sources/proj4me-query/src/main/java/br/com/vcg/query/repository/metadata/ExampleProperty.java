@@ -0,0 +1,107 @@
+package br.com.vcg.query.repository.metadata;
+
+import java.lang.reflect.Field;
+
+import br.com.vcg.query.util.PropertyAccessor;
+
+/**
+ * Descritor imutável de uma propriedade válida de um objeto exemplo. Armazena o {@link Field}
+ * correspondente, o seu acessor compilado e o seu papel na construção dos predicados QBE, calculados
+ * uma única vez por classe em {@link ExampleMetadata}.
+ *
+ * @author augusto
+ */
+public final class ExampleProperty {
+
+	/**
+	 * Papel da propriedade na extração dos valores preenchidos do exemplo.
+	 */
+	public enum Role {
+		/** Atributo simples, comparado diretamente com o valor do exemplo. */
+		SIMPLE,
+		/** Associação simples com outra entidade (OneToOne, ManyToOne...). */
+		RELATIONSHIP,
+		/** Chave composta (@EmbeddedId), cujos atributos internos são analisados. */
+		COMPOSITE_KEY,
+		/** Coleção, desconsiderada na construção dos predicados. */
+		COLLECTION
+	}
+
+	private final String name;
+
+	private final Class<?> type;
+
+	private final Field field;
+
+	private final Role role;
+
+	private final PropertyAccessor accessor;
+
+	/**
+	 * @param field Atributo que representa a propriedade.
+	 * @param role Papel da propriedade.
+	 */
+	ExampleProperty(Field field, Role role) {
+		this(field.getName(), field.getType(), field, role, PropertyAccessor.of(field));
+	}
+
+	/**
+	 * @param name Nome da propriedade.
+	 * @param type Tipo declarado da propriedade.
+	 * @param field Atributo que representa a propriedade, ou null quando o mapeamento é feito por métodos (property access).
+	 * @param role Papel da propriedade.
+	 * @param accessor Acessor para leitura do valor da propriedade.
+	 */
+	ExampleProperty(String name, Class<?> type, Field field, Role role, PropertyAccessor accessor) {
+		this.name = name;
+		this.type = type;
+		this.field = field;
+		this.role = role;
+		this.accessor = accessor;
+	}
+
+	/**
+	 * Recupera o valor desta propriedade na entidade informada.
+	 * @param entity Entidade que contém a propriedade.
+	 * @return Valor da propriedade.
+	 */
+	public Object getValue(Object entity) {
+		return accessor.get(entity);
+	}
+
+	/**
+	 * @return Atributo que representa a propriedade, ou null quando o mapeamento é feito por métodos (property access).
+	 */
+	public Field getField() {
+		return field;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Class<?> getType() {
+		return type;
+	}
+
+	public Role getRole() {
+		return role;
+	}
+
+	public boolean isRelationship() {
+		return role == Role.RELATIONSHIP;
+	}
+
+	public boolean isCompositeKey() {
+		return role == Role.COMPOSITE_KEY;
+	}
+
+	public boolean isCollection() {
+		return role == Role.COLLECTION;
+	}
+
+	@Override
+	public String toString() {
+		return accessor + " (" + role + ")";
+	}
+}
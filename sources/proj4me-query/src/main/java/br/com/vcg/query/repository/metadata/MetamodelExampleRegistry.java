@@ -0,0 +1,207 @@
+package br.com.vcg.query.repository.metadata;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+
+import br.com.vcg.query.util.PropertyAccessor;
+
+/**
+ * Registro dos metadados de exemplo calculados a partir do metamodelo JPA ({@link EntityManagerFactory#getMetamodel()}),
+ * ao invés da leitura de anotações. Considera, portanto, mapeamentos em XML (orm.xml) e entidades mapeadas por
+ * métodos (property access).
+ * <br/>
+ * Os metadados de todos os tipos gerenciados são calculados de uma só vez, na primeira utilização de cada
+ * {@link EntityManagerFactory} (ou no bootstrap da aplicação, através de {@link #register(EntityManagerFactory)}).
+ *
+ * @author augusto
+ */
+public final class MetamodelExampleRegistry {
+
+	/**
+	 * Metadados por {@link EntityManagerFactory}. Os valores não mantêm referência ao EntityManagerFactory, e as
+	 * entradas de EntityManagerFactories fechados são descartadas no registro de um novo.
+	 */
+	private static final ConcurrentMap<EntityManagerFactory, Map<Class<?>, ExampleMetadata>> REGISTRY =
+			new ConcurrentHashMap<EntityManagerFactory, Map<Class<?>, ExampleMetadata>>();
+
+	private MetamodelExampleRegistry() {
+	}
+
+	/**
+	 * Calcula (caso ainda não tenha sido feito) os metadados de todos os tipos gerenciados pela unidade de persistência.
+	 * Pode ser chamado no bootstrap da aplicação para evitar o custo na primeira consulta.
+	 * @param emf EntityManagerFactory da unidade de persistência.
+	 */
+	public static void register(EntityManagerFactory emf) {
+		of(emf);
+	}
+
+	/**
+	 * @param emf EntityManagerFactory da unidade de persistência.
+	 * @return Metadados (imutáveis) de todos os tipos gerenciados, por classe.
+	 */
+	public static Map<Class<?>, ExampleMetadata> of(EntityManagerFactory emf) {
+		Map<Class<?>, ExampleMetadata> metadata = REGISTRY.get(emf);
+		if (metadata == null) {
+			discardClosed();
+			metadata = build(emf.getMetamodel());
+			Map<Class<?>, ExampleMetadata> previous = REGISTRY.putIfAbsent(emf, metadata);
+			metadata = previous != null ? previous : metadata;
+		}
+		return metadata;
+	}
+
+	/**
+	 * Descarta os metadados de EntityManagerFactories que já foram fechados.
+	 */
+	private static void discardClosed() {
+		for (Iterator<EntityManagerFactory> it = REGISTRY.keySet().iterator(); it.hasNext();) {
+			if (!it.next().isOpen()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param emf EntityManagerFactory da unidade de persistência.
+	 * @param type Classe do objeto exemplo. Pode ser uma subclasse (ex: proxy) de um tipo gerenciado.
+	 * @return Metadados do tipo gerenciado, ou null caso a classe não seja gerenciada pela unidade de persistência.
+	 */
+	public static ExampleMetadata find(EntityManagerFactory emf, Class<?> type) {
+		Map<Class<?>, ExampleMetadata> metadata = of(emf);
+		for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+			ExampleMetadata found = metadata.get(clazz);
+			if (found != null) {
+				return found;
+			}
+		}
+		return null;
+	}
+
+	private static Map<Class<?>, ExampleMetadata> build(Metamodel metamodel) {
+		Map<Class<?>, ExampleMetadata> metadata = new HashMap<Class<?>, ExampleMetadata>();
+		for (ManagedType<?> managedType : metamodel.getManagedTypes()) {
+			if (managedType.getJavaType() != null) {
+				metadata.put(managedType.getJavaType(), build(managedType));
+			}
+		}
+		return Collections.unmodifiableMap(metadata);
+	}
+
+	private static ExampleMetadata build(ManagedType<?> managedType) {
+		Class<?> type = managedType.getJavaType();
+
+		// a ordem dos atributos no metamodelo não é garantida: utiliza a ordem de declaração na classe
+		List<Attribute<?, ?>> attributes = new ArrayList<Attribute<?, ?>>(managedType.getAttributes());
+		Collections.sort(attributes, declarationOrder(type));
+
+		List<ExampleProperty> properties = new ArrayList<ExampleProperty>();
+		ExampleProperty simpleId = null;
+		ExampleProperty compositeId = null;
+
+		for (Attribute<?, ?> attribute : attributes) {
+			boolean id = attribute instanceof SingularAttribute && ((SingularAttribute<?, ?>) attribute).isId();
+			ExampleProperty property = createProperty(type, attribute, resolveRole(attribute, id));
+			properties.add(property);
+
+			if (id && property.isCompositeKey()) {
+				compositeId = property;
+			} else if (id) {
+				simpleId = property;
+			}
+		}
+
+		return new ExampleMetadata(type, properties, simpleId, compositeId);
+	}
+
+	/**
+	 * Ordena os atributos pela ordem de declaração dos atributos (ou, no mapeamento por métodos, dos métodos get),
+	 * da classe para as superclasses, como em {@link ExampleMetadata}. Atributos não encontrados ficam ao final,
+	 * ordenados pelo nome.
+	 */
+	private static Comparator<Attribute<?, ?>> declarationOrder(Class<?> type) {
+		final Map<String, Integer> positions = new HashMap<String, Integer>();
+		for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+			for (Field field : clazz.getDeclaredFields()) {
+				addPosition(positions, field.getName());
+			}
+			for (Method method : clazz.getDeclaredMethods()) {
+				String name = method.getName();
+				if (method.getParameterTypes().length == 0 && name.startsWith("get") && name.length() > 3) {
+					addPosition(positions, Character.toLowerCase(name.charAt(3)) + name.substring(4));
+				} else if (method.getParameterTypes().length == 0 && name.startsWith("is") && name.length() > 2) {
+					addPosition(positions, Character.toLowerCase(name.charAt(2)) + name.substring(3));
+				}
+			}
+		}
+		return new Comparator<Attribute<?, ?>>() {
+			@Override
+			public int compare(Attribute<?, ?> a1, Attribute<?, ?> a2) {
+				Integer p1 = positions.get(a1.getName());
+				Integer p2 = positions.get(a2.getName());
+				if (p1 != null && p2 != null) {
+					return p1.compareTo(p2);
+				}
+				if (p1 != null || p2 != null) {
+					return p1 != null ? -1 : 1;
+				}
+				return a1.getName().compareTo(a2.getName());
+			}
+		};
+	}
+
+	private static void addPosition(Map<String, Integer> positions, String name) {
+		if (!positions.containsKey(name)) {
+			positions.put(name, positions.size());
+		}
+	}
+
+	private static ExampleProperty createProperty(Class<?> type, Attribute<?, ?> attribute, ExampleProperty.Role role) {
+		Member member = attribute.getJavaMember();
+		if (member instanceof Field) {
+			Field field = (Field) member;
+			return new ExampleProperty(attribute.getName(), attribute.getJavaType(), field, role, PropertyAccessor.of(field));
+		}
+		// mapeamento por métodos (property access)
+		return new ExampleProperty(attribute.getName(), attribute.getJavaType(), null, role, PropertyAccessor.of(type, attribute.getName()));
+	}
+
+	/**
+	 * Classifica o atributo de acordo com o seu tipo de mapeamento JPA.
+	 */
+	private static ExampleProperty.Role resolveRole(Attribute<?, ?> attribute, boolean id) {
+		if (attribute.isCollection()) {
+			return ExampleProperty.Role.COLLECTION;
+		}
+		switch (attribute.getPersistentAttributeType()) {
+		case MANY_TO_ONE:
+		case ONE_TO_ONE:
+			return ExampleProperty.Role.RELATIONSHIP;
+		case EMBEDDED:
+			return id ? ExampleProperty.Role.COMPOSITE_KEY : ExampleProperty.Role.SIMPLE;
+		case ONE_TO_MANY:
+		case MANY_TO_MANY:
+		case ELEMENT_COLLECTION:
+			return ExampleProperty.Role.COLLECTION;
+		default:
+			return ExampleProperty.Role.SIMPLE;
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package br.com.vcg.query.repository.plan;
+
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.jpa.JPQLSerializer;
+import com.querydsl.jpa.JPQLTemplates;
+import com.querydsl.jpa.impl.JPAQuery;
+
+/**
+ * {@link JPAQuery} que reutiliza a JPQL de consultas com o mesmo formato ({@link QueryShape}), através do
+ * {@link QueryPlanCache} da unidade de persistência. Na ausência do plano, a consulta é serializada
+ * normalmente e o plano é registrado.
+ * <br/>
+ * O formato das expressões registradas no {@link QueryShape.Memo} informado (ex: predicados fixos do filtro)
+ * não é recalculado a cada execução.
+ *
+ * @author augusto
+ */
+public class PlanCachingJPAQuery<T> extends JPAQuery<T> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient QueryPlanCache cache;
+
+	private final transient QueryShape.Memo memo;
+
+	public PlanCachingJPAQuery(EntityManager entityManager, JPQLTemplates templates, QueryMetadata metadata, QueryPlanCache cache) {
+		this(entityManager, templates, metadata, cache, null);
+	}
+
+	/**
+	 * @param memo Formatos das expressões fixas da consulta, ou null.
+	 */
+	public PlanCachingJPAQuery(EntityManager entityManager, JPQLTemplates templates, QueryMetadata metadata, QueryPlanCache cache,
+			QueryShape.Memo memo) {
+		super(entityManager, templates, metadata);
+		this.cache = cache;
+		this.memo = memo;
+	}
+
+	@Override
+	protected JPQLSerializer serialize(boolean forCount) {
+		if (getMetadata().getJoins().isEmpty()) {
+			// mantém o tratamento (e a mensagem de erro) original
+			return super.serialize(forCount);
+		}
+
+		QueryShape shape = QueryShape.of(getMetadata(), forCount, getTemplates(), memo);
+		QueryPlan plan = cache.get(shape);
+		if (plan != null) {
+			return new CachedSerializer(getTemplates(), entityManager, plan.getJpql(), plan.bind(shape));
+		}
+
+		PlanRecordingSerializer serializer = new PlanRecordingSerializer(getTemplates(), entityManager, shape);
+		serializer.serialize(getMetadata(), forCount, null);
+		plan = serializer.toPlan();
+		if (plan != null) {
+			cache.put(shape, plan);
+		}
+		return serializer;
+	}
+
+	@Override
+	public PlanCachingJPAQuery<T> clone(EntityManager entityManager, JPQLTemplates templates) {
+		PlanCachingJPAQuery<T> q = new PlanCachingJPAQuery<T>(entityManager, templates, getMetadata().clone(), cache, memo);
+		q.clone(this);
+		return q;
+	}
+
+	@Override
+	public PlanCachingJPAQuery<T> clone(EntityManager entityManager) {
+		return clone(entityManager, getTemplates());
+	}
+
+	/**
+	 * Serializador de uma consulta cujo plano já está em cache: apenas devolve a JPQL e os valores dos parâmetros.
+	 */
+	private static final class CachedSerializer extends JPQLSerializer {
+
+		private final String jpql;
+
+		private final Map<Object, String> constantToLabel;
+
+		CachedSerializer(JPQLTemplates templates, EntityManager entityManager, String jpql, Map<Object, String> constantToLabel) {
+			super(templates, entityManager);
+			this.jpql = jpql;
+			this.constantToLabel = constantToLabel;
+		}
+
+		@Override
+		public Map<Object, String> getConstantToLabel() {
+			return constantToLabel;
+		}
+
+		@Override
+		public String toString() {
+			return jpql;
+		}
+	}
+
+}
@@ -0,0 +1,177 @@
+package br.com.vcg.query.repository.plan;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import com.querydsl.core.types.Constant;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Operator;
+import com.querydsl.core.types.Ops;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Template;
+import com.querydsl.jpa.JPQLSerializer;
+import com.querydsl.jpa.JPQLTemplates;
+
+/**
+ * Serializador utilizado na primeira execução de um formato de consulta: além de gerar a JPQL, registra a
+ * origem de cada parâmetro posicional, permitindo a construção do {@link QueryPlan}.
+ * <br/>
+ * Quando a JPQL depende do valor de alguma constante (literais, conversões feitas pelo próprio serializador),
+ * o plano é marcado como não reutilizável e a consulta segue o fluxo normal, sem cache.
+ *
+ * @author augusto
+ */
+class PlanRecordingSerializer extends JPQLSerializer {
+
+	private final QueryShape shape;
+
+	/** Rótulos por identidade, para que cada ocorrência seja associada à sua própria origem. */
+	private final Map<Object, String> constantToLabel = new IdentityHashMap<Object, String>();
+
+	private final List<QueryPlan.Slot> slots = new ArrayList<QueryPlan.Slot>();
+
+	/** Valores esperados das transformações de templates (ex: "%" + valor + "%" em contains), e a sua origem. */
+	private final List<Object> pendingValues = new ArrayList<Object>();
+
+	private final List<QueryPlan.Slot> pendingSlots = new ArrayList<QueryPlan.Slot>();
+
+	private final JPQLTemplates templates;
+
+	private boolean reusable = true;
+
+	PlanRecordingSerializer(JPQLTemplates templates, EntityManager entityManager, QueryShape shape) {
+		super(templates, entityManager);
+		this.templates = templates;
+		this.shape = shape;
+	}
+
+	/**
+	 * @return O plano da consulta serializada, ou null caso a JPQL dependa dos valores das constantes.
+	 */
+	QueryPlan toPlan() {
+		return reusable ? new QueryPlan(toString(), slots) : null;
+	}
+
+	@Override
+	public Map<Object, String> getConstantToLabel() {
+		return constantToLabel;
+	}
+
+	@Override
+	protected void handleTemplate(Template template, List<?> args) {
+		int pending = pendingValues.size();
+		inspect(template, args);
+		super.handleTemplate(template, args);
+		discardPending(pending);
+	}
+
+	@Override
+	protected void visitOperation(Class<?> type, Operator operator, List<? extends Expression<?>> args) {
+		if ((operator == Ops.MATCHES || operator == Ops.MATCHES_IC || operator == Ops.NUMCAST) && hasConstant(args)) {
+			// a constante é convertida pelo serializador (regex -> like, tipo do cast)
+			reusable = false;
+		}
+		int pending = pendingValues.size();
+		Template template = templates.getTemplate(operator);
+		if (template != null) {
+			inspect(template, args);
+		}
+		super.visitOperation(type, operator, args);
+		discardPending(pending);
+	}
+
+	/**
+	 * Antecipa as transformações que o template aplicará sobre as constantes, para que os valores
+	 * produzidos possam ser associados às constantes de origem em {@link #visitConstant(Object)}.
+	 */
+	private void inspect(Template template, List<?> args) {
+		for (Template.Element element : template.getElements()) {
+			if (element instanceof Template.Transformed) {
+				Template.Transformed transformed = (Template.Transformed) element;
+				Object source = args.get(transformed.getIndex());
+				int index = source instanceof Constant ? shape.indexOf(((Constant<?>) source).getConstant()) : -1;
+				if (index >= 0) {
+					Object rv = transformed.convert(args);
+					if (rv instanceof Constant) {
+						pendingValues.add(((Constant<?>) rv).getConstant());
+						pendingSlots.add(QueryPlan.Slot.transformed(null, index, transformed));
+					}
+				}
+			} else if (element instanceof Template.AsString && args.get(((Template.AsString) element).getIndex()) instanceof Constant) {
+				// o valor da constante é escrito diretamente na JPQL
+				reusable = false;
+			}
+		}
+	}
+
+	private void discardPending(int size) {
+		pendingValues.subList(size, pendingValues.size()).clear();
+		pendingSlots.subList(size, pendingSlots.size()).clear();
+	}
+
+	/**
+	 * @return A origem do valor produzido por uma transformação de template, ou null.
+	 */
+	private QueryPlan.Slot consumePending(Object constant) {
+		for (int i = 0; i < pendingValues.size(); i++) {
+			Object value = pendingValues.get(i);
+			if (value == null ? constant == null : value.equals(constant)) {
+				pendingValues.remove(i);
+				return pendingSlots.remove(i);
+			}
+		}
+		return null;
+	}
+
+	private static boolean hasConstant(List<? extends Expression<?>> args) {
+		for (Expression<?> arg : args) {
+			if (arg instanceof Constant) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void visitConstant(Object constant) {
+		int size = constantToLabel.size();
+		super.visitConstant(constant);
+		if (constantToLabel.size() == size) {
+			// mesma instância já registrada
+			return;
+		}
+		String label = constantToLabel.get(constant);
+		int index = shape.indexOf(constant);
+		if (index >= 0) {
+			slots.add(QueryPlan.Slot.constant(label, index));
+			return;
+		}
+		QueryPlan.Slot transformation = consumePending(constant);
+		if (transformation != null) {
+			slots.add(transformation.withLabel(label));
+		} else {
+			reusable = false;
+		}
+	}
+
+	@Override
+	public void visitLiteral(Object constant) {
+		reusable = false;
+		super.visitLiteral(constant);
+	}
+
+	@Override
+	public Void visit(ParamExpression<?> param, Void context) {
+		int size = constantToLabel.size();
+		super.visit(param, context);
+		if (constantToLabel.size() > size) {
+			slots.add(QueryPlan.Slot.param(constantToLabel.get(param), param));
+		}
+		return null;
+	}
+
+}
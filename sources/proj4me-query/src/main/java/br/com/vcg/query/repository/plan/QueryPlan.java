@@ -0,0 +1,115 @@
+package br.com.vcg.query.repository.plan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.querydsl.core.types.Constant;
+import com.querydsl.core.types.ConstantImpl;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Template;
+
+/**
+ * Plano de execução de um formato de consulta ({@link QueryShape}): a JPQL já serializada e a origem de cada
+ * um dos seus parâmetros posicionais. Imutável, pode ser compartilhado entre threads.
+ *
+ * @author augusto
+ */
+public final class QueryPlan {
+
+	private final String jpql;
+
+	private final List<Slot> slots;
+
+	QueryPlan(String jpql, List<Slot> slots) {
+		this.jpql = jpql;
+		this.slots = Collections.unmodifiableList(new ArrayList<Slot>(slots));
+	}
+
+	public String getJpql() {
+		return jpql;
+	}
+
+	/**
+	 * @return Quantidade de parâmetros posicionais da JPQL.
+	 */
+	public int getParameterCount() {
+		return slots.size();
+	}
+
+	/**
+	 * Associa os valores de uma consulta, com o mesmo formato do plano, aos parâmetros da JPQL.
+	 * @param shape Formato da consulta sendo executada, com as suas constantes.
+	 * @return Mapa valor -> rótulo do parâmetro, no formato esperado por {@link com.querydsl.jpa.impl.JPAUtil}.
+	 */
+	Map<Object, String> bind(QueryShape shape) {
+		List<Object> constants = shape.getConstants();
+		Map<Object, String> constantToLabel = new IdentityHashMap<Object, String>(slots.size() * 2);
+		for (Slot slot : slots) {
+			constantToLabel.put(slot.resolve(constants), slot.label);
+		}
+		return constantToLabel;
+	}
+
+	@Override
+	public String toString() {
+		return jpql;
+	}
+
+	/**
+	 * Origem do valor de um parâmetro posicional.
+	 */
+	static final class Slot {
+
+		private final String label;
+
+		/** Posição da constante em {@link QueryShape#getConstants()}, quando não for um {@link ParamExpression}. */
+		private final int constantIndex;
+
+		/** Transformação aplicada à constante pelo template (ex: "%" + valor + "%" em contains), ou null. */
+		private final Template.Transformed transformation;
+
+		private final ParamExpression<?> param;
+
+		private Slot(String label, int constantIndex, Template.Transformed transformation, ParamExpression<?> param) {
+			this.label = label;
+			this.constantIndex = constantIndex;
+			this.transformation = transformation;
+			this.param = param;
+		}
+
+		static Slot constant(String label, int constantIndex) {
+			return new Slot(label, constantIndex, null, null);
+		}
+
+		static Slot transformed(String label, int constantIndex, Template.Transformed transformation) {
+			return new Slot(label, constantIndex, transformation, null);
+		}
+
+		static Slot param(String label, ParamExpression<?> param) {
+			return new Slot(label, -1, null, param);
+		}
+
+		Slot withLabel(String newLabel) {
+			return new Slot(newLabel, constantIndex, transformation, param);
+		}
+
+		private Object resolve(List<Object> constants) {
+			if (param != null) {
+				// o valor é resolvido pelo JPAUtil a partir dos parâmetros dos metadados
+				return param;
+			}
+			Object constant = constants.get(constantIndex);
+			if (transformation == null) {
+				return constant;
+			}
+			List<Object> args = Arrays.asList(new Object[transformation.getIndex() + 1]);
+			args.set(transformation.getIndex(), ConstantImpl.create(constant));
+			return ((Constant<?>) transformation.convert(args)).getConstant();
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+package br.com.vcg.query.repository.plan;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Cache limitado de planos de consulta ({@link QueryPlan}) por formato ({@link QueryShape}). Consultas
+ * repetidas, com o mesmo formato e valores diferentes, reutilizam a JPQL já serializada, evitando a
+ * serialização a cada execução e mantendo o texto estável para o cache de consultas do provedor JPA.
+ * <br/>
+ * As leituras não utilizam bloqueios: os planos são mantidos em um {@link ConcurrentHashMap} e, ao exceder o
+ * tamanho máximo, os planos menos utilizados recentemente (LRU aproximado, pelo instante do último acesso) são
+ * descartados.
+ * <br/>
+ * É mantida uma instância por {@link EntityManagerFactory}, obtida através de {@link #of(EntityManagerFactory)}.
+ *
+ * @author augusto
+ */
+public final class QueryPlanCache {
+
+	/** Quantidade máxima de planos mantidos por unidade de persistência. */
+	public static final int DEFAULT_MAX_SIZE = 500;
+
+	/**
+	 * Caches por {@link EntityManagerFactory}. As entradas de EntityManagerFactories fechados são descartadas na
+	 * criação de um novo cache.
+	 */
+	private static final ConcurrentMap<EntityManagerFactory, QueryPlanCache> CACHES =
+			new ConcurrentHashMap<EntityManagerFactory, QueryPlanCache>();
+
+	private final ConcurrentMap<QueryShape, Entry> plans = new ConcurrentHashMap<QueryShape, Entry>();
+
+	private final int maxSize;
+
+	/** Relógio lógico dos acessos, para o descarte dos planos menos utilizados. */
+	private final AtomicLong clock = new AtomicLong();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	public QueryPlanCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @param emf EntityManagerFactory da unidade de persistência.
+	 * @return Cache de planos da unidade de persistência.
+	 */
+	public static QueryPlanCache of(EntityManagerFactory emf) {
+		QueryPlanCache cache = CACHES.get(emf);
+		if (cache == null) {
+			discardClosed();
+			cache = new QueryPlanCache(DEFAULT_MAX_SIZE);
+			QueryPlanCache previous = CACHES.putIfAbsent(emf, cache);
+			cache = previous != null ? previous : cache;
+		}
+		return cache;
+	}
+
+	/**
+	 * Descarta os caches de EntityManagerFactories que já foram fechados.
+	 */
+	private static void discardClosed() {
+		for (Iterator<EntityManagerFactory> it = CACHES.keySet().iterator(); it.hasNext();) {
+			if (!it.next().isOpen()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return O plano do formato informado, ou null caso ainda não tenha sido registrado.
+	 */
+	public QueryPlan get(QueryShape shape) {
+		Entry entry = plans.get(shape);
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		entry.lastAccess = clock.incrementAndGet();
+		return entry.plan;
+	}
+
+	/**
+	 * Registra o plano do formato informado. As constantes da consulta não são mantidas no cache.
+	 */
+	public void put(QueryShape shape, QueryPlan plan) {
+		plans.put(shape.withoutConstants(), new Entry(plan, clock.incrementAndGet()));
+		if (plans.size() > maxSize) {
+			evict();
+		}
+	}
+
+	/**
+	 * Descarta os planos acessados há mais tempo, até que o cache volte a ter no máximo 90% do tamanho máximo
+	 * (evitando uma varredura a cada novo plano registrado).
+	 */
+	private synchronized void evict() {
+		if (plans.size() <= maxSize) {
+			// já descartados por outra thread
+			return;
+		}
+		int excess = plans.size() - maxSize * 9 / 10;
+		long[] accesses = new long[plans.size()];
+		int count = 0;
+		for (Entry entry : plans.values()) {
+			if (count == accesses.length) {
+				break;
+			}
+			accesses[count++] = entry.lastAccess;
+		}
+		Arrays.sort(accesses, 0, count);
+		long threshold = accesses[Math.min(excess, count) - 1];
+		for (Iterator<Map.Entry<QueryShape, Entry>> it = plans.entrySet().iterator(); it.hasNext();) {
+			if (it.next().getValue().lastAccess <= threshold) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return Quantidade de consultas que reutilizaram um plano.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return Quantidade de consultas sem plano registrado.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public int size() {
+		return plans.size();
+	}
+
+	/**
+	 * Remove todos os planos e reinicia os contadores.
+	 */
+	public void clear() {
+		plans.clear();
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * Plano e o instante (relógio lógico) do seu último acesso.
+	 */
+	private static final class Entry {
+
+		private final QueryPlan plan;
+
+		private volatile long lastAccess;
+
+		Entry(QueryPlan plan, long lastAccess) {
+			this.plan = plan;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+}
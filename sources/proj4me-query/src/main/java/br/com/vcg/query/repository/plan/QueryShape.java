@@ -0,0 +1,499 @@
+package br.com.vcg.query.repository.plan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.querydsl.core.JoinExpression;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.Constant;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.FactoryExpression;
+import com.querydsl.core.types.Operation;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.ParamExpression;
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.SubQueryExpression;
+import com.querydsl.core.types.TemplateExpression;
+import com.querydsl.core.types.Visitor;
+
+/**
+ * "Formato" normalizado de uma consulta: a estrutura dos metadados (joins, operadores, caminhos, ordenação,
+ * projeção), sem os valores das constantes. Duas consultas com o mesmo formato geram a mesma JPQL,
+ * diferindo apenas nos valores dos parâmetros.
+ * <br/>
+ * As constantes são substituídas pelo seu tipo (ou por uma referência a uma ocorrência anterior da mesma instância)
+ * e mantidas, na ordem em que foram encontradas, em {@link #getConstants()}, para o preenchimento dos parâmetros.
+ * <br/>
+ * Expressões que se repetem em todas as execuções (ex: predicados fixos de um filtro) podem ser registradas em um
+ * {@link Memo}: o seu formato é calculado uma única vez e, nas execuções seguintes, apenas as suas constantes são
+ * coletadas, sem percorrer novamente a árvore.
+ *
+ * @author augusto
+ */
+public final class QueryShape {
+
+	private final Object[] tokens;
+
+	private final int hashCode;
+
+	/** Constantes encontradas, na ordem de visitação (não fazem parte da identidade do formato). */
+	private final List<Object> constants;
+
+	private QueryShape(Object[] tokens, List<Object> constants) {
+		this.tokens = tokens;
+		this.hashCode = Arrays.hashCode(tokens);
+		this.constants = constants;
+	}
+
+	/**
+	 * @param metadata Metadados da consulta.
+	 * @param forCount true se a consulta será serializada para contagem.
+	 * @param context Demais informações que interferem na serialização (ex: templates).
+	 * @return O formato da consulta.
+	 */
+	public static QueryShape of(QueryMetadata metadata, boolean forCount, Object context) {
+		return of(metadata, forCount, context, null);
+	}
+
+	/**
+	 * @param metadata Metadados da consulta.
+	 * @param forCount true se a consulta será serializada para contagem.
+	 * @param context Demais informações que interferem na serialização (ex: templates).
+	 * @param memo Formatos já calculados das expressões fixas da consulta, ou null.
+	 * @return O formato da consulta.
+	 */
+	public static QueryShape of(QueryMetadata metadata, boolean forCount, Object context, Memo memo) {
+		ShapeVisitor visitor = new ShapeVisitor(memo);
+		visitor.tokens.add(context);
+		visitor.tokens.add(forCount);
+		visitor.visitMetadata(metadata);
+		return new QueryShape(visitor.tokens.toArray(), Collections.unmodifiableList(visitor.constants));
+	}
+
+	/**
+	 * @return Cópia deste formato sem as constantes, para ser mantida em cache sem reter os valores da consulta.
+	 */
+	QueryShape withoutConstants() {
+		return new QueryShape(tokens, Collections.emptyList());
+	}
+
+	/**
+	 * @return Constantes encontradas na consulta, na ordem de visitação.
+	 */
+	public List<Object> getConstants() {
+		return constants;
+	}
+
+	/**
+	 * @return Posição da constante (mesma instância) em {@link #getConstants()}, ou -1.
+	 */
+	int indexOf(Object constant) {
+		for (int i = 0; i < constants.size(); i++) {
+			if (constants.get(i) == constant) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof QueryShape)) {
+			return false;
+		}
+		QueryShape other = (QueryShape) obj;
+		return hashCode == other.hashCode && Arrays.equals(tokens, other.tokens);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(tokens);
+	}
+
+	/**
+	 * Marcadores de estrutura.
+	 */
+	private enum Marker {
+		JOIN, WHERE, GROUP_BY, HAVING, ORDER_BY, PROJECTION, SUBQUERY, FACTORY, TEMPLATE, NULL, END,
+		EMPTY_COLLECTION, FRAGMENT
+	}
+
+	/**
+	 * Referência a uma constante (mesma instância) encontrada anteriormente.
+	 */
+	private static final class ConstantRef {
+
+		private final int index;
+
+		ConstantRef(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public int hashCode() {
+			return index;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ConstantRef && ((ConstantRef) obj).index == index;
+		}
+
+		@Override
+		public String toString() {
+			return "#" + index;
+		}
+	}
+
+	/**
+	 * Constante de um fragmento ({@link Memo}) que é a mesma instância de uma constante encontrada anteriormente
+	 * na consulta.
+	 */
+	private static final class ConstantAlias {
+
+		private final int fragmentIndex;
+
+		private final int index;
+
+		ConstantAlias(int fragmentIndex, int index) {
+			this.fragmentIndex = fragmentIndex;
+			this.index = index;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * fragmentIndex + index;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ConstantAlias)) {
+				return false;
+			}
+			ConstantAlias other = (ConstantAlias) obj;
+			return other.fragmentIndex == fragmentIndex && other.index == index;
+		}
+
+		@Override
+		public String toString() {
+			return "#" + fragmentIndex + "=#" + index;
+		}
+	}
+
+	/**
+	 * Formato de uma expressão registrada em um {@link Memo}, sem as constantes: é o token que a representa no
+	 * formato da consulta.
+	 */
+	private static final class FragmentShape {
+
+		private final Object[] tokens;
+
+		private final int hashCode;
+
+		FragmentShape(Object[] tokens) {
+			this.tokens = tokens;
+			this.hashCode = Arrays.hashCode(tokens);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof FragmentShape)) {
+				return false;
+			}
+			FragmentShape other = (FragmentShape) obj;
+			return hashCode == other.hashCode && Arrays.equals(tokens, other.tokens);
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(tokens);
+		}
+	}
+
+	/**
+	 * Expressão registrada em um {@link Memo}: o seu formato e as suas constantes, na ordem de visitação.
+	 */
+	private static final class Fragment {
+
+		private final Expression<?> source;
+
+		private final FragmentShape shape;
+
+		private final Object[] constants;
+
+		/** Parâmetros ({@link ParamExpression}) encontrados na expressão. */
+		private final List<ParamExpression<?>> params = new ArrayList<ParamExpression<?>>(0);
+
+		Fragment(Expression<?> source) {
+			this.source = source;
+			ShapeVisitor visitor = new ShapeVisitor(null);
+			source.accept(visitor, null);
+			this.shape = new FragmentShape(visitor.tokens.toArray());
+			this.constants = visitor.constants.toArray();
+			for (Object token : visitor.tokens) {
+				if (token instanceof ParamExpression) {
+					params.add((ParamExpression<?>) token);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Formatos das expressões fixas de uma consulta (ex: os predicados de um filtro reutilizado ou de um
+	 * {@link br.com.vcg.query.repository.QueryTemplate}), identificadas pela instância. Mantido junto à
+	 * configuração da consulta, e não no {@link QueryPlanCache}, pois as expressões retêm as suas constantes.
+	 * <br/>
+	 * As leituras não utilizam bloqueios. Expressões que deixam de ser utilizadas são descartadas quando o limite
+	 * de expressões registradas é atingido.
+	 */
+	public static final class Memo {
+
+		private static final int MAX_SIZE = 32;
+
+		private static final Fragment[] EMPTY = new Fragment[0];
+
+		private volatile Fragment[] fragments = EMPTY;
+
+		/**
+		 * Registra a expressão, calculando o seu formato caso ainda não tenha sido registrada.
+		 * @param expression Expressão fixa da consulta (pode ser null).
+		 */
+		public void register(Expression<?> expression) {
+			if (expression == null || expression instanceof Path || expression instanceof Constant
+					|| find(expression) != null) {
+				// caminhos e constantes não são percorridos
+				return;
+			}
+			Fragment fragment = new Fragment(expression);
+			synchronized (this) {
+				Fragment[] current = fragments.length < MAX_SIZE ? fragments : EMPTY;
+				Fragment[] updated = Arrays.copyOf(current, current.length + 1);
+				updated[current.length] = fragment;
+				fragments = updated;
+			}
+		}
+
+		/**
+		 * Registra a expressão e verifica, sem percorrer novamente a árvore, se ela contém algum parâmetro do tipo
+		 * informado.
+		 * @param expression Expressão fixa da consulta (pode ser null).
+		 * @param type Tipo do parâmetro (ex: ParamExample).
+		 * @return true se a expressão contém um parâmetro do tipo informado.
+		 */
+		public boolean containsParam(Expression<?> expression, Class<?> type) {
+			register(expression);
+			Fragment fragment = find(expression);
+			if (fragment == null) {
+				// null, caminho ou constante
+				return type.isInstance(expression);
+			}
+			for (ParamExpression<?> param : fragment.params) {
+				if (type.isInstance(param)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return O fragmento registrado para a expressão (mesma instância), ou null.
+		 */
+		private Fragment find(Object expression) {
+			for (Fragment fragment : fragments) {
+				if (fragment.source == expression) {
+					return fragment;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return Quantidade de expressões registradas.
+		 */
+		public int size() {
+			return fragments.length;
+		}
+	}
+
+	/**
+	 * Percorre os metadados registrando a estrutura e as constantes.
+	 */
+	private static final class ShapeVisitor implements Visitor<Void, Void> {
+
+		private final List<Object> tokens = new ArrayList<Object>();
+
+		private final List<Object> constants = new ArrayList<Object>();
+
+		private final Map<Object, Integer> constantIndexes = new IdentityHashMap<Object, Integer>();
+
+		private final Memo memo;
+
+		ShapeVisitor(Memo memo) {
+			this.memo = memo;
+		}
+
+		void visitMetadata(QueryMetadata metadata) {
+			tokens.add(metadata.isDistinct());
+			tokens.add(metadata.getFlags());
+			for (JoinExpression join : metadata.getJoins()) {
+				tokens.add(Marker.JOIN);
+				tokens.add(join.getType());
+				tokens.add(join.getFlags());
+				handle(join.getTarget());
+				handle(join.getCondition());
+			}
+			tokens.add(Marker.WHERE);
+			handle(metadata.getWhere());
+			tokens.add(Marker.GROUP_BY);
+			handle(metadata.getGroupBy());
+			tokens.add(Marker.HAVING);
+			handle(metadata.getHaving());
+			tokens.add(Marker.ORDER_BY);
+			for (OrderSpecifier<?> order : metadata.getOrderBy()) {
+				tokens.add(order.getOrder());
+				tokens.add(order.getNullHandling());
+				handle(order.getTarget());
+			}
+			tokens.add(Marker.PROJECTION);
+			handle(metadata.getProjection());
+			tokens.add(Marker.END);
+		}
+
+		private void handle(Expression<?> expression) {
+			if (expression == null) {
+				tokens.add(Marker.NULL);
+			} else {
+				visit(expression);
+			}
+		}
+
+		/**
+		 * Visita a expressão ou, quando registrada no {@link Memo}, apenas o seu formato pré-calculado e as
+		 * suas constantes.
+		 */
+		private void visit(Expression<?> expression) {
+			Fragment fragment = memo != null && !(expression instanceof Path) && !(expression instanceof Constant)
+					? memo.find(expression) : null;
+			if (fragment == null) {
+				expression.accept(this, null);
+				return;
+			}
+			tokens.add(Marker.FRAGMENT);
+			tokens.add(fragment.shape);
+			for (int i = 0; i < fragment.constants.length; i++) {
+				Object constant = fragment.constants[i];
+				Integer index = constantIndexes.get(constant);
+				if (index != null) {
+					// mesma instância encontrada fora do fragmento
+					tokens.add(new ConstantAlias(i, index));
+				} else {
+					constantIndexes.put(constant, constants.size());
+					constants.add(constant);
+				}
+			}
+		}
+
+		private void handle(List<?> args) {
+			for (Object arg : args) {
+				if (arg instanceof Expression) {
+					visit((Expression<?>) arg);
+				} else {
+					// argumentos de templates que não são expressões são serializados como constantes
+					handleConstant(arg);
+				}
+			}
+			tokens.add(Marker.END);
+		}
+
+		private void handleConstant(Object constant) {
+			Integer index = constantIndexes.get(constant);
+			if (index != null) {
+				tokens.add(new ConstantRef(index));
+				return;
+			}
+			constantIndexes.put(constant, constants.size());
+			constants.add(constant);
+			tokens.add(constant == null ? Marker.NULL : constant.getClass());
+			if (constant instanceof Class) {
+				// classes são escritas diretamente na JPQL (ex: cast, treat)
+				tokens.add(constant);
+			} else if (constant instanceof Collection && ((Collection<?>) constant).isEmpty()) {
+				// coleções vazias são serializadas de forma diferente (ex: "1 = 2" para IN)
+				tokens.add(Marker.EMPTY_COLLECTION);
+			}
+		}
+
+		@Override
+		public Void visit(Constant<?> expr, Void context) {
+			handleConstant(expr.getConstant());
+			return null;
+		}
+
+		@Override
+		public Void visit(FactoryExpression<?> expr, Void context) {
+			tokens.add(Marker.FACTORY);
+			tokens.add(expr.getClass());
+			tokens.add(expr.getType());
+			handle(expr.getArgs());
+			return null;
+		}
+
+		@Override
+		public Void visit(Operation<?> expr, Void context) {
+			tokens.add(expr.getOperator());
+			tokens.add(expr.getType());
+			handle(expr.getArgs());
+			return null;
+		}
+
+		@Override
+		public Void visit(ParamExpression<?> expr, Void context) {
+			tokens.add(expr);
+			return null;
+		}
+
+		@Override
+		public Void visit(Path<?> expr, Void context) {
+			tokens.add(expr);
+			tokens.add(expr.getType());
+			return null;
+		}
+
+		@Override
+		public Void visit(SubQueryExpression<?> expr, Void context) {
+			tokens.add(Marker.SUBQUERY);
+			visitMetadata(expr.getMetadata());
+			return null;
+		}
+
+		@Override
+		public Void visit(TemplateExpression<?> expr, Void context) {
+			tokens.add(Marker.TEMPLATE);
+			tokens.add(expr.getTemplate());
+			handle(expr.getArgs());
+			return null;
+		}
+	}
+
+}
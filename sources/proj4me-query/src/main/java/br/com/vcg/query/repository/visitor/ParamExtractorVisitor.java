@@ -18,7 +18,10 @@ import com.querydsl.core.types.Visitor;
 
 /**
  * Extrai os parâmetros encontrados em uma (sub)árvore de expressões, armazenando-os no contexto.
+ * @deprecated Não é mais utilizado no processamento das consultas: os ParamExample são compilados e registrados
+ * em uma única passagem por {@link br.com.vcg.query.repository.ParamExamplePredicate}.
  */
+@Deprecated
 public final class ParamExtractorVisitor implements Visitor<Void, VisitorContext> {
       
     public static final ParamExtractorVisitor DEFAULT = new ParamExtractorVisitor();
@@ -12,7 +12,10 @@ import com.querydsl.core.types.Path;
  * Estas informações geralmente são definidas no momento da configuração do {@link QueryFilter}, na definição
  * de operações sobre os atributos de um objeto exemplo. 
  * @author augusto
+ * @deprecated Utilizado apenas pelos visitors legados; o processamento das consultas utiliza
+ * {@link br.com.vcg.query.repository.ParamExamplePredicate}.
  */
+@Deprecated
 public class ParamPathPair {
 
 	private Path<?> path;
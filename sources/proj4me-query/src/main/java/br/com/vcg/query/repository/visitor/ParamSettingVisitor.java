@@ -17,7 +17,10 @@ import com.querydsl.core.types.Visitor;
 
 /**
  * Seta os parâmetros que estão no contexto no jpaQuery.
+ * @deprecated Não é mais utilizado no processamento das consultas, ver
+ * {@link br.com.vcg.query.repository.ParamExamplePredicate#bind(com.querydsl.core.types.Predicate, Object, com.querydsl.core.QueryMetadata, java.util.Set)}.
  */
+@Deprecated
 public final class ParamSettingVisitor implements Visitor<Void, VisitorContext> {
       
     public static final ParamSettingVisitor DEFAULT = new ParamSettingVisitor();
@@ -14,8 +14,10 @@ import com.querydsl.core.types.ParamExpression;
  * Visitor para substituir os ParamExample genéricos (com tipagem em Object) para ParamExample com a tipagem correspondente do atributo do exemplo.
  * 
  * @author augusto
- *
+ * @deprecated Não é mais utilizado no processamento das consultas, ver
+ * {@link br.com.vcg.query.repository.ParamExamplePredicate#bind(com.querydsl.core.types.Predicate, Object, com.querydsl.core.QueryMetadata, java.util.Set)}.
  */
+@Deprecated
 public class ReplaceVisitorParamExample<CONTEXT> extends ReplaceVisitor<CONTEXT> {
 		private final VisitorContext myContext;
 
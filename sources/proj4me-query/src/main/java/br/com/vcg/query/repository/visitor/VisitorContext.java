@@ -22,7 +22,10 @@ import com.querydsl.core.types.dsl.Expressions;
 /**
  * Armazena o path e o parâmetro relacionados em uma expressão. 
  * @author augusto
+ * @deprecated Utilizado apenas pelos visitors legados; o processamento das consultas utiliza
+ * {@link br.com.vcg.query.repository.ParamExamplePredicate}.
  */
+@Deprecated
 public class VisitorContext {
 
 	/**
@@ -0,0 +1,262 @@
+package br.com.vcg.query.util;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import br.com.vcg.query.exception.QbeException;
+
+/**
+ * Acesso compilado (via {@link MethodHandle}) à leitura e escrita de uma propriedade de uma classe.
+ * Os métodos get/set são priorizados e, caso não existam, o acesso é feito diretamente ao atributo.
+ * <br/>
+ * Os acessores são resolvidos uma única vez por classe e propriedade e mantidos em cache, podendo ser
+ * compartilhados entre threads. Desta forma, a reflexão (e o controle de fluxo por exceções) fica restrita
+ * à primeira utilização.
+ *
+ * @author augusto
+ */
+public final class PropertyAccessor {
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	/** Marcador para propriedades inexistentes (ConcurrentHashMap não aceita null). */
+	private static final PropertyAccessor NOT_FOUND = new PropertyAccessor(Object.class, "", Object.class, null, null);
+
+	/** Acessores de propriedades (get/set, com fallback para o atributo), por classe. */
+	private static final ClassValue<ConcurrentMap<String, PropertyAccessor>> PROPERTIES = new ClassValue<ConcurrentMap<String, PropertyAccessor>>() {
+		@Override
+		protected ConcurrentMap<String, PropertyAccessor> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, PropertyAccessor>();
+		}
+	};
+
+	/** Acessores diretos a atributos, por classe que declara o atributo. */
+	private static final ClassValue<ConcurrentMap<String, PropertyAccessor>> FIELDS = new ClassValue<ConcurrentMap<String, PropertyAccessor>>() {
+		@Override
+		protected ConcurrentMap<String, PropertyAccessor> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, PropertyAccessor>();
+		}
+	};
+
+	private final Class<?> ownerType;
+
+	private final String name;
+
+	private final Class<?> type;
+
+	private final MethodHandle getter;
+
+	private final MethodHandle setter;
+
+	private PropertyAccessor(Class<?> ownerType, String name, Class<?> type, MethodHandle getter, MethodHandle setter) {
+		this.ownerType = ownerType;
+		this.name = name;
+		this.type = type;
+		this.getter = getter;
+		this.setter = setter;
+	}
+
+	/**
+	 * Recupera o acessor de uma propriedade simples (sem dot notation).
+	 * @param type Classe que contém a propriedade.
+	 * @param property Nome da propriedade.
+	 * @return Acessor da propriedade.
+	 * @throws QbeException Caso a propriedade não exista.
+	 */
+	public static PropertyAccessor of(Class<?> type, String property) {
+		PropertyAccessor accessor = find(type, property);
+		if (accessor == null) {
+			throw new QbeException("A propriedade " + type.getSimpleName() + "." + property + " não existe.");
+		}
+		return accessor;
+	}
+
+	/**
+	 * Recupera o acessor de uma propriedade simples (sem dot notation).
+	 * @param type Classe que contém a propriedade.
+	 * @param property Nome da propriedade.
+	 * @return Acessor da propriedade, ou null caso a propriedade não exista.
+	 */
+	public static PropertyAccessor find(Class<?> type, String property) {
+		ConcurrentMap<String, PropertyAccessor> cache = PROPERTIES.get(type);
+		PropertyAccessor accessor = cache.get(property);
+		if (accessor == null) {
+			accessor = createPropertyAccessor(type, property);
+			PropertyAccessor previous = cache.putIfAbsent(property, accessor);
+			accessor = previous != null ? previous : accessor;
+		}
+		return accessor == NOT_FOUND ? null : accessor;
+	}
+
+	/**
+	 * Recupera o acessor direto (sem utilização de get/set) de um atributo.
+	 * @param field Atributo.
+	 * @return Acessor do atributo.
+	 */
+	public static PropertyAccessor of(Field field) {
+		ConcurrentMap<String, PropertyAccessor> cache = FIELDS.get(field.getDeclaringClass());
+		PropertyAccessor accessor = cache.get(field.getName());
+		if (accessor == null) {
+			accessor = createFieldAccessor(field.getDeclaringClass(), field);
+			PropertyAccessor previous = cache.putIfAbsent(field.getName(), accessor);
+			accessor = previous != null ? previous : accessor;
+		}
+		return accessor;
+	}
+
+	/**
+	 * Resolve os métodos get/set da propriedade. Caso algum deles não exista, utiliza o acesso direto ao atributo.
+	 */
+	private static PropertyAccessor createPropertyAccessor(Class<?> type, String property) {
+		PropertyDescriptor descriptor = findDescriptor(type, property);
+		Field field = findField(type, property);
+
+		if (descriptor == null && field == null) {
+			return NOT_FOUND;
+		}
+
+		try {
+			Method readMethod = descriptor != null ? descriptor.getReadMethod() : null;
+			Method writeMethod = descriptor != null ? descriptor.getWriteMethod() : null;
+			Class<?> propertyType = descriptor != null ? descriptor.getPropertyType() : field.getType();
+
+			MethodHandle getter = readMethod != null ? unreflect(readMethod)
+					: field != null ? unreflectGetter(field) : null;
+			MethodHandle setter = writeMethod != null ? unreflect(writeMethod)
+					: field != null ? unreflectSetter(field) : null;
+
+			return new PropertyAccessor(type, property, propertyType, adapt(getter, GETTER_TYPE), adapt(setter, SETTER_TYPE));
+
+		} catch (IllegalAccessException e) {
+			throw new QbeException("Não foi possível criar o acesso à propriedade " + type.getSimpleName() + "." + property, e);
+		}
+	}
+
+	private static PropertyAccessor createFieldAccessor(Class<?> type, Field field) {
+		try {
+			// cópia própria do atributo, para não alterar a acessibilidade do Field informado
+			Field copy = type.getDeclaredField(field.getName());
+			return new PropertyAccessor(type, copy.getName(), copy.getType(),
+					adapt(unreflectGetter(copy), GETTER_TYPE), adapt(unreflectSetter(copy), SETTER_TYPE));
+		} catch (NoSuchFieldException e) {
+			throw new QbeException("Não foi possível criar o acesso ao atributo " + field, e);
+		} catch (IllegalAccessException e) {
+			throw new QbeException("Não foi possível criar o acesso ao atributo " + field, e);
+		}
+	}
+
+	private static PropertyDescriptor findDescriptor(Class<?> type, String property) {
+		try {
+			BeanInfo beanInfo = Introspector.getBeanInfo(type);
+			for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+				if (descriptor.getName().equals(property)) {
+					return descriptor;
+				}
+			}
+		} catch (IntrospectionException e) {
+			throw new QbeException("Não foi possível analisar as propriedades da classe " + type.getName(), e);
+		}
+		return null;
+	}
+
+	/**
+	 * Procura o atributo na classe e nas suas superclasses, sem utilizar exceções como controle de fluxo.
+	 */
+	private static Field findField(Class<?> type, String property) {
+		for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+			for (Field field : clazz.getDeclaredFields()) {
+				if (field.getName().equals(property)) {
+					return field;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static MethodHandle unreflect(Method method) throws IllegalAccessException {
+		method.setAccessible(true);
+		return LOOKUP.unreflect(method);
+	}
+
+	private static MethodHandle unreflectGetter(Field field) throws IllegalAccessException {
+		field.setAccessible(true);
+		return LOOKUP.unreflectGetter(field);
+	}
+
+	private static MethodHandle unreflectSetter(Field field) throws IllegalAccessException {
+		field.setAccessible(true);
+		return LOOKUP.unreflectSetter(field);
+	}
+
+	private static MethodHandle adapt(MethodHandle handle, MethodType type) {
+		return handle == null ? null : handle.asType(type);
+	}
+
+	/**
+	 * Recupera o valor da propriedade.
+	 * @param target Objeto que contém a propriedade.
+	 * @return Valor da propriedade.
+	 */
+	public Object get(Object target) {
+		if (getter == null) {
+			throw new QbeException("A propriedade " + ownerType.getSimpleName() + "." + name + " não permite leitura.");
+		}
+		try {
+			return (Object) getter.invokeExact(target);
+		} catch (Throwable e) {
+			throw new QbeException("Falha ao recuperar valor da propriedade: " + target + " " + ownerType.getSimpleName() + "." + name, e);
+		}
+	}
+
+	/**
+	 * Altera o valor da propriedade.
+	 * @param target Objeto que contém a propriedade.
+	 * @param value Novo valor.
+	 */
+	public void set(Object target, Object value) {
+		if (setter == null) {
+			throw new QbeException("A propriedade " + ownerType.getSimpleName() + "." + name + " não permite alteração.");
+		}
+		try {
+			setter.invokeExact(target, value);
+		} catch (Throwable e) {
+			throw new QbeException("Não foi possível alterar o valor da propriedade: " + ownerType.getSimpleName() + "." + name, e);
+		}
+	}
+
+	/**
+	 * @return Classe onde a propriedade foi resolvida.
+	 */
+	public Class<?> getOwnerType() {
+		return ownerType;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Tipo declarado da propriedade.
+	 */
+	public Class<?> getType() {
+		return type;
+	}
+
+	@Override
+	public String toString() {
+		return ownerType.getSimpleName() + "." + name;
+	}
+}
@@ -0,0 +1,183 @@
+package br.com.vcg.query.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.PathMetadata;
+import com.querydsl.core.types.PathType;
+
+import br.com.vcg.query.exception.QbeException;
+
+/**
+ * Caminho compilado para uma propriedade aninhada ("dot notation"), a partir de uma classe raiz.
+ * Ex: <code>PropertyPath.of(Servidor.class, "cidade.uf")</code>.
+ * <br/>
+ * Cada segmento do caminho é resolvido uma única vez (pelo tipo declarado da propriedade) em um
+ * {@link PropertyAccessor}. As instâncias são imutáveis e mantidas em cache por classe raiz e caminho,
+ * podendo ser compartilhadas entre threads.
+ *
+ * @author augusto
+ */
+public final class PropertyPath {
+
+	private static final ClassValue<ConcurrentMap<String, PropertyPath>> CACHE = new ClassValue<ConcurrentMap<String, PropertyPath>>() {
+		@Override
+		protected ConcurrentMap<String, PropertyPath> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, PropertyPath>();
+		}
+	};
+
+	private final Class<?> rootType;
+
+	private final String path;
+
+	private final String[] segments;
+
+	/**
+	 * Acessores pré-resolvidos de cada segmento. Quando um segmento não existe no tipo declarado
+	 * (ex: propriedade de uma subclasse), ele e os seguintes ficam null e são resolvidos pelo tipo real do objeto.
+	 */
+	private final PropertyAccessor[] accessors;
+
+	/**
+	 * @param rootType Classe raiz do caminho.
+	 * @param path Caminho em dot notation. Ex: "cidade.uf.sigla".
+	 * @return Caminho compilado (em cache).
+	 */
+	public static PropertyPath of(Class<?> rootType, String path) {
+		ConcurrentMap<String, PropertyPath> cache = CACHE.get(rootType);
+		PropertyPath propertyPath = cache.get(path);
+		if (propertyPath == null) {
+			propertyPath = new PropertyPath(rootType, path);
+			PropertyPath previous = cache.putIfAbsent(path, propertyPath);
+			propertyPath = previous != null ? previous : propertyPath;
+		}
+		return propertyPath;
+	}
+
+	/**
+	 * @param rootType Classe raiz do caminho.
+	 * @param path Expressão QueryDsl, cujo caminho é calculado a partir do seu elemento raiz.
+	 * @return Caminho compilado (em cache).
+	 */
+	public static PropertyPath of(Class<?> rootType, Path<?> path) {
+		return of(rootType, toDotNotation(path));
+	}
+
+	/**
+	 * @param path Expressão QueryDsl. Ex: QServidor.servidor.cidade().uf()
+	 * @return O caminho em dot notation a partir do elemento raiz, sem incluir a variável raiz. Ex: "cidade.uf"
+	 */
+	public static String toDotNotation(Path<?> path) {
+		StringBuilder dotNotation = new StringBuilder();
+		for (Path<?> current = path; current != null && !current.getMetadata().isRoot(); current = current.getMetadata().getParent()) {
+			PathMetadata metadata = current.getMetadata();
+			if (metadata.getPathType() != PathType.PROPERTY) {
+				throw new QbeException("O caminho " + path + " não é composto apenas por propriedades.");
+			}
+			if (dotNotation.length() > 0) {
+				dotNotation.insert(0, '.');
+			}
+			dotNotation.insert(0, metadata.getName());
+		}
+		return dotNotation.toString();
+	}
+
+	private PropertyPath(Class<?> rootType, String path) {
+		if (StringUtil.isStringEmpty(path)) {
+			throw new IllegalArgumentException("path não deve ser vazio.");
+		}
+		this.rootType = rootType;
+		this.path = path.trim();
+		this.segments = this.path.split("\\.");
+		this.accessors = new PropertyAccessor[segments.length];
+
+		Class<?> type = rootType;
+		for (int i = 0; i < segments.length && type != null; i++) {
+			accessors[i] = PropertyAccessor.find(type, segments[i]);
+			type = accessors[i] != null ? accessors[i].getType() : null;
+		}
+	}
+
+	/**
+	 * Recupera o valor da propriedade no objeto informado.
+	 * @param root Objeto raiz (instância de {@link #getRootType()}).
+	 * @return Valor da propriedade, ou null caso o objeto raiz ou algum segmento intermediário seja null.
+	 */
+	public Object get(Object root) {
+		Object value = root;
+		for (int i = 0; i < segments.length && value != null; i++) {
+			value = accessor(i, value).get(value);
+		}
+		return value;
+	}
+
+	/**
+	 * Altera o valor da propriedade no objeto informado.
+	 * @param root Objeto raiz (instância de {@link #getRootType()}).
+	 * @param value Novo valor.
+	 * @throws QbeException caso algum segmento intermediário seja null.
+	 */
+	public void set(Object root, Object value) {
+		Object owner = root;
+		int last = segments.length - 1;
+		for (int i = 0; i < last && owner != null; i++) {
+			owner = accessor(i, owner).get(owner);
+		}
+		if (owner == null) {
+			throw new QbeException("Não foi possível alterar a propriedade " + rootType.getSimpleName() + "." + path
+					+ ": o caminho intermediário é null.");
+		}
+		accessor(last, owner).set(owner, value);
+	}
+
+	private PropertyAccessor accessor(int index, Object owner) {
+		PropertyAccessor accessor = accessors[index];
+		return accessor != null ? accessor : PropertyAccessor.of(owner.getClass(), segments[index]);
+	}
+
+	/**
+	 * @return O caminho do objeto pai da propriedade (ex: "cidade" para "cidade.uf"), ou null se este caminho
+	 * possui um único segmento.
+	 */
+	public PropertyPath getParent() {
+		if (segments.length == 1) {
+			return null;
+		}
+		return of(rootType, path.substring(0, path.lastIndexOf('.')));
+	}
+
+	/**
+	 * @return Tipo declarado do último segmento, ou null caso não seja possível determiná-lo pelo tipo raiz.
+	 */
+	public Class<?> getType() {
+		PropertyAccessor last = accessors[accessors.length - 1];
+		return last != null ? last.getType() : null;
+	}
+
+	public Class<?> getRootType() {
+		return rootType;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return Nome da última propriedade do caminho.
+	 */
+	public String getPropertyName() {
+		return segments[segments.length - 1];
+	}
+
+	public int size() {
+		return segments.length;
+	}
+
+	@Override
+	public String toString() {
+		return rootType.getSimpleName() + "." + path + " " + Arrays.toString(accessors);
+	}
+}
@@ -9,7 +9,6 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.beanutils.NestedNullException;
 import org.apache.commons.beanutils.PropertyUtils;
 import org.hibernate.Hibernate;
 import org.hibernate.proxy.HibernateProxy;
@@ -48,124 +47,38 @@ public class ReflectionUtil {
 	 * @return Valor da propriedade.
 	 */
 	public static Object getValue(Object entidade, Field propriedade) {
-		try {
-			boolean accessible = propriedade.isAccessible();
-			propriedade.setAccessible(true);
-			Object valor = propriedade.get(entidade);
-			propriedade.setAccessible(accessible);
-			return valor;
-		} catch (Exception e) {
-			throw new QbeException("Falha ao recuperar valor da propriedade: " + entidade + " " + propriedade, e);
-		}
+		return PropertyAccessor.of(propriedade).get(entidade);
 	}
 	
 	/**
-	 * Recupera o valor de uma propriedade atraves de reflexao. Faz uso do método "Get".
+	 * Recupera o valor de uma propriedade atraves de reflexao. Faz uso do método "Get" e, caso não exista, 
+	 * acessa diretamente o atributo.
 	 * @param object Objeto a ter a propriedade extraída.
-	 * @param propertyName Nome da propriedade a ser extraída.
-	 * @return Valor da propriedade ou  null.
+	 * @param propertyName Nome da propriedade a ser extraída. Suporta propriedades aninhadas.
+	 * @return Valor da propriedade ou  null (inclusive se alguma propriedade intermediária for null).
 	 */
 	public static Object getValue(Object object, String propertyName) {
-		boolean done = false;
-		
-		Object valor = null;
-		if (object != null) {
-			log.log(Level.FINE, "Object is not null");
-
-			// primeiro tenta pelas vias normais: get
-			try {
-				valor = PropertyUtils.getProperty(object, propertyName.trim());
-				done= true;
-			} catch (NestedNullException e) {
-				valor = null; // caso a propriedade seja null
-			} catch (Exception e) {
-				log.info("Não foi possível alterar o valor da propriedade via getter. Tentando a alteração direta do atributo: " 
-						+ object.getClass().getSimpleName() + "." + propertyName);
-			}
-			
-			if (!done) {
-                            log.log(Level.FINE, "Not done");
-				// tenta recuperar o valor diretamente do field			
-				Field field = getField(object.getClass(), propertyName);
-				
-				if (field == null) {
-					throw new QbeException("A propriedade " + object.getClass().getSimpleName() + "." + propertyName + " não existe.");
-				}
-		
-				Object fieldOwner;
-				if (!propertyName.contains(".")) {
-                                    log.log(Level.FINE, "propertyName não contém ponto");
-					// se a propriedade for primária, quem contém o field é o próprio objeto
-					fieldOwner = object;
-				} else {
-                                    log.log(Level.FINE, "propertyName contém ponto");
-					// se a propriedade for aninhada, quem contém o field é o atributo imediatamente anterior à propriedade
-					fieldOwner = getValue(object, propertyName.substring(0, propertyName.lastIndexOf(".")));
-				}
-				
-				valor = getValue(fieldOwner, field);				
-			}
-			
-		}	
-		
-		return valor;
+		return object == null ? null : PropertyPath.of(object.getClass(), propertyName).get(object);
 	}
 
 	/**
-	 * Altera o valor de uma propriedade atraves de reflexao. Faz uso do método "Set".
+	 * Altera o valor de uma propriedade atraves de reflexao, acessando diretamente o atributo.
 	 * @param object Objeto a ter a propriedade alterada.
-	 * @param nomePropriedade Nome da propriedade a ser alterada.
+	 * @param attribute Atributo a ser alterado.
+	 * @param value Novo valor.
 	 */	
 	public static void setValue(Object object, Field attribute, Object value) {
-		try {
-			boolean accessible = attribute.isAccessible();
-			attribute.setAccessible(true);
-			attribute.set(object, value);
-			attribute.setAccessible(accessible);
-		} catch (Exception e) {
-			new QbeException("Não foi possível alterar o valor do atributo: " + attribute, e);
-		}
+		PropertyAccessor.of(attribute).set(object, value);
 	}
 	
 	/**
 	 * Altera o valor de uma propriedade atraves de reflexao. Tenta fazer uso do método "set", caso não exista ou não seja acessível, 
 	 * altera diretamente o valor do atributo.
 	 * @param object Objeto a ter a propriedade alterada.
-	 * @param propertyName Nome da propriedade a ser alterada.
+	 * @param propertyName Nome da propriedade a ser alterada. Suporta propriedades aninhadas.
 	 */	
 	public static void setValue(Object object, String propertyName, Object value)  {
-		boolean done = false;
-		// primeiro tenta pelas vias normais: setter
-		try {
-			PropertyUtils.setProperty(object, propertyName, value);
-			done = true;
-		} catch (Exception e) {
-			log.fine("Não foi possível alterar o valor da propriedade via setter. Tentando a alteração direta do atributo: " 
-						+ object.getClass().getSimpleName() + "." + propertyName);
-		}
-		
-		if (!done) {
-			// tenta atualizar o valor do field			
-			Field field = getField(object.getClass(), propertyName);
-			
-			if (field == null) {
-				throw new QbeException("A propriedade " + object.getClass().getSimpleName() + "." + propertyName + " não existe.");
-			}
-	
-			Object fieldOwner;
-			if (!propertyName.contains(".")) {
-				// se a propriedade for primária, quem contém o field é o próprio objeto
-				fieldOwner = object;
-			} else {
-				// se a propriedade for aninhada, quem contém o field é o atributo imediatamente anterior à propriedade
-				fieldOwner = getValue(object, propertyName.substring(0, propertyName.lastIndexOf(".")));
-			}
-
-			setValue(fieldOwner, field, value);
-			
-			log.fine("Valor do atributo alterado diretamente: " 
-                    + object.getClass().getSimpleName() + "." + propertyName);
-		}	
+		PropertyPath.of(object.getClass(), propertyName).set(object, value);
 	}
 	
 	/**
@@ -231,21 +144,17 @@ public class ReflectionUtil {
 	 */
 	private static Field getClassField(Class<?> type, String propertyName) {
 		
-		Field atributo = null;
-		
 		// iterando sobre a estrutura da classe e das superclasses
-		for (Class<?> clazz = type; clazz != Object.class; clazz = clazz.getSuperclass()) {
-                    log.log(Level.FINER, "clazz = " + clazz);
-			try {
-				atributo = clazz.getDeclaredField(propertyName);
-                                log.log(Level.FINER, "atributo = " + atributo);
-				break;
-			} catch (Exception e) {
-				log.log(Level.FINE, "O atributo %s não foi encontrado na classe %s", new Object[] {propertyName, clazz.getName()});
+		for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+			for (Field field : clazz.getDeclaredFields()) {
+				if (field.getName().equals(propertyName)) {
+					return field;
+				}
 			}
 		}
 
-		return atributo;
+		log.log(Level.FINE, "O atributo {0} não foi encontrado na classe {1}", new Object[] {propertyName, type.getName()});
+		return null;
 	}
 	
 	/**
@@ -1,13 +1,17 @@
 package br.com.vcg.query;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import javax.persistence.Query;
 
+import org.hibernate.stat.Statistics;
+
 import org.junit.Test;
 
 import br.com.vcg.query.api.QueryFilter;
+import br.com.vcg.query.domain.Cidade;
 import br.com.vcg.query.domain.Pessoa;
 import br.com.vcg.query.domain.QPessoa;
 import br.com.vcg.query.domain.QUf;
@@ -135,4 +139,64 @@ public class CountTest extends QbeTestBase {
 		assertEquals("O numero de registros encontrados deveria ser igual.", pessoasHQL, pessoasQbe);
 	}
 
+	/**
+	 * Valida o countProjection em consultas distinct: o count é resolvido no banco de dados, em uma única
+	 * consulta, considerando as linhas com valores nulos e sem ambiguidade entre os valores das colunas.
+	 */
+	@Test
+	public void countProjectionDistinct() throws Exception {
+		Cidade cidade = getEntityManager().find(Cidade.class, 150L);
+		getJpa().save(new Pessoa("ab", cidade, formatDate("01/02/2000"), "c", "count@projection"));
+		getJpa().save(new Pessoa("ab", cidade, formatDate("01/02/2000"), "c", "count@projection"));
+		getJpa().save(new Pessoa("a", cidade, formatDate("03/04/2001"), "bc", "count@projection"));
+		getJpa().save(new Pessoa("a", null, null, null, "count@projection"));
+		getJpa().save(new Pessoa("a", null, null, null, "count@projection"));
+		getJpa().save(new Pessoa("a", cidade, null, null, "count@projection"));
+		getJpa().getEm().flush();
+		getJpa().getEm().clear();
+		
+		QPessoa pessoa = QPessoa.pessoa;
+		QueryFilter<Pessoa> filter = new QueryFilter<Pessoa>(pessoa);
+		filter.where(pessoa.email.eq("count@projection"));
+		filter.fetchPage(2L, 1L);
+		QbeRepository qbe = createQbe();
+		
+		// sem distinct a projeção não altera o número de linhas
+		assertEquals(6, qbe.countProjection(filter, pessoa.cpf));
+		
+		filter.distinct();
+		Statistics statistics = resetStatistics();
+		// "c", "bc" e null
+		assertEquals(3, qbe.countProjection(filter, pessoa.cpf));
+		assertEquals(1, statistics.getPrepareStatementCount());
+		// 150 e null
+		assertEquals(2, qbe.countProjection(filter, pessoa.cidade()));
+		
+		statistics = resetStatistics();
+		// ("ab", "c"), ("a", "bc") e ("a", null): a concatenação simples dos valores seria ambígua
+		assertEquals(3, qbe.countProjection(filter, pessoa.nome, pessoa.cpf));
+		assertEquals(1, statistics.getPrepareStatementCount());
+		// ("c", 150), ("bc", 150), (null, null) e (null, 150)
+		assertEquals(4, qbe.countProjection(filter, pessoa.cpf, pessoa.cidade()));
+		assertEquals(4, qbe.countProjection(filter, pessoa.nome, pessoa.cpf, pessoa.cidade()));
+		String hql = "select distinct p.nome, p.cpf, p.cidade.id from Pessoa p where p.email = 'count@projection'";
+		assertEquals(4, getEntityManager().createQuery(hql).getResultList().size());
+		
+		// datas não são convertidas em texto (a conversão pode truncar o valor): as tuplas são agrupadas
+		// ("ab", 01/02/2000), ("a", 03/04/2001) e ("a", null)
+		statistics = resetStatistics();
+		assertEquals(3, qbe.countProjection(filter, pessoa.nome, pessoa.dataNascimento));
+		// (150, 01/02/2000), (150, 03/04/2001), (null, null) e (150, null)
+		assertEquals(4, qbe.countProjection(filter, pessoa.cidade(), pessoa.dataNascimento));
+		assertEquals(2, statistics.getPrepareStatementCount());
+		for (String query : statistics.getQueries()) {
+			assertTrue(query, query.contains("group by"));
+		}
+		
+		// a paginação do filtro não é alterada
+		filter.fetchPage(2L, 1L);
+		qbe.countProjection(filter, pessoa.nome, pessoa.cpf);
+		assertEquals(Long.valueOf(2L), filter.getLimit());
+	}
+
 }
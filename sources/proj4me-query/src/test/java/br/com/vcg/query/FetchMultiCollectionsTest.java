@@ -1,19 +1,61 @@
 package br.com.vcg.query;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
 
 import org.hibernate.Hibernate;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.stat.Statistics;
 import org.junit.Test;
 
+import com.querydsl.core.types.Predicate;
+
+import br.com.vcg.query.api.DetachedFetchFilter;
+import br.com.vcg.query.api.DetachedFetchStrategy;
 import br.com.vcg.query.api.QueryFilter;
+import br.com.vcg.query.domain.Cidade;
 import br.com.vcg.query.domain.Dependente;
+import br.com.vcg.query.domain.Ferramenta;
+import br.com.vcg.query.domain.Pessoa;
+import br.com.vcg.query.domain.Projeto;
 import br.com.vcg.query.domain.ProjetoServidor;
+import br.com.vcg.query.domain.QCidade;
+import br.com.vcg.query.domain.QDependente;
+import br.com.vcg.query.domain.QFerramenta;
+import br.com.vcg.query.domain.QProjeto;
+import br.com.vcg.query.domain.QProjetoServidor;
 import br.com.vcg.query.domain.QServidor;
+import br.com.vcg.query.domain.QUf;
 import br.com.vcg.query.domain.Servidor;
+import br.com.vcg.query.domain.Uf;
+import br.com.vcg.query.exception.QbeException;
+import br.com.vcg.query.extension.Example;
 import br.com.vcg.query.repository.QbeRepository;
+import br.com.vcg.query.repository.QbeRepositoryImpl;
+import br.com.vcg.query.repository.metadata.CollectionFetchDescriptor;
+import br.com.vcg.query.repository.metadata.CollectionFetchDescriptor.CollectionKind;
 
 /**
  * Testa o comportamento do Qbe na realização de fetch de mútiplas coleçõews
@@ -51,4 +93,772 @@ public class FetchMultiCollectionsTest extends QbeTestBase {
 		}
 	}
 	
+	/**
+	 * O mapeamento das coleções é resolvido uma única vez por classe e propriedade, e utilizado para
+	 * associar cada elemento carregado à sua entidade principal.
+	 */
+	@Test
+	public void descritorDasColecoes() {
+		CollectionFetchDescriptor dependentes = CollectionFetchDescriptor.of(Servidor.class, "dependentes");
+		assertSame(dependentes, CollectionFetchDescriptor.of(Servidor.class, "dependentes"));
+		assertEquals("servidor", dependentes.getMappedBy());
+		assertTrue(dependentes.isOrphanRemoval());
+		assertEquals(Dependente.class, dependentes.getElementType());
+		assertEquals(CollectionKind.LIST, dependentes.getCollectionKind());
+		assertFalse(dependentes.isJoinTable());
+		
+		assertTrue(CollectionFetchDescriptor.of(Projeto.class, "ferramentas").isJoinTable());
+		assertFalse(CollectionFetchDescriptor.of(Projeto.class, "ferramentas").isOrphanRemoval());
+		assertEquals(CollectionKind.SET, CollectionFetchDescriptor.of(Uf.class, "cidadesSet").getCollectionKind());
+		
+		QueryFilter<Servidor> filter = new QueryFilter<Servidor>(QServidor.servidor);
+		filter.orderBy(QServidor.servidor.id.asc());
+		filter.detachedFetchFilter(QServidor.servidor.dependentes);
+		List<Servidor> servidores = createQbe().findAllBy(filter);
+		
+		assertEquals("91:2 92:1 93:1 94:0 95:0", describeDependentes(servidores));
+		for (Servidor servidor : servidores) {
+			for (Dependente dependente : servidor.getDependentes()) {
+				assertSame(servidor, dependente.getServidor());
+			}
+		}
+	}
+	
+	/**
+	 * Com um executor, as coleções são carregadas em paralelo, em outros EntityManagers, e associadas às entidades
+	 * da consulta principal. Sem executor, o paralelismo do filtro é desconsiderado.
+	 */
+	@Test
+	public void fetchParalelo() throws Exception {
+		final AtomicInteger tarefas = new AtomicInteger();
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			QueryFilter<Servidor> filter = new QueryFilter<Servidor>(QServidor.servidor);
+			filter.orderBy(QServidor.servidor.id.asc());
+			filter.detachedFetchFilter(QServidor.servidor.projetos);
+			filter.detachedFetchFilter(QServidor.servidor.dependentes);
+			filter.parallelDetachedFetches(2);
+			
+			QbeRepositoryImpl qbe = new QbeRepositoryImpl(getEntityManager());
+			qbe.setDetachedFetchExecutor(new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					tarefas.incrementAndGet();
+					pool.execute(command);
+				}
+			});
+			List<Servidor> servidores = qbe.findAllBy(filter);
+			assertEquals(2, tarefas.get());
+			assertEquals("91:2 92:1 93:1 94:0 95:0", describeDependentes(servidores));
+			assertEquals("91:3 92:0 93:2 94:2 95:0", describeProjetos(servidores));
+			for (Servidor servidor : servidores) {
+				for (Dependente dependente : servidor.getDependentes()) {
+					// carregado em outro EntityManager, associado à instância da consulta principal
+					assertFalse(getEntityManager().contains(dependente));
+					assertSame(servidor, dependente.getServidor());
+				}
+			}
+			
+			tarefas.set(0);
+			qbe.setDetachedFetchExecutor(null);
+			getEntityManager().clear();
+			servidores = qbe.findAllBy(filter);
+			assertEquals(0, tarefas.get());
+			assertEquals("91:2 92:1 93:1 94:0 95:0", describeDependentes(servidores));
+			assertEquals("91:3 92:0 93:2 94:2 95:0", describeProjetos(servidores));
+			assertTrue(getEntityManager().contains(servidores.get(0).getDependentes().get(0)));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private String describeProjetos(List<Servidor> servidores) {
+		StringBuilder description = new StringBuilder();
+		for (Servidor servidor : servidores) {
+			if (description.length() > 0) {
+				description.append(' ');
+			}
+			description.append(servidor.getId()).append(':').append(servidor.getProjetos().size());
+		}
+		return description.toString();
+	}
+	
+	/**
+	 * Os identificadores são divididos em blocos de até 1000 valores (limite padrão, sem limite no dialeto),
+	 * completados até uma das faixas de tamanho. O filtro desatachado não é alterado pelos blocos.
+	 */
+	@Test
+	public void fetchEmBlocosDeIdentificadores() {
+		StringBuilder insert = new StringBuilder("insert into UF (ID, SIGLA) values ");
+		for (int i = 0; i < 1001; i++) {
+			insert.append(i > 0 ? ", " : "").append('(').append(10000 + i).append(", '")
+					.append(Character.forDigit(i / 36, 36)).append(Character.forDigit(i % 36, 36)).append("')");
+		}
+		getEntityManager().createNativeQuery(insert.toString()).executeUpdate();
+		getEntityManager().clear();
+		
+		QueryFilter<Uf> filter = new QueryFilter<Uf>(QUf.uf);
+		filter.orderBy(QUf.uf.id.asc());
+		DetachedFetchFilter<?> cidades = filter.detachedFetchFilter(QUf.uf.cidades);
+		Predicate where = cidades.getMetadata().getWhere();
+		int joins = cidades.getMetadata().getJoins().size();
+		
+		// 1028 ufs: blocos de 1000 e 28 (completado até 50) identificadores
+		Statistics statistics = resetStatistics();
+		List<Uf> ufs = createQbe().findAllBy(filter);
+		assertEquals(1028, ufs.size());
+		assertEquals(3, statistics.getPrepareStatementCount());
+		assertEquals("101:5 102:5 103:6 104:5 105:5", describeCidades(ufs.subList(0, 5)));
+		int total = 0;
+		for (Uf uf : ufs) {
+			assertTrue(Hibernate.isInitialized(uf.getCidades()));
+			total += uf.getCidades().size();
+		}
+		assertEquals(135, total);
+		assertEquals(where, cidades.getMetadata().getWhere());
+		assertEquals(joins, cidades.getMetadata().getJoins().size());
+		
+		// execução seguinte do mesmo filtro: blocos criados novamente a partir do filtro desatachado
+		filter.where(QUf.uf.id.between(101L, 103L));
+		statistics = resetStatistics();
+		assertEquals("101:5 102:5 103:6", describeCidades(createQbe().findAllBy(filter)));
+		assertEquals(2, statistics.getPrepareStatementCount());
+	}
+	
+	/**
+	 * Set, Map e associações com tabela de associação (OneToMany unidirecional e ManyToMany): uma consulta por
+	 * coleção, com as entidades da consulta principal mantidas no contexto de persistência (sem orphanRemoval).
+	 */
+	@Test
+	public void fetchConjuntoMapaETabelaDeAssociacao() {
+		QueryFilter<Uf> ufFilter = new QueryFilter<Uf>(QUf.uf);
+		ufFilter.where(QUf.uf.id.between(101L, 105L));
+		ufFilter.orderBy(QUf.uf.id.asc());
+		ufFilter.detachedFetchFilter(QUf.uf.cidadesSet);
+		ufFilter.detachedFetchFilter(QUf.uf.cidadesMap);
+		getEntityManager().clear();
+		
+		Statistics statistics = resetStatistics();
+		List<Uf> ufs = createQbe().findAllBy(ufFilter);
+		assertEquals(3, statistics.getPrepareStatementCount());
+		StringBuilder description = new StringBuilder();
+		for (Uf uf : ufs) {
+			assertTrue(getEntityManager().contains(uf));
+			assertEquals(uf.getCidadesSet().size(), uf.getCidadesMap().size());
+			for (Cidade cidade : uf.getCidadesSet()) {
+				assertSame(cidade, uf.getCidadesMap().get(cidade.getId()));
+				assertSame(uf, cidade.getUf());
+			}
+			description.append(description.length() > 0 ? " " : "").append(uf.getId()).append(':').append(uf.getCidadesSet().size());
+		}
+		assertEquals("101:5 102:5 103:6 104:5 105:5", description.toString());
+		
+		// OneToMany unidirecional (tabela PROJETO_FERRAMENTA)
+		QueryFilter<Projeto> projetoFilter = new QueryFilter<Projeto>(QProjeto.projeto);
+		projetoFilter.orderBy(QProjeto.projeto.id.asc());
+		projetoFilter.detachedFetchFilter(QProjeto.projeto.ferramentas);
+		getEntityManager().clear();
+		statistics = resetStatistics();
+		List<Projeto> projetos = createQbe().findAllBy(projetoFilter);
+		assertEquals(2, statistics.getPrepareStatementCount());
+		assertEquals("1:[1, 2, 4] 2:[] 3:[5] 4:[3] 5:[]", describeFerramentas(projetos));
+		
+		// ManyToMany
+		QueryFilter<Ferramenta> ferramentaFilter = new QueryFilter<Ferramenta>(QFerramenta.ferramenta);
+		ferramentaFilter.orderBy(QFerramenta.ferramenta.id.asc());
+		ferramentaFilter.detachedFetchFilter(QFerramenta.ferramenta.projetos);
+		getEntityManager().clear();
+		statistics = resetStatistics();
+		List<Ferramenta> ferramentas = createQbe().findAllBy(ferramentaFilter);
+		assertEquals(2, statistics.getPrepareStatementCount());
+		assertEquals("1:[1, 3, 4] 2:[1] 3:[4] 4:[1, 2] 5:[3]", describeProjetosDasFerramentas(ferramentas));
+	}
+	
+	/**
+	 * Coleções com tabela de associação (e Map) nas estratégias SUBSELECT (com os parâmetros do exemplo da consulta
+	 * principal na subconsulta), paralela e sob demanda.
+	 */
+	@Test
+	public void fetchTabelaDeAssociacaoPorEstrategia() {
+		// SUBSELECT: OneToMany unidirecional, com ParamExample na consulta principal
+		QueryFilter<Projeto> projetoFilter = new QueryFilter<Projeto>(QProjeto.projeto);
+		projetoFilter.where(QProjeto.projeto.sigla.eq(Example.read()));
+		projetoFilter.detachedFetchFilter(QProjeto.projeto.ferramentas).strategy(DetachedFetchStrategy.SUBSELECT);
+		Projeto exemploProjeto = new Projeto();
+		exemploProjeto.setSigla("ged");
+		projetoFilter.setExample(exemploProjeto);
+		getEntityManager().clear();
+		Statistics statistics = resetStatistics();
+		List<Projeto> projetos = createQbe().findAllBy(projetoFilter);
+		assertEquals(2, statistics.getPrepareStatementCount());
+		assertEquals(1, countSubqueries(statistics));
+		assertEquals("1:[1, 2, 4]", describeFerramentas(projetos));
+		
+		// SUBSELECT: ManyToMany, com ParamExample na consulta principal
+		QueryFilter<Ferramenta> ferramentaFilter = new QueryFilter<Ferramenta>(QFerramenta.ferramenta);
+		ferramentaFilter.where(QFerramenta.ferramenta.descricao.eq(Example.read()));
+		ferramentaFilter.detachedFetchFilter(QFerramenta.ferramenta.projetos).strategy(DetachedFetchStrategy.SUBSELECT);
+		Ferramenta exemploFerramenta = new Ferramenta();
+		exemploFerramenta.setDescricao("Eclipse");
+		ferramentaFilter.setExample(exemploFerramenta);
+		getEntityManager().clear();
+		statistics = resetStatistics();
+		List<Ferramenta> ferramentas = createQbe().findAllBy(ferramentaFilter);
+		assertEquals(2, statistics.getPrepareStatementCount());
+		assertEquals(1, countSubqueries(statistics));
+		assertEquals("1:[1, 3, 4]", describeProjetosDasFerramentas(ferramentas));
+		
+		// SUBSELECT: Map
+		QueryFilter<Uf> ufFilter = new QueryFilter<Uf>(QUf.uf);
+		ufFilter.where(QUf.uf.id.between(101L, 105L));
+		ufFilter.orderBy(QUf.uf.id.asc());
+		ufFilter.detachedFetchFilter(QUf.uf.cidadesMap).strategy(DetachedFetchStrategy.SUBSELECT);
+		getEntityManager().clear();
+		statistics = resetStatistics();
+		List<Uf> ufs = createQbe().findAllBy(ufFilter);
+		assertEquals(2, statistics.getPrepareStatementCount());
+		assertEquals(1, countSubqueries(statistics));
+		StringBuilder description = new StringBuilder();
+		for (Uf uf : ufs) {
+			for (Map.Entry<Long, Cidade> cidade : uf.getCidadesMap().entrySet()) {
+				assertEquals(cidade.getKey(), cidade.getValue().getId());
+			}
+			description.append(description.length() > 0 ? " " : "").append(uf.getId()).append(':').append(uf.getCidadesMap().size());
+		}
+		assertEquals("101:5 102:5 103:6 104:5 105:5", description.toString());
+		
+		// paralelo
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			QueryFilter<Projeto> paraleloFilter = new QueryFilter<Projeto>(QProjeto.projeto);
+			paraleloFilter.orderBy(QProjeto.projeto.id.asc());
+			paraleloFilter.detachedFetchFilter(QProjeto.projeto.ferramentas);
+			paraleloFilter.parallelDetachedFetches(2);
+			getEntityManager().clear();
+			QbeRepositoryImpl qbe = new QbeRepositoryImpl(getEntityManager());
+			qbe.setDetachedFetchExecutor(pool);
+			projetos = qbe.findAllBy(paraleloFilter);
+			assertEquals("1:[1, 2, 4] 2:[] 3:[5] 4:[3] 5:[]", describeFerramentas(projetos));
+			
+			QueryFilter<Ferramenta> paraleloFerramentaFilter = new QueryFilter<Ferramenta>(QFerramenta.ferramenta);
+			paraleloFerramentaFilter.orderBy(QFerramenta.ferramenta.id.asc());
+			paraleloFerramentaFilter.detachedFetchFilter(QFerramenta.ferramenta.projetos);
+			paraleloFerramentaFilter.parallelDetachedFetches(2);
+			getEntityManager().clear();
+			ferramentas = qbe.findAllBy(paraleloFerramentaFilter);
+			assertEquals("1:[1, 3, 4] 2:[1] 3:[4] 4:[1, 2] 5:[3]", describeProjetosDasFerramentas(ferramentas));
+		} finally {
+			pool.shutdown();
+		}
+		
+		// sob demanda: o primeiro acesso carrega as coleções de todas as entidades
+		QueryFilter<Ferramenta> lazyFilter = new QueryFilter<Ferramenta>(QFerramenta.ferramenta);
+		lazyFilter.orderBy(QFerramenta.ferramenta.id.asc());
+		lazyFilter.detachedFetchFilter(QFerramenta.ferramenta.projetos).lazy();
+		getEntityManager().clear();
+		statistics = resetStatistics();
+		ferramentas = createQbe().findAllBy(lazyFilter);
+		assertEquals(1, statistics.getPrepareStatementCount());
+		assertEquals(2, ferramentas.get(3).getProjetos().size());
+		assertEquals(2, statistics.getPrepareStatementCount());
+		assertEquals("1:[1, 3, 4] 2:[1] 3:[4] 4:[1, 2] 5:[3]", describeProjetosDasFerramentas(ferramentas));
+		assertEquals(2, statistics.getPrepareStatementCount());
+	}
+	
+	/**
+	 * @return Id de cada projeto e os ids das suas ferramentas. Ex: "1:[1, 2, 4] 2:[]"
+	 */
+	private String describeFerramentas(List<Projeto> projetos) {
+		StringBuilder description = new StringBuilder();
+		for (Projeto projeto : projetos) {
+			Set<Long> ids = new TreeSet<Long>();
+			for (Ferramenta ferramenta : projeto.getFerramentas()) {
+				ids.add(ferramenta.getId());
+			}
+			description.append(description.length() > 0 ? " " : "").append(projeto.getId()).append(':').append(ids);
+		}
+		return description.toString();
+	}
+	
+	/**
+	 * @return Id de cada ferramenta e os ids dos seus projetos. Ex: "1:[1, 3, 4] 2:[1]"
+	 */
+	private String describeProjetosDasFerramentas(List<Ferramenta> ferramentas) {
+		StringBuilder description = new StringBuilder();
+		for (Ferramenta ferramenta : ferramentas) {
+			Set<Long> ids = new TreeSet<Long>();
+			for (Projeto projeto : ferramenta.getProjetos()) {
+				ids.add(projeto.getId());
+			}
+			description.append(description.length() > 0 ? " " : "").append(ferramenta.getId()).append(':').append(ids);
+		}
+		return description.toString();
+	}
+	
+	/**
+	 * Grafo de coleções carregado em largura: uma consulta por nível, independente do número de registros.
+	 */
+	@Test
+	public void fetchGrafoEmLargura() {
+		QueryFilter<Servidor> filter = new QueryFilter<Servidor>(QServidor.servidor);
+		filter.orderBy(QServidor.servidor.id.asc());
+		filter.detachedFetchGraph(QServidor.servidor.projetos, QProjetoServidor.projetoServidor.projeto().ferramentas);
+		assertEquals(1, filter.getDetachedCollectionFetchList().size());
+		assertEquals(1, filter.getDetachedCollectionFetchList().get(0).getDetachedCollectionFetchList().size());
+		getEntityManager().clear();
+		
+		Statistics statistics = resetStatistics();
+		List<Servidor> servidores = createQbe().findAllBy(filter);
+		// servidores, projetos dos servidores (com o projeto) e ferramentas dos projetos
+		assertEquals(3, statistics.getPrepareStatementCount());
+		assertEquals("91:3 92:0 93:2 94:2 95:0", describeProjetos(servidores));
+		StringBuilder description = new StringBuilder();
+		Set<Long> visitados = new TreeSet<Long>();
+		for (Servidor servidor : servidores) {
+			for (ProjetoServidor projetoServidor : servidor.getProjetos()) {
+				Projeto projeto = projetoServidor.getProjeto();
+				assertTrue(Hibernate.isInitialized(projeto.getFerramentas()));
+				if (visitados.add(projeto.getId())) {
+					Set<Long> ids = new TreeSet<Long>();
+					for (Ferramenta ferramenta : projeto.getFerramentas()) {
+						ids.add(ferramenta.getId());
+					}
+					description.append(description.length() > 0 ? " " : "").append(projeto.getId()).append(':').append(ids);
+				}
+			}
+		}
+		assertEquals("1:[1, 2, 4] 2:[] 4:[3] 5:[] 3:[5]", description.toString());
+		// nenhuma consulta adicional no acesso ao grafo
+		assertEquals(3, statistics.getPrepareStatementCount());
+		
+		// o número de consultas não depende do número de registros
+		QueryFilter<Uf> ufFilter = new QueryFilter<Uf>(QUf.uf);
+		ufFilter.detachedFetchGraph(QUf.uf.cidades, QCidade.cidade.pessoas);
+		getEntityManager().clear();
+		statistics = resetStatistics();
+		List<Uf> ufs = createQbe().findAllBy(ufFilter);
+		assertEquals(3, statistics.getPrepareStatementCount());
+		int cidades = 0;
+		int pessoas = 0;
+		for (Uf uf : ufs) {
+			for (Cidade cidade : uf.getCidades()) {
+				cidades++;
+				pessoas += cidade.getPessoas().size();
+			}
+		}
+		assertEquals(3, statistics.getPrepareStatementCount());
+		assertEquals(27, ufs.size());
+		assertEquals(135, cidades);
+		assertEquals(((Number) getEntityManager().createQuery("select count(p) from Pessoa p where p.cidade is not null")
+				.getSingleResult()).intValue(), pessoas);
+	}
+	
+	/**
+	 * Com a inicialização no próprio lugar, as coleções do Hibernate são preenchidas e as entidades permanecem
+	 * gerenciadas mesmo com orphanRemoval: alterações nas coleções são gravadas sem merge.
+	 */
+	@Test
+	public void fetchInicializandoColecoesNoProprioLugar() {
+		QueryFilter<Servidor> filter = new QueryFilter<Servidor>(QServidor.servidor);
+		filter.orderBy(QServidor.servidor.id.asc());
+		filter.detachedFetchFilter(QServidor.servidor.dependentes).initializeInPlace();
+		filter.detachedFetchFilter(QServidor.servidor.projetos).initializeInPlace();
+		getEntityManager().clear();
+		// coleção já inicializada: mantida
+		Servidor inicializado = getEntityManager().find(Servidor.class, 92L);
+		Hibernate.initialize(inicializado.getDependentes());
+		List<Dependente> dependentesInicializados = inicializado.getDependentes();
+		
+		Statistics statistics = resetStatistics();
+		List<Servidor> servidores = createQbe().findAllBy(filter);
+		assertEquals(3, statistics.getPrepareStatementCount());
+		assertEquals("91:2 92:1 93:1 94:0 95:0", describeDependentes(servidores));
+		assertEquals("91:3 92:0 93:2 94:2 95:0", describeProjetos(servidores));
+		assertSame(inicializado, servidores.get(1));
+		assertSame(dependentesInicializados, inicializado.getDependentes());
+		for (Servidor servidor : servidores) {
+			assertTrue(getEntityManager().contains(servidor));
+			assertTrue(servidor.getDependentes() instanceof PersistentCollection);
+			assertTrue(Hibernate.isInitialized(servidor.getDependentes()));
+			assertTrue(Hibernate.isInitialized(servidor.getProjetos()));
+			for (Dependente dependente : servidor.getDependentes()) {
+				assertTrue(getEntityManager().contains(dependente));
+				assertSame(servidor, dependente.getServidor());
+			}
+		}
+		// nenhuma consulta adicional no acesso às coleções
+		assertEquals(3, statistics.getPrepareStatementCount());
+		
+		// orphanRemoval: a remoção do elemento é gravada, sem merge
+		servidores.get(0).getDependentes().remove(0);
+		getEntityManager().flush();
+		assertEquals(1L, getEntityManager().createQuery("select count(d) from Dependente d where d.servidor.id = 91")
+				.getSingleResult());
+		
+		// restrições no filtro desatachado inicializariam a coleção parcialmente
+		QueryFilter<Servidor> restrito = new QueryFilter<Servidor>(QServidor.servidor);
+		restrito.detachedFetchFilter(QServidor.servidor.dependentes).initializeInPlace().where(QDependente.dependente.id.eq(96L));
+		getEntityManager().clear();
+		try {
+			createQbe().findAllBy(restrito);
+			fail();
+		} catch (QbeException e) {
+			assertTrue(e.getMessage().contains("dependentes"));
+		}
+	}
+	
+	/**
+	 * Os elementos são agrupados pelo identificador do dono. No mesmo EntityManager já referenciam a instância
+	 * gerenciada do dono; carregados em outro EntityManager (fetches paralelos), inclusive no nível seguinte do
+	 * grafo, passam a referenciar a instância da consulta principal.
+	 */
+	@Test
+	public void fetchAgrupadoPeloIdentificadorDoDono() {
+		QueryFilter<Uf> filter = new QueryFilter<Uf>(QUf.uf);
+		filter.where(QUf.uf.id.between(101L, 105L));
+		filter.orderBy(QUf.uf.id.asc());
+		filter.detachedFetchGraph(QUf.uf.cidades, QCidade.cidade.pessoas);
+		getEntityManager().clear();
+		
+		Statistics statistics = resetStatistics();
+		List<Uf> ufs = createQbe().findAllBy(filter);
+		assertEquals(3, statistics.getPrepareStatementCount());
+		assertEquals("101:5 102:5 103:6 104:5 105:5", describeCidades(ufs));
+		int pessoas = assertOwners(ufs, true);
+		assertTrue(pessoas > 0);
+		
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			getEntityManager().clear();
+			QbeRepositoryImpl qbe = new QbeRepositoryImpl(getEntityManager());
+			qbe.setDetachedFetchExecutor(pool);
+			ufs = qbe.findAllBy(filter.copy().parallelDetachedFetches(2));
+			assertEquals("101:5 102:5 103:6 104:5 105:5", describeCidades(ufs));
+			assertEquals(pessoas, assertOwners(ufs, false));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Verifica que cidades e pessoas referenciam a instância do dono em cujas coleções estão.
+	 * @return Número de pessoas.
+	 */
+	private int assertOwners(List<Uf> ufs, boolean managed) {
+		int pessoas = 0;
+		for (Uf uf : ufs) {
+			assertTrue(getEntityManager().contains(uf));
+			for (Cidade cidade : uf.getCidades()) {
+				assertEquals(managed, getEntityManager().contains(cidade));
+				assertSame(uf, cidade.getUf());
+				for (Pessoa pessoa : cidade.getPessoas()) {
+					assertEquals(managed, getEntityManager().contains(pessoa));
+					assertSame(cidade, pessoa.getCidade());
+					pessoas++;
+				}
+			}
+		}
+		return pessoas;
+	}
+	
+	/**
+	 * No fetch sob demanda, o primeiro acesso a qualquer coleção carrega as coleções de todas as entidades do
+	 * resultado em uma única consulta. Não é suportado para coleções com orphanRemoval de entidades gerenciadas.
+	 */
+	@Test
+	public void fetchSobDemanda() {
+		QueryFilter<Uf> filter = new QueryFilter<Uf>(QUf.uf);
+		filter.where(QUf.uf.id.between(101L, 105L));
+		filter.orderBy(QUf.uf.id.asc());
+		filter.detachedFetchFilter(QUf.uf.cidades).lazy();
+		getEntityManager().clear();
+		
+		Statistics statistics = resetStatistics();
+		List<Uf> ufs = createQbe().findAllBy(filter);
+		assertEquals(1, statistics.getPrepareStatementCount());
+		assertEquals(6, ufs.get(2).getCidades().size());
+		assertEquals(2, statistics.getPrepareStatementCount());
+		assertEquals("101:5 102:5 103:6 104:5 105:5", describeCidades(ufs));
+		assertEquals(2, statistics.getPrepareStatementCount());
+		for (Uf uf : ufs) {
+			assertTrue(getEntityManager().contains(uf));
+			for (Cidade cidade : uf.getCidades()) {
+				assertSame(uf, cidade.getUf());
+			}
+		}
+		
+		// o flush percorre as coleções das entidades gerenciadas: todas são carregadas, em uma única consulta
+		getEntityManager().clear();
+		statistics = resetStatistics();
+		ufs = createQbe().findAllBy(filter);
+		getEntityManager().flush();
+		assertEquals(2, statistics.getPrepareStatementCount());
+		assertEquals("101:5 102:5 103:6 104:5 105:5", describeCidades(ufs));
+		assertEquals(2, statistics.getPrepareStatementCount());
+		
+		// orphanRemoval
+		QueryFilter<Servidor> servidorFilter = new QueryFilter<Servidor>(QServidor.servidor);
+		servidorFilter.detachedFetchFilter(QServidor.servidor.dependentes).lazy();
+		getEntityManager().clear();
+		try {
+			createQbe().findAllBy(servidorFilter);
+			fail();
+		} catch (QbeException e) {
+			assertTrue(e.getMessage().contains("orphanRemoval"));
+		}
+		
+		// inicialização no próprio lugar
+		QueryFilter<Uf> inPlaceFilter = new QueryFilter<Uf>(QUf.uf);
+		inPlaceFilter.detachedFetchFilter(QUf.uf.cidades).lazy().initializeInPlace();
+		try {
+			createQbe().findAllBy(inPlaceFilter);
+			fail();
+		} catch (QbeException e) {
+			assertTrue(e.getMessage().contains("cidades"));
+		}
+	}
+	
+	/**
+	 * Na estratégia SUBSELECT a consulta principal é reutilizada como subconsulta: uma consulta por coleção. Com a
+	 * consulta principal paginada (página, keyset, findOneBy) ou nos blocos de um stream, a subconsulta retornaria
+	 * todos os registros, portanto a operação IN é utilizada e apenas os elementos das entidades retornadas são
+	 * carregados.
+	 */
+	@Test
+	public void fetchPorSubconsulta() {
+		QueryFilter<Servidor> filter = new QueryFilter<Servidor>(QServidor.servidor);
+		filter.where(QServidor.servidor.id.loe(93L));
+		filter.orderBy(QServidor.servidor.id.asc());
+		filter.detachedFetchFilter(QServidor.servidor.dependentes).strategy(DetachedFetchStrategy.SUBSELECT);
+		filter.detachedFetchFilter(QServidor.servidor.projetos).strategy(DetachedFetchStrategy.SUBSELECT);
+		QbeRepository qbe = createQbe();
+		getEntityManager().clear();
+		
+		Statistics statistics = resetStatistics();
+		List<Servidor> servidores = qbe.findAllBy(filter);
+		assertEquals("91:2 92:1 93:1", describeDependentes(servidores));
+		assertEquals("91:3 92:0 93:2", describeProjetos(servidores));
+		assertEquals(3, statistics.getPrepareStatementCount());
+		assertEquals(2, countSubqueries(statistics));
+		
+		// página
+		getEntityManager().clear();
+		statistics = resetStatistics();
+		servidores = qbe.findPage(filter.copy().fetchPage(2L, 1L)).getContent();
+		assertEquals("91:2 92:1", describeDependentes(servidores));
+		assertEquals(0, countSubqueries(statistics));
+		assertEquals(3, statistics.getEntityStatistics(Dependente.class.getName()).getLoadCount());
+		
+		// keyset
+		getEntityManager().clear();
+		statistics = resetStatistics();
+		servidores = qbe.findKeysetPage(filter.copy().fetchKeyset(2L, null)).getContent();
+		assertEquals("91:2 92:1", describeDependentes(servidores));
+		assertEquals(0, countSubqueries(statistics));
+		assertEquals(3, statistics.getEntityStatistics(Dependente.class.getName()).getLoadCount());
+		
+		// findOneBy
+		getEntityManager().clear();
+		statistics = resetStatistics();
+		Servidor servidor = qbe.findOneBy(filter);
+		assertEquals(Long.valueOf(91L), servidor.getId());
+		assertEquals(2, servidor.getDependentes().size());
+		assertEquals(0, countSubqueries(statistics));
+		assertEquals(2, statistics.getEntityStatistics(Dependente.class.getName()).getLoadCount());
+		
+		// blocos de um stream
+		getEntityManager().clear();
+		statistics = resetStatistics();
+		try (Stream<Servidor> stream = qbe.streamAllBy(filter, 2)) {
+			servidores = new ArrayList<Servidor>();
+			for (Iterator<Servidor> iterator = stream.iterator(); iterator.hasNext();) {
+				servidores.add(iterator.next());
+			}
+		}
+		assertEquals("91:2 92:1 93:1", describeDependentes(servidores));
+		assertEquals(0, countSubqueries(statistics));
+		assertEquals(4, statistics.getEntityStatistics(Dependente.class.getName()).getLoadCount());
+	}
+	
+	/**
+	 * Na estratégia TEMPORARY_TABLE os identificadores são inseridos em uma tabela temporária (comandos JDBC, fora
+	 * das estatísticas do Hibernate) e a coleção é carregada em uma única consulta nativa, removendo a tabela ao
+	 * final. Sem transação ativa ou nos fetches paralelos, a operação IN é utilizada e registrada no log.
+	 */
+	@Test
+	public void fetchPorTabelaTemporaria() throws Exception {
+		QueryFilter<Uf> filter = new QueryFilter<Uf>(QUf.uf);
+		filter.where(QUf.uf.id.between(101L, 105L));
+		filter.orderBy(QUf.uf.id.asc());
+		filter.detachedFetchFilter(QUf.uf.cidades).strategy(DetachedFetchStrategy.TEMPORARY_TABLE);
+		final List<String> mensagens = new ArrayList<String>();
+		Logger logger = Logger.getLogger("DetachedFetchesProcessor");
+		Level level = logger.getLevel();
+		Handler handler = new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				if (record.getMessage().contains("operação IN")) {
+					mensagens.add(record.getMessage());
+				}
+			}
+			@Override
+			public void flush() {
+			}
+			@Override
+			public void close() {
+			}
+		};
+		logger.setLevel(Level.FINE);
+		logger.addHandler(handler);
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			// a tabela é removida após cada execução: a segunda execução a cria novamente
+			for (int i = 0; i < 2; i++) {
+				getEntityManager().clear();
+				Statistics statistics = resetStatistics();
+				List<Uf> ufs = createQbe().findAllBy(filter);
+				assertEquals("101:5 102:5 103:6 104:5 105:5", describeCidades(ufs));
+				assertEquals(2, statistics.getPrepareStatementCount());
+				assertEquals(5 + 26, statistics.getEntityLoadCount());
+				assertTrue(getEntityManager().contains(ufs.get(0).getCidades().get(0)));
+			}
+			assertTrue(mensagens.isEmpty());
+			
+			// sem transação
+			EntityManager entityManager = getEntityManager().getEntityManagerFactory().createEntityManager();
+			try {
+				List<Uf> ufs = new QbeRepositoryImpl(entityManager).findAllBy(filter);
+				assertEquals("101:5 102:5 103:6 104:5 105:5", describeCidades(ufs));
+			} finally {
+				entityManager.close();
+			}
+			assertEquals(1, mensagens.size());
+			assertTrue(mensagens.get(0).contains("não há uma transação ativa"));
+			
+			// fetches paralelos
+			getEntityManager().clear();
+			QbeRepositoryImpl qbe = new QbeRepositoryImpl(getEntityManager());
+			qbe.setDetachedFetchExecutor(pool);
+			List<Uf> ufs = qbe.findAllBy(filter.copy().parallelDetachedFetches(2));
+			assertEquals("101:5 102:5 103:6 104:5 105:5", describeCidades(ufs));
+			assertEquals(2, mensagens.size());
+			assertTrue(mensagens.get(1).contains("fetches paralelos"));
+		} finally {
+			pool.shutdown();
+			logger.removeHandler(handler);
+			logger.setLevel(level);
+		}
+	}
+	
+	/**
+	 * @return Número de consultas (JPQL) executadas com subconsulta.
+	 */
+	private static int countSubqueries(Statistics statistics) {
+		int count = 0;
+		for (String query : statistics.getQueries()) {
+			if (query.contains("(select ")) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * O stream percorre o cursor em blocos: os fetches desatachados são executados a cada bloco e as entidades
+	 * dos blocos anteriores deixam de ser gerenciadas.
+	 */
+	@Test
+	public void streamEmBlocos() {
+		QueryFilter<Uf> filter = new QueryFilter<Uf>(QUf.uf);
+		filter.where(QUf.uf.id.between(101L, 105L));
+		filter.orderBy(QUf.uf.id.asc());
+		filter.detachedFetchFilter(QUf.uf.cidades);
+		getEntityManager().clear();
+		
+		Statistics statistics = resetStatistics();
+		List<Uf> ufs = new ArrayList<Uf>();
+		try (Stream<Uf> stream = createQbe().streamAllBy(filter, 2)) {
+			for (Iterator<Uf> iterator = stream.iterator(); iterator.hasNext();) {
+				Uf uf = iterator.next();
+				assertTrue(getEntityManager().contains(uf));
+				assertTrue(Hibernate.isInitialized(uf.getCidades()));
+				ufs.add(uf);
+				// o bloco anterior (2 ufs) foi desatachado na leitura do bloco corrente
+				for (int i = 0; i < ufs.size() - 1; i++) {
+					assertEquals(i >= (ufs.size() - 1) / 2 * 2, getEntityManager().contains(ufs.get(i)));
+				}
+			}
+		}
+		assertEquals("101:5 102:5 103:6 104:5 105:5", describeCidades(ufs));
+		// cursor + fetch das cidades de cada bloco (2, 2 e 1 ufs)
+		assertEquals(4, statistics.getPrepareStatementCount());
+		assertEquals(5 + 26, statistics.getEntityLoadCount());
+	}
+	
+	/**
+	 * O resultado é percorrido em blocos, consultados por chave: os fetches desatachados são executados a cada
+	 * bloco e o contexto de persistência é limpo entre os blocos.
+	 */
+	@Test
+	public void forEachBatchEmBlocos() {
+		QueryFilter<Uf> filter = new QueryFilter<Uf>(QUf.uf);
+		filter.where(QUf.uf.id.between(101L, 105L));
+		filter.detachedFetchFilter(QUf.uf.cidades);
+		filter.fetchPage(1L, 3L);
+		getEntityManager().clear();
+		
+		Statistics statistics = resetStatistics();
+		final List<Uf> ufs = new ArrayList<Uf>();
+		final StringBuilder blocos = new StringBuilder();
+		createQbe().forEachBatch(filter, 2, new Consumer<List<Uf>>() {
+			@Override
+			public void accept(List<Uf> bloco) {
+				for (Uf uf : ufs) {
+					assertFalse(getEntityManager().contains(uf));
+				}
+				for (Uf uf : bloco) {
+					assertTrue(getEntityManager().contains(uf));
+					assertTrue(Hibernate.isInitialized(uf.getCidades()));
+				}
+				blocos.append(blocos.length() > 0 ? "|" : "").append(describeCidades(bloco));
+				ufs.addAll(bloco);
+			}
+		});
+		// a paginação do filtro é desconsiderada e mantida
+		assertEquals("101:5 102:5|103:6 104:5|105:5", blocos.toString());
+		assertEquals(Long.valueOf(1L), filter.getLimit());
+		// consulta de cada bloco + fetch das cidades de cada bloco
+		assertEquals(6, statistics.getPrepareStatementCount());
+		// cada bloco lê um registro a mais, para identificar o próximo bloco (103 e 105)
+		assertEquals(5 + 2 + 26, statistics.getEntityLoadCount());
+	}
+	
+	/**
+	 * @return Id de cada uf e a quantidade de cidades. Ex: "101:5 102:5"
+	 */
+	private String describeCidades(List<Uf> ufs) {
+		StringBuilder description = new StringBuilder();
+		for (Uf uf : ufs) {
+			if (description.length() > 0) {
+				description.append(' ');
+			}
+			description.append(uf.getId()).append(':').append(uf.getCidades().size());
+		}
+		return description.toString();
+	}
+	
+	/**
+	 * @return Id de cada servidor e a quantidade de dependentes. Ex: "91:2 92:1"
+	 */
+	private String describeDependentes(List<Servidor> servidores) {
+		StringBuilder description = new StringBuilder();
+		for (Servidor servidor : servidores) {
+			if (description.length() > 0) {
+				description.append(' ');
+			}
+			description.append(servidor.getId()).append(':').append(servidor.getDependentes().size());
+		}
+		return description.toString();
+	}
+	
 }
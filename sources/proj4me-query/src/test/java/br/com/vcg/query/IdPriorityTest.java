@@ -1,16 +1,30 @@
 package br.com.vcg.query;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import javax.persistence.EntityManagerFactory;
+
 import org.junit.Test;
 
 import br.com.vcg.query.api.QueryFilter;
 import br.com.vcg.query.domain.Cidade;
+import br.com.vcg.query.domain.ProjetoServidor;
 import br.com.vcg.query.domain.QCidade;
+import br.com.vcg.query.domain.QProjetoServidor;
+import br.com.vcg.query.domain.QServidor;
+import br.com.vcg.query.domain.Servidor;
 import br.com.vcg.query.domain.Uf;
+import br.com.vcg.query.repository.MetamodelPropertiesInspector;
+import br.com.vcg.query.repository.Property;
 import br.com.vcg.query.repository.QbeRepository;
+import br.com.vcg.query.repository.metadata.ExampleMetadata;
+import br.com.vcg.query.repository.metadata.ExampleProperty;
+import br.com.vcg.query.repository.metadata.MetamodelExampleRegistry;
 
 /**
  * Testes relacionados à priorização do ID em consultas que utilizam um objeto exemplo.
@@ -92,4 +106,110 @@ public class IdPriorityTest extends QbeTestBase {
 		assertContentEqual(cidades1, cidades2);
 	}
 	
+	/**
+	 * Os metadados do exemplo são calculados uma única vez por classe, classificando as propriedades de acordo
+	 * com o seu papel na construção dos predicados, e a chave primária é lida a partir deles.
+	 */
+	@Test
+	public void metadadosDoExemplo() {
+		ExampleMetadata metadata = ExampleMetadata.of(Servidor.class);
+		assertSame(metadata, ExampleMetadata.of(Servidor.class));
+		
+		assertEquals(ExampleProperty.Role.COLLECTION, property(metadata, "projetos").getRole());
+		assertEquals(ExampleProperty.Role.COLLECTION, property(metadata, "dependentes").getRole());
+		assertEquals(ExampleProperty.Role.RELATIONSHIP, property(metadata, "cidade").getRole());
+		assertEquals(ExampleProperty.Role.SIMPLE, property(metadata, "matricula").getRole());
+		assertNull("serialVersionUID não é uma propriedade válida", property(metadata, "serialVersionUID"));
+		
+		// o id é herdado de DomainBase
+		assertEquals(91L, metadata.getSimplePrimaryKey(new Servidor(91L, null)));
+		assertNull(metadata.getSimplePrimaryKey(new Servidor()));
+		
+		ExampleMetadata projetoServidor = ExampleMetadata.of(ProjetoServidor.class);
+		assertEquals(ExampleProperty.Role.COMPOSITE_KEY, projetoServidor.getCompositeId().getRole());
+		assertNull(projetoServidor.getSimpleId());
+	}
+	
+	/**
+	 * Os atributos internos de uma chave composta (@EmbeddedId) preenchidos no exemplo são utilizados como filtro.
+	 */
+	@Test
+	public void filtroPorChaveComposta() {
+		ProjetoServidor exemplo = new ProjetoServidor();
+		exemplo.getId().setIdServidor(91L);
+		
+		QueryFilter<ProjetoServidor> filter = new QueryFilter<ProjetoServidor>(QProjetoServidor.projetoServidor);
+		filter.setExample(exemplo);
+		
+		List<ProjetoServidor> projetos = createQbe().findAllBy(filter);
+		assertEquals(3, projetos.size());
+		for (ProjetoServidor projeto : projetos) {
+			assertEquals(Long.valueOf(91L), projeto.getId().getIdServidor());
+		}
+		
+		ProjetoServidor exemploCompleto = new ProjetoServidor();
+		exemploCompleto.getId().setIdServidor(91L);
+		exemploCompleto.getId().setIdProjeto(4L);
+		
+		QueryFilter<ProjetoServidor> filterCompleto = new QueryFilter<ProjetoServidor>(QProjetoServidor.projetoServidor);
+		filterCompleto.setExample(exemploCompleto);
+		assertEquals(1, createQbe().count(filterCompleto));
+	}
+	
+	/**
+	 * Os metadados calculados a partir do metamodelo JPA são registrados uma única vez por unidade de persistência,
+	 * mantendo a ordem de declaração dos atributos, e o inspetor é compartilhado entre as consultas.
+	 */
+	@Test
+	public void metadadosDoMetamodelo() throws Exception {
+		EntityManagerFactory emf = getEntityManager().getEntityManagerFactory();
+		createQbe();
+		assertSame(MetamodelExampleRegistry.of(emf), MetamodelExampleRegistry.of(emf));
+		assertSame(MetamodelPropertiesInspector.of(emf), MetamodelPropertiesInspector.of(emf));
+		
+		ExampleMetadata metamodel = MetamodelExampleRegistry.find(emf, Servidor.class);
+		assertEquals(ExampleProperty.Role.RELATIONSHIP, property(metamodel, "cidade").getRole());
+		assertEquals(ExampleProperty.Role.COLLECTION, property(metamodel, "projetos").getRole());
+		assertEquals(ExampleProperty.Role.COMPOSITE_KEY,
+				MetamodelExampleRegistry.find(emf, ProjetoServidor.class).getCompositeId().getRole());
+		
+		// mesma ordem das propriedades encontradas pela leitura das anotações
+		List<String> atributos = new ArrayList<String>();
+		for (ExampleProperty property : metamodel.getProperties()) {
+			atributos.add(property.getName());
+		}
+		List<String> declarados = new ArrayList<String>();
+		for (ExampleProperty property : ExampleMetadata.of(Servidor.class).getProperties()) {
+			if (atributos.contains(property.getName())) {
+				declarados.add(property.getName());
+			}
+		}
+		assertEquals(declarados, atributos);
+		
+		// associação identificada pelo metamodelo, filtrada pelo id
+		Servidor exemplo = new Servidor();
+		exemplo.setCidade(new Cidade());
+		exemplo.getCidade().setId(150L);
+		exemplo.getCidade().setNome("ignorado, o id é priorizado");
+		
+		List<Property> preenchidas = MetamodelPropertiesInspector.of(emf).extractFilledProperties(exemplo, 1);
+		assertEquals(1, preenchidas.size());
+		assertEquals("cidade", preenchidas.get(0).generateDotNotation());
+		
+		QueryFilter<Servidor> filter = new QueryFilter<Servidor>(QServidor.servidor);
+		filter.setExample(exemplo);
+		List<Servidor> servidores = createQbe().findAllBy(filter);
+		assertEquals(1, servidores.size());
+		assertEquals(Long.valueOf(91L), servidores.get(0).getId());
+	}
+	
+	private ExampleProperty property(ExampleMetadata metadata, String name) {
+		for (ExampleProperty property : metadata.getProperties()) {
+			if (property.getName().equals(name)) {
+				return property;
+			}
+		}
+		return null;
+	}
+	
 }
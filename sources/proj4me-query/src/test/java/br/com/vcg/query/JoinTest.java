@@ -1,6 +1,10 @@
 package br.com.vcg.query;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 import java.util.List;
 
@@ -18,7 +22,9 @@ import br.com.vcg.query.domain.QServidor;
 import br.com.vcg.query.domain.QUf;
 import br.com.vcg.query.domain.Servidor;
 import br.com.vcg.query.domain.Uf;
+import br.com.vcg.query.exception.QbeException;
 import br.com.vcg.query.repository.QbeRepository;
+import br.com.vcg.query.util.PropertyPath;
 
 /**
  * Testa o comportamento do Qbe na realização de join de associações 
@@ -148,4 +154,33 @@ public class JoinTest extends QbeTestBase {
 		}
 		
 	}
+	
+	/**
+	 * Caminhos em dot notation são compilados uma única vez por classe raiz e percorrem as associações,
+	 * tratando segmentos intermediários nulos.
+	 */
+	@Test
+	public void nestedPropertyPath() {
+		Servidor servidor = getEntityManager().find(Servidor.class, 91L);
+		
+		PropertyPath sigla = PropertyPath.of(Servidor.class, "cidade.uf.sigla");
+		assertSame(sigla, PropertyPath.of(Servidor.class, "cidade.uf.sigla"));
+		assertEquals(servidor.getCidade().getUf().getSigla(), sigla.get(servidor));
+		assertEquals("cidade.uf", sigla.getParent().getPath());
+		assertSame(PropertyPath.of(Servidor.class, "cidade.uf"), PropertyPath.of(Servidor.class, QServidor.servidor.cidade().uf()));
+		
+		// segmento intermediário nulo
+		Servidor semCidade = new Servidor();
+		assertNull(sigla.get(semCidade));
+		try {
+			sigla.set(semCidade, "XX");
+			fail("O caminho intermediário é nulo.");
+		} catch (QbeException e) {
+			// esperado
+		}
+		
+		PropertyPath.of(Servidor.class, "cidade.nome").set(servidor, "Alterada");
+		assertEquals("Alterada", servidor.getCidade().getNome());
+	}
+	
 }
@@ -1,18 +1,49 @@
 package br.com.vcg.query;
 
+import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.hibernate.LazyInitializationException;
+import org.hibernate.stat.Statistics;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.querydsl.core.DefaultQueryMetadata;
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.Predicate;
+
+import br.com.vcg.query.api.Page;
 import br.com.vcg.query.api.QueryFilter;
 import br.com.vcg.query.domain.Cidade;
 import br.com.vcg.query.domain.QCidade;
+import br.com.vcg.query.domain.Pessoa;
+import br.com.vcg.query.domain.QServidor;
 import br.com.vcg.query.domain.QUf;
+import br.com.vcg.query.domain.Servidor;
 import br.com.vcg.query.domain.Uf;
 import br.com.vcg.query.extension.Example;
+import br.com.vcg.query.exception.QbeException;
+import br.com.vcg.query.repository.AsyncQbeRepository;
+import br.com.vcg.query.repository.ExampleExtractors;
+import br.com.vcg.query.repository.ExamplePropertiesInspector;
+import br.com.vcg.query.repository.ParamExamplePredicate;
+import br.com.vcg.query.repository.Property;
 import br.com.vcg.query.repository.QbeRepositoryImpl;
+import br.com.vcg.query.repository.QueryTemplate;
+import br.com.vcg.query.repository.plan.QueryPlanCache;
+import br.com.vcg.query.repository.plan.QueryShape;
+import br.com.vcg.query.repository.visitor.ParamExtractorVisitor;
+import br.com.vcg.query.repository.visitor.ParamSettingVisitor;
+import br.com.vcg.query.repository.visitor.ReplaceVisitorParamExample;
+import br.com.vcg.query.repository.visitor.VisitorContext;
+import br.com.vcg.query.util.PropertyAccessor;
 
 
 /**
@@ -443,4 +474,483 @@ public class OperationsTest extends QbeTestBase {
 		Assert.assertEquals(1, cidadesQbe.size());
 		assertContentEqual(Arrays.asList(cidade2), cidadesQbe);
 	}
+
+	/**
+	 * Os acessores das propriedades são compilados uma única vez por classe e propriedade, e leem/alteram
+	 * os valores pelos métodos get/set (inclusive os herdados).
+	 */
+	@Test
+	public void propertyAccessors() throws Exception {
+		Servidor servidor = getEntityManager().find(Servidor.class, 91L);
+		
+		PropertyAccessor matricula = PropertyAccessor.of(Servidor.class, "matricula");
+		Assert.assertSame(matricula, PropertyAccessor.of(Servidor.class, "matricula"));
+		Assert.assertEquals("111", matricula.get(servidor));
+		Assert.assertEquals("Fulaninho 1", PropertyAccessor.of(Servidor.class, "nome").get(servidor));
+		Assert.assertEquals(91L, PropertyAccessor.of(Servidor.class, "id").get(servidor));
+		Assert.assertNull(PropertyAccessor.find(Servidor.class, "inexistente"));
+		
+		// acesso direto ao atributo herdado
+		PropertyAccessor cpf = PropertyAccessor.of(Pessoa.class.getDeclaredField("cpf"));
+		Assert.assertEquals("11111111111", cpf.get(servidor));
+		
+		// a alteração pelo acessor é a mesma realizada pelo set
+		matricula.set(servidor, "999");
+		Assert.assertEquals("999", servidor.getMatricula());
+		
+		getEntityManager().flush();
+		
+		// e o exemplo é lido pelos mesmos acessores
+		Servidor exemplo = new Servidor();
+		exemplo.setMatricula("999");
+		QueryFilter<Servidor> filter = new QueryFilter<Servidor>(QServidor.servidor);
+		filter.setExample(exemplo);
+		Assert.assertEquals(Arrays.asList(servidor), new QbeRepositoryImpl(getEntityManager()).findAllBy(filter));
+	}
+
+	/**
+	 * Associações cuja classe não possui extrator gerado (ex: subclasses internas utilizadas como exemplo) são
+	 * analisadas pelo ExamplePropertiesInspector, mantendo as mesmas regras de preenchimento e de priorização do id.
+	 */
+	@Test
+	public void nestedExampleWithoutGeneratedExtractor() {
+		Assert.assertNotNull(ExampleExtractors.find(Servidor.class));
+		Assert.assertNull(ExampleExtractors.find(CidadeExemplo.class));
+		
+		Servidor exemplo = new Servidor();
+		exemplo.setCidade(new CidadeExemplo());
+		exemplo.getCidade().setNome("Miranda");
+		exemplo.getCidade().setUf(new Uf());
+		exemplo.getCidade().getUf().setId(110L);
+		exemplo.getCidade().getUf().setSigla("ignorada, o id é priorizado");
+		
+		QueryFilter<Servidor> filter = new QueryFilter<Servidor>(QServidor.servidor);
+		filter.setExample(exemplo);
+		
+		List<Servidor> servidores = new QbeRepositoryImpl(getEntityManager()).findAllBy(filter);
+		Assert.assertEquals(1, servidores.size());
+		Assert.assertEquals(Long.valueOf(91L), servidores.get(0).getId());
+		
+		// uf diferente da cidade
+		exemplo.getCidade().getUf().setId(111L);
+		filter = new QueryFilter<Servidor>(QServidor.servidor);
+		filter.setExample(exemplo);
+		Assert.assertEquals(0, new QbeRepositoryImpl(getEntityManager()).count(filter));
+	}
+	
+	/**
+	 * Subclasses do ExamplePropertiesInspector que sobrescrevem os métodos legados de seleção dos atributos
+	 * continuam sendo respeitadas na extração das propriedades preenchidas.
+	 */
+	@Test
+	@SuppressWarnings("deprecation")
+	public void legacyInspectorHooks() throws Exception {
+		Servidor exemplo = new Servidor();
+		exemplo.setNome("Augusto");
+		exemplo.setMatricula("123");
+		
+		Assert.assertEquals(Arrays.asList("matricula", "nome"), dotNotations(new ExamplePropertiesInspector().extractFilledProperties(exemplo, 1)));
+		
+		ExamplePropertiesInspector inspector = new ExamplePropertiesInspector() {
+			@Override
+			protected boolean isValidProperty(Field field) {
+				return super.isValidProperty(field) && !"nome".equals(field.getName());
+			}
+		};
+		Assert.assertEquals(Arrays.asList("matricula"), dotNotations(inspector.extractFilledProperties(exemplo, 1)));
+	}
+	
+	private static List<String> dotNotations(List<Property> properties) {
+		List<String> names = new ArrayList<String>();
+		for (Property property : properties) {
+			names.add(property.generateDotNotation());
+		}
+		return names;
+	}
+	
+	/**
+	 * Consultas com o mesmo formato e valores diferentes reutilizam a JPQL do cache de planos: apenas a primeira
+	 * execução serializa a consulta, e cada execução realiza uma única consulta no banco de dados.
+	 */
+	@Test
+	public void queryPlanCache() {
+		Uf uf = getEntityManager().find(Uf.class, 110L);
+		getEntityManager().persist(new Cidade("Cidade ABC", uf));
+		getEntityManager().persist(new Cidade("Cidade DEF", uf));
+		getEntityManager().flush();
+		
+		QueryPlanCache cache = QueryPlanCache.of(getEntityManager().getEntityManagerFactory());
+		cache.clear();
+		Statistics statistics = resetStatistics();
+		
+		QbeRepositoryImpl qbe = new QbeRepositoryImpl(getEntityManager());
+		for (String nome : new String[] {"ABC", "DEF", "ABC"}) {
+			Cidade exemplo = new Cidade();
+			exemplo.setNome(nome);
+			QueryFilter<Cidade> filter = new QueryFilter<Cidade>(QCidade.cidade);
+			filter.join(QCidade.cidade.uf(), QUf.uf);
+			filter.where(QUf.uf.id.eq(110L));
+			filter.setExample(exemplo);
+			
+			List<Cidade> cidades = qbe.findAllBy(filter);
+			Assert.assertEquals(1, cidades.size());
+			Assert.assertEquals("Cidade " + nome, cidades.get(0).getNome());
+			Assert.assertSame(uf, cidades.get(0).getUf());
+		}
+		
+		Assert.assertEquals(3, statistics.getPrepareStatementCount());
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(2, cache.getHits());
+		Assert.assertEquals(1, cache.size());
+	}
+	
+	/**
+	 * O formato das expressões registradas no memo é calculado uma única vez: a consulta tem o mesmo formato
+	 * (e as mesmas constantes) calculado com ou sem o memo, e expressões com a mesma estrutura e valores diferentes
+	 * têm o mesmo formato.
+	 */
+	@Test
+	public void queryShapeMemo() {
+		QueryFilter<Cidade> abc = new QueryFilter<Cidade>(QCidade.cidade);
+		abc.where(QCidade.cidade.nome.startsWith("ABC").or(QCidade.cidade.id.in(1L, 2L)));
+		QueryFilter<Cidade> def = new QueryFilter<Cidade>(QCidade.cidade);
+		def.where(QCidade.cidade.nome.startsWith("DEF").or(QCidade.cidade.id.in(3L, 4L)));
+		
+		QueryShape.Memo memo = new QueryShape.Memo();
+		memo.register(abc.getMetadata().getWhere());
+		memo.register(abc.getMetadata().getWhere());
+		memo.register(def.getMetadata().getWhere());
+		Assert.assertEquals(2, memo.size());
+		
+		QueryShape abcShape = QueryShape.of(abc.getMetadata(), false, null, memo);
+		QueryShape defShape = QueryShape.of(def.getMetadata(), false, null, memo);
+		Assert.assertEquals(abcShape, defShape);
+		Assert.assertEquals(Arrays.asList("ABC", Arrays.asList(1L, 2L)), abcShape.getConstants());
+		Assert.assertEquals(Arrays.asList("DEF", Arrays.asList(3L, 4L)), defShape.getConstants());
+		Assert.assertEquals(QueryShape.of(abc.getMetadata(), false, null).getConstants(), abcShape.getConstants());
+		
+		// estrutura diferente
+		def.where(QCidade.cidade.nome.isNotNull());
+		Assert.assertNotEquals(abcShape, QueryShape.of(def.getMetadata(), false, null, memo));
+	}
+	
+	/**
+	 * O processamento dos predicados (ParamExample e exemplo) não altera o filtro: o mesmo filtro pode ser
+	 * executado várias vezes, com exemplos diferentes, sem acumular predicados.
+	 */
+	@Test
+	public void reusedFilter() {
+		Uf uf = getEntityManager().find(Uf.class, 110L);
+		getEntityManager().persist(new Cidade("Cidade ABC", uf));
+		getEntityManager().persist(new Cidade("Cidade DEF", uf));
+		getEntityManager().flush();
+		
+		Cidade exemplo = new Cidade();
+		exemplo.setNome("Cidade ABC");
+		QueryFilter<Cidade> filter = new QueryFilter<Cidade>(QCidade.cidade);
+		filter.where(QCidade.cidade.nome.eq(Example.read()).and(QCidade.cidade.uf().id.eq(110L)));
+		filter.setExample(exemplo);
+		Predicate where = filter.getMetadata().getWhere();
+		
+		QbeRepositoryImpl qbe = new QbeRepositoryImpl(getEntityManager());
+		Statistics statistics = resetStatistics();
+		for (int i = 0; i < 2; i++) {
+			List<Cidade> cidades = qbe.findAllBy(filter);
+			Assert.assertEquals(1, cidades.size());
+			Assert.assertEquals("Cidade ABC", cidades.get(0).getNome());
+		}
+		Assert.assertEquals(1, qbe.count(filter));
+		Assert.assertEquals(3, statistics.getPrepareStatementCount());
+		
+		// outro exemplo no mesmo filtro
+		exemplo.setNome("Cidade DEF");
+		Assert.assertEquals("Cidade DEF", qbe.findOneBy(filter).getNome());
+		
+		// sem valor no exemplo, o predicado do ParamExample é descartado
+		exemplo.setNome(null);
+		Assert.assertEquals(qbe.count(new QueryFilter<Cidade>(QCidade.cidade).where(QCidade.cidade.uf().id.eq(110L))), qbe.count(filter));
+		
+		Assert.assertSame(where, filter.getMetadata().getWhere());
+		Assert.assertTrue(filter.getMetadata().getParams().isEmpty());
+		Assert.assertNull(filter.getMetadata().getProjection());
+	}
+	
+	/**
+	 * O modelo de consulta é compilado uma única vez e executado com exemplos e páginas diferentes, sem alterar
+	 * o filtro de origem.
+	 */
+	@Test
+	public void queryTemplate() {
+		Uf uf = getEntityManager().find(Uf.class, 110L);
+		getEntityManager().persist(new Cidade("Cidade ABC 1", uf));
+		getEntityManager().persist(new Cidade("Cidade ABC 2", uf));
+		getEntityManager().persist(new Cidade("Cidade ABC 3", uf));
+		getEntityManager().persist(new Cidade("Cidade DEF", uf));
+		getEntityManager().flush();
+		
+		QueryFilter<Cidade> filter = new QueryFilter<Cidade>(QCidade.cidade);
+		filter.where(QCidade.cidade.nome.startsWith(Example.read()).and(QCidade.cidade.uf().id.eq(110L)));
+		filter.orderBy(QCidade.cidade.nome.asc());
+		Predicate where = filter.getMetadata().getWhere();
+		
+		QbeRepositoryImpl qbe = new QbeRepositoryImpl(getEntityManager());
+		QueryTemplate<Cidade> template = qbe.createTemplate(filter);
+		
+		Statistics statistics = resetStatistics();
+		List<Cidade> abc = template.execute(exemplo("Cidade ABC"));
+		Assert.assertEquals(Arrays.asList("Cidade ABC 1", "Cidade ABC 2", "Cidade ABC 3"), nomes(abc));
+		Assert.assertEquals(Arrays.asList("Cidade DEF"), nomes(template.execute(exemplo("Cidade DEF"))));
+		Assert.assertEquals(Arrays.asList("Cidade ABC 3"), nomes(template.execute(exemplo("Cidade ABC"), 2L, 2L)));
+		Assert.assertEquals(3, template.count(exemplo("Cidade ABC")));
+		Assert.assertEquals(4, statistics.getPrepareStatementCount());
+		
+		// o filtro de origem não é alterado e as cópias mantêm a configuração do modelo
+		Assert.assertSame(where, filter.getMetadata().getWhere());
+		Assert.assertNull(filter.getExample());
+		Assert.assertEquals(nomes(abc), nomes(qbe.findAllBy(template.newFilter(exemplo("Cidade ABC")))));
+	}
+	
+	/**
+	 * A cópia de um filtro mantém a sua classe, através do construtor de cópia da subclasse.
+	 */
+	@Test
+	public void copySubclass() {
+		CidadeFilter filter = new CidadeFilter();
+		filter.where(QCidade.cidade.uf().id.eq(110L));
+		
+		QueryFilter<Cidade> copy = filter.copy();
+		Assert.assertEquals(CidadeFilter.class, copy.getClass());
+		Assert.assertEquals(filter.getMetadata().getWhere(), copy.getMetadata().getWhere());
+		
+		QbeRepositoryImpl qbe = new QbeRepositoryImpl(getEntityManager());
+		Assert.assertEquals(qbe.findAllBy(filter), qbe.createTemplate(filter).execute(null));
+		
+		try {
+			new CidadeFilterSemCopia().copy();
+			Assert.fail("Subclasse sem construtor de cópia.");
+		} catch (QbeException e) {
+			Assert.assertTrue(e.getMessage().contains("copy()"));
+		}
+	}
+	
+	/**
+	 * Os visitors legados continuam disponíveis (depreciados) e mantêm o comportamento anterior: extraem os
+	 * parâmetros, descartam os predicados sem valor no exemplo e registram os demais valores no filtro.
+	 */
+	@Test
+	@SuppressWarnings({ "deprecation", "unchecked", "rawtypes" })
+	public void legacyParamVisitors() {
+		QueryFilter<Cidade> filter = new QueryFilter<Cidade>(QCidade.cidade);
+		filter.setExample(exemplo("Miranda do Norte"));
+		Predicate where = QCidade.cidade.nome.eq(Example.read()).and(QCidade.cidade.uf().id.eq(Example.read()));
+		
+		Set<String> custom = new HashSet<String>();
+		VisitorContext context = new VisitorContext(filter, custom);
+		where.accept(ParamExtractorVisitor.DEFAULT, context);
+		Assert.assertEquals(2, context.getParamPaths().size());
+		Assert.assertEquals(1, context.getPredicatesToDispose().size());
+		
+		where = (Predicate) where.accept(new ReplaceVisitorParamExample(context), null);
+		where.accept(ParamSettingVisitor.DEFAULT, context);
+		Assert.assertEquals(Arrays.asList("Miranda do Norte"), new ArrayList<Object>(filter.getMetadata().getParams().values()));
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("nome")), custom);
+	}
+	
+	/**
+	 * O predicado com ParamExample é compilado uma única vez por filtro e a árvore reconstruída é reutilizada
+	 * enquanto os valores null (e os tipos dos valores) do exemplo se repetem: apenas os valores dos parâmetros
+	 * mudam entre as execuções.
+	 */
+	@Test
+	public void paramExampleVariants() {
+		Predicate where = QCidade.cidade.nome.eq(Example.read()).and(QCidade.cidade.uf().id.eq(Example.read()));
+		ParamExamplePredicate compiled = ParamExamplePredicate.of(where);
+		Assert.assertFalse(compiled.isEmpty());
+		Assert.assertTrue(ParamExamplePredicate.of(QCidade.cidade.uf().id.eq(110L)).isEmpty());
+		
+		Cidade exemplo = exemplo("Miranda do Norte");
+		QueryMetadata abc = new DefaultQueryMetadata();
+		Set<String> custom = new HashSet<String>();
+		Predicate bound = compiled.bind(where, exemplo, abc, custom);
+		Assert.assertEquals(Arrays.asList("Miranda do Norte"), new ArrayList<Object>(abc.getParams().values()));
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("nome")), custom);
+		
+		// mesma variante: mesma árvore, outro valor
+		QueryMetadata def = new DefaultQueryMetadata();
+		Assert.assertSame(bound, compiled.bind(where, exemplo("Carima"), def, new HashSet<String>()));
+		Assert.assertEquals(Arrays.asList("Carima"), new ArrayList<Object>(def.getParams().values()));
+		
+		// nome null: outra variante, sem parâmetros
+		QueryMetadata none = new DefaultQueryMetadata();
+		Assert.assertNotSame(bound, compiled.bind(where, new Cidade(), none, new HashSet<String>()));
+		Assert.assertTrue(none.getParams().isEmpty());
+		
+		// as execuções do mesmo filtro reutilizam a árvore e o plano da consulta
+		QueryFilter<Cidade> filter = new QueryFilter<Cidade>(QCidade.cidade);
+		filter.where(QCidade.cidade.nome.eq(Example.read()));
+		QbeRepositoryImpl qbe = new QbeRepositoryImpl(getEntityManager());
+		QueryPlanCache cache = QueryPlanCache.of(getEntityManager().getEntityManagerFactory());
+		cache.clear();
+		for (String nome : new String[] {"Miranda do Norte", "Carima", "Miranda do Norte"}) {
+			filter.setExample(exemplo(nome));
+			Assert.assertEquals(nome, qbe.findOneBy(filter, true).getNome());
+		}
+		Assert.assertEquals(1, cache.getMisses());
+		Assert.assertEquals(2, cache.getHits());
+	}
+	
+	/**
+	 * findOneBy e findValuesBy limitam a consulta no banco de dados a 1 registro (2 no modo estrito), dentro da
+	 * página configurada no filtro, sem alterá-la.
+	 */
+	@Test
+	public void findOneWithLimit() {
+		QServidor servidor = QServidor.servidor;
+		QueryFilter<Servidor> filter = new QueryFilter<Servidor>(servidor);
+		filter.orderBy(servidor.id.asc());
+		QbeRepositoryImpl qbe = new QbeRepositoryImpl(getEntityManager());
+		getEntityManager().clear();
+		
+		Statistics statistics = resetStatistics();
+		Assert.assertEquals(Long.valueOf(91L), qbe.findOneBy(filter).getId());
+		Assert.assertEquals(91L, qbe.findValuesBy(filter, servidor.id).get(servidor.id).longValue());
+		Assert.assertEquals(2, statistics.getPrepareStatementCount());
+		// apenas o registro retornado é carregado, dos 5 servidores
+		Assert.assertEquals(1, statistics.getEntityLoadCount());
+		
+		// modo estrito: 2 registros para identificar o resultado não único
+		getEntityManager().clear();
+		statistics = resetStatistics();
+		try {
+			qbe.findOneBy(filter, true);
+			Assert.fail("A consulta retorna mais de um servidor.");
+		} catch (QbeException e) {
+			Assert.assertEquals(2, statistics.getEntityLoadCount());
+		}
+		try {
+			qbe.findValuesBy(filter, true, servidor.id);
+			Assert.fail("A consulta retorna mais de um servidor.");
+		} catch (QbeException e) {
+			Assert.assertEquals(2, statistics.getPrepareStatementCount());
+		}
+		Servidor exemplo = new Servidor();
+		exemplo.setMatricula("111");
+		Assert.assertEquals(Long.valueOf(91L), qbe.findOneBy(filter.copy().setExample(exemplo), true).getId());
+		
+		// a página do filtro é respeitada e mantida
+		filter.fetchPage(2L, 2L);
+		Assert.assertEquals(Long.valueOf(93L), qbe.findOneBy(filter).getId());
+		Assert.assertEquals(93L, qbe.findValuesBy(filter, servidor.id).get(servidor.id).longValue());
+		Assert.assertEquals(Long.valueOf(2L), filter.getLimit());
+		Assert.assertEquals(Long.valueOf(2L), filter.getOffset());
+		// página de um registro: resultado único no modo estrito
+		filter.fetchPage(1L, 5L);
+		Assert.assertEquals(Long.valueOf(95L), qbe.findOneBy(filter, true).getId());
+		filter.fetchPage(1L, 6L);
+		Assert.assertNull(qbe.findOneBy(filter, true));
+		Assert.assertNull(qbe.findValuesBy(filter, servidor.id));
+	}
+	
+	/**
+	 * As consultas assíncronas são executadas no executor informado, cada uma com um EntityManager próprio:
+	 * retornam o mesmo resultado das consultas síncronas, com as entidades desatachadas, e o filtro é copiado
+	 * na chamada.
+	 */
+	@Test
+	public void asyncQueries() throws Exception {
+		QServidor servidor = QServidor.servidor;
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			AsyncQbeRepository async = new AsyncQbeRepository(getEntityManager().getEntityManagerFactory(), executor);
+			QueryFilter<Servidor> filter = new QueryFilter<Servidor>(servidor);
+			filter.orderBy(servidor.id.asc());
+			filter.detachedFetchFilter(servidor.dependentes);
+			
+			CompletableFuture<List<Servidor>> all = async.findAllByAsync(filter);
+			CompletableFuture<Page<Servidor>> page = async.findPageAsync(filter.copy().fetchPage(2L, 2L));
+			// alteração posterior à chamada: não afeta as consultas submetidas
+			filter.where(servidor.id.eq(91L));
+			CompletableFuture<Long> count = async.countAsync(filter);
+			
+			List<Servidor> servidores = all.get();
+			Assert.assertEquals(Arrays.asList(91L, 92L, 93L, 94L, 95L), ids(servidores));
+			for (Servidor item : servidores) {
+				Assert.assertFalse(getEntityManager().contains(item));
+				// fetch desatachado realizado antes do fechamento do EntityManager da tarefa
+				item.getDependentes().size();
+			}
+			Assert.assertEquals(2, servidores.get(0).getDependentes().size());
+			try {
+				servidores.get(0).getProjetos().size();
+				Assert.fail("O EntityManager da tarefa deveria estar fechado.");
+			} catch (LazyInitializationException e) {
+				// coleção sem fetch
+			}
+			Assert.assertEquals(Arrays.asList(93L, 94L), ids(page.get().getContent()));
+			Assert.assertEquals(5, page.get().getTotal());
+			Assert.assertEquals(Long.valueOf(1L), count.get());
+		} finally {
+			executor.shutdown();
+		}
+		
+		try {
+			new AsyncQbeRepository(getEntityManager().getEntityManagerFactory(), null);
+			Assert.fail("Executor não informado.");
+		} catch (QbeException e) {
+			Assert.assertTrue(e.getMessage().contains("executor"));
+		}
+	}
+	
+	private static List<Long> ids(List<Servidor> servidores) {
+		List<Long> ids = new ArrayList<Long>();
+		for (Servidor servidor : servidores) {
+			ids.add(servidor.getId());
+		}
+		return ids;
+	}
+	
+	private static Cidade exemplo(String nome) {
+		Cidade exemplo = new Cidade();
+		exemplo.setNome(nome);
+		return exemplo;
+	}
+	
+	private static List<String> nomes(List<Cidade> cidades) {
+		List<String> nomes = new ArrayList<String>();
+		for (Cidade cidade : cidades) {
+			nomes.add(cidade.getNome());
+		}
+		return nomes;
+	}
+	
+	/**
+	 * Filtro com construtor de cópia.
+	 */
+	public static class CidadeFilter extends QueryFilter<Cidade> {
+		
+		public CidadeFilter() {
+			super(QCidade.cidade);
+		}
+		
+		protected CidadeFilter(CidadeFilter source) {
+			super(source);
+		}
+	}
+	
+	/**
+	 * Filtro sem construtor de cópia.
+	 */
+	public static class CidadeFilterSemCopia extends QueryFilter<Cidade> {
+		
+		public CidadeFilterSemCopia() {
+			super(QCidade.cidade);
+		}
+	}
+	
+	/**
+	 * Exemplo de uma classe sem extrator gerado.
+	 */
+	@SuppressWarnings("serial")
+	public static class CidadeExemplo extends Cidade {
+	}
 }
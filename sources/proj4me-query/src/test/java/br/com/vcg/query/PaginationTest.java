@@ -1,10 +1,23 @@
 package br.com.vcg.query;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.persistence.EntityManager;
+
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
 import org.junit.Test;
 
+import com.querydsl.core.types.OrderSpecifier;
+
+import br.com.vcg.query.api.KeysetPage;
+import br.com.vcg.query.api.Page;
 import br.com.vcg.query.api.QueryFilter;
+import br.com.vcg.query.domain.Pessoa;
+import br.com.vcg.query.domain.QPessoa;
 import br.com.vcg.query.domain.QUf;
 import br.com.vcg.query.domain.Uf;
 import br.com.vcg.query.repository.QbeRepositoryImpl;
@@ -131,4 +144,103 @@ public class PaginationTest extends QbeTestBase {
         
     }	
     
-}
\ No newline at end of file
+    /**
+     * Keyset pagination on sort keys with null values: the pages follow the explicit position of the nulls
+     * (by default, last in ASC and first in DESC), without skipping or repeating rows, one query per page.
+     */
+    @Test
+    public void fetchKeysetWithNullKeysTest() {
+        String[] cpfs = {"1", null, "2", null, "1", null, "3"};
+        for (String cpf : cpfs) {
+            getJpa().save(new Pessoa("keyset", null, null, cpf, "keyset@test"));
+        }
+        getJpa().getEm().flush();
+        
+        QPessoa pessoa = QPessoa.pessoa;
+        assertKeysetPages(pessoa.cpf.asc(),
+                "from Pessoa p where p.email = 'keyset@test' order by p.cpf asc nulls last, p.id asc");
+        assertKeysetPages(pessoa.cpf.desc(),
+                "from Pessoa p where p.email = 'keyset@test' order by p.cpf desc nulls first, p.id desc");
+        assertKeysetPages(pessoa.cpf.asc().nullsFirst(),
+                "from Pessoa p where p.email = 'keyset@test' order by p.cpf asc nulls first, p.id asc");
+        assertKeysetPages(pessoa.cpf.desc().nullsLast(),
+                "from Pessoa p where p.email = 'keyset@test' order by p.cpf desc nulls last, p.id desc");
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void assertKeysetPages(OrderSpecifier<?> order, String hql) {
+        List<Pessoa> expected = getEntityManager().createQuery(hql).getResultList();
+        Assert.assertEquals(7, expected.size());
+        
+        QbeRepositoryImpl qbe = new QbeRepositoryImpl(getEntityManager());
+        QueryFilter<Pessoa> filter = new QueryFilter<Pessoa>(QPessoa.pessoa);
+        filter.where(QPessoa.pessoa.email.eq("keyset@test"));
+        filter.orderBy(order);
+        
+        Statistics statistics = resetStatistics();
+        List<Pessoa> pessoas = new ArrayList<Pessoa>();
+        KeysetPage<Pessoa> page = qbe.findKeysetPage(filter.fetchKeyset(2L, null));
+        pessoas.addAll(page.getContent());
+        while (page.hasNext()) {
+            page = qbe.findKeysetPage(filter.fetchKeyset(2L, page.getNext()));
+            Assert.assertFalse(page.getContent().isEmpty());
+            pessoas.addAll(page.getContent());
+        }
+        Assert.assertEquals(order.toString(), expected, pessoas);
+        Assert.assertEquals(4, statistics.getPrepareStatementCount());
+    }
+    
+    /**
+     * With a count executor, the count of a paged query runs on another EntityManager, concurrently with the
+     * page query. In a transaction, the count runs sequentially on the same EntityManager.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void findPageWithConcurrentCountTest() {
+        final AtomicInteger counts = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                counts.incrementAndGet();
+                new Thread(command).start();
+            }
+        };
+        List<Uf> ufsHQL = getQuerier().executeQuery("from Uf u order by u.sigla", 5, 5, null);
+        
+        EntityManager entityManager = getEntityManager().getEntityManagerFactory().createEntityManager();
+        try {
+            QbeRepositoryImpl qbe = new QbeRepositoryImpl(entityManager);
+            qbe.setCountExecutor(executor);
+            QueryFilter<Uf> filter = new QueryFilter<Uf>(QUf.uf);
+            filter.orderBy(QUf.uf.sigla.asc());
+            
+            Statistics statistics = resetStatistics();
+            Page<Uf> page = qbe.findPage(filter.fetchPage(5L, 2L));
+            Assert.assertEquals(ufsHQL.size(), page.getContent().size());
+            for (int i = 0; i < ufsHQL.size(); i++) {
+                Assert.assertEquals(ufsHQL.get(i).getId(), page.getContent().get(i).getId());
+                Assert.assertTrue(entityManager.contains(page.getContent().get(i)));
+            }
+            Assert.assertEquals(27, page.getTotal());
+            Assert.assertEquals(1, counts.get());
+            Assert.assertEquals(2, statistics.getPrepareStatementCount());
+            
+            // last page (incomplete): the total comes from the page
+            page = qbe.findPage(filter.fetchPage(5L, 6L));
+            Assert.assertEquals(2, page.getContent().size());
+            Assert.assertEquals(27, page.getTotal());
+        } finally {
+            entityManager.close();
+        }
+        
+        // in a transaction the count runs sequentially
+        counts.set(0);
+        QbeRepositoryImpl qbe = new QbeRepositoryImpl(getEntityManager());
+        qbe.setCountExecutor(executor);
+        Page<Uf> page = qbe.findPage(new QueryFilter<Uf>(QUf.uf).fetchPage(5L, 2L));
+        Assert.assertEquals(5, page.getContent().size());
+        Assert.assertEquals(27, page.getTotal());
+        Assert.assertEquals(0, counts.get());
+    }
+    
+}
@@ -9,6 +9,8 @@ import java.util.Date;
 
 import javax.persistence.EntityManager;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Ignore;
 
 import br.com.vcg.query.repository.QbeRepository;
@@ -83,5 +85,16 @@ public class QbeTestBase extends AppLocalTransactionTestBase {
 	public EntityManager getEntityManager() {
 		return getJpa().getEm();
 	}
+	
+	/**
+	 * Habilita e reinicia as estatísticas do Hibernate, para a verificação do número de consultas executadas.
+	 * @return Estatísticas da unidade de persistência default.
+	 */
+	protected Statistics resetStatistics() {
+		Statistics statistics = getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+		statistics.clear();
+		return statistics;
+	}
 
 }
@@ -1,7 +1,13 @@
 package br.com.vcg.query.domain;
 
+import java.util.List;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.JoinColumn;
+import javax.persistence.JoinTable;
+import javax.persistence.ManyToMany;
 
 
 @Entity
@@ -10,6 +16,12 @@ public class Ferramenta  extends DomainBase<Long> {
 
 	@Column(name="DESCRICAO", length=50)
 	private String descricao;
+	
+	@ManyToMany(fetch=FetchType.LAZY)
+	@JoinTable(name="FERRAMENTA_PROJETO",
+			joinColumns=@JoinColumn(name="ID_FERRAMENTA"),
+			inverseJoinColumns=@JoinColumn(name="ID_PROJETO"))
+	private List<Projeto> projetos; // para testar fetch de ManyToMany
 
 	public String getDescricao() {
 		return descricao;
@@ -19,4 +31,12 @@ public class Ferramenta  extends DomainBase<Long> {
 		this.descricao = descricao;
 	}
 
+	public List<Projeto> getProjetos() {
+		return projetos;
+	}
+
+	public void setProjetos(List<Projeto> projetos) {
+		this.projetos = projetos;
+	}
+
 }
@@ -1,10 +1,12 @@
 package br.com.vcg.query.domain;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
+import javax.persistence.MapKey;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
@@ -29,6 +31,10 @@ public class Uf extends DomainBase<Long> {
 	
 	@OneToMany(mappedBy="uf", fetch=FetchType.LAZY)
 	private Set<Cidade> cidadesSet; // para testar fetch com outro tipo além de List
+	
+	@OneToMany(mappedBy="uf", fetch=FetchType.LAZY)
+	@MapKey
+	private Map<Long, Cidade> cidadesMap; // para testar fetch de Map, indexado pelo id da cidade
 
 	public Uf() {
 	}
@@ -62,4 +68,14 @@ public class Uf extends DomainBase<Long> {
 	public void setCidadesSet(Set<Cidade> cidadesSet) {
 		this.cidadesSet = cidadesSet;
 	}
+
+
+	public Map<Long, Cidade> getCidadesMap() {
+		return cidadesMap;
+	}
+
+
+	public void setCidadesMap(Map<Long, Cidade> cidadesMap) {
+		this.cidadesMap = cidadesMap;
+	}
 }
\ No newline at end of file
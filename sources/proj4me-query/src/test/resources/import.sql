@@ -218,4 +218,14 @@ INSERT INTO PROJETO_FERRAMENTA (ID_PROJETO, ID_FERRAMENTA) VALUES (1,4);
 --INSERT INTO PROJETO_FERRAMENTA (ID_PROJETO, ID_FERRAMENTA) VALUES (3,1); Associacao configurda com @OneToMany cria unique apenas para uma chave.
 INSERT INTO PROJETO_FERRAMENTA (ID_PROJETO, ID_FERRAMENTA) VALUES (3,5);
 --INSERT INTO PROJETO_FERRAMENTA (ID_PROJETO, ID_FERRAMENTA) VALUES (4,1);
-INSERT INTO PROJETO_FERRAMENTA (ID_PROJETO, ID_FERRAMENTA) VALUES (4,3);
\ No newline at end of file
+INSERT INTO PROJETO_FERRAMENTA (ID_PROJETO, ID_FERRAMENTA) VALUES (4,3);
+
+-- ferramenta-projeto (ManyToMany: projetos que utilizam cada ferramenta)
+INSERT INTO FERRAMENTA_PROJETO (ID_FERRAMENTA, ID_PROJETO) VALUES (1,1);
+INSERT INTO FERRAMENTA_PROJETO (ID_FERRAMENTA, ID_PROJETO) VALUES (1,3);
+INSERT INTO FERRAMENTA_PROJETO (ID_FERRAMENTA, ID_PROJETO) VALUES (1,4);
+INSERT INTO FERRAMENTA_PROJETO (ID_FERRAMENTA, ID_PROJETO) VALUES (2,1);
+INSERT INTO FERRAMENTA_PROJETO (ID_FERRAMENTA, ID_PROJETO) VALUES (3,4);
+INSERT INTO FERRAMENTA_PROJETO (ID_FERRAMENTA, ID_PROJETO) VALUES (4,1);
+INSERT INTO FERRAMENTA_PROJETO (ID_FERRAMENTA, ID_PROJETO) VALUES (4,2);
+INSERT INTO FERRAMENTA_PROJETO (ID_FERRAMENTA, ID_PROJETO) VALUES (5,3);
\ No newline at end of file